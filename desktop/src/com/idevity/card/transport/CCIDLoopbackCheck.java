@@ -0,0 +1,209 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.idevity.android.CardLostException;
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * Drives CCIDTransport through a SimulatedCCIDEndpoint to a
+ * SimulatedCardTransport, without a USB reader.
+ *
+ * Checks that a command and a response longer than the reader's
+ * maximum message size are chained across blocks intact, that up to
+ * MAX_TIME_EXTENSIONS time extensions in a row are waited out, and that
+ * one more, or a card gone mute, is reported as CardLostException with
+ * the transport disconnected.  Prints one line per check and exits with
+ * status 1 if any fails, e.g.:
+ *
+ * <pre>
+ * java -cp bin:libs/KSJavaAPI.jar com.idevity.card.transport.CCIDLoopbackCheck
+ * </pre>
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class CCIDLoopbackCheck {
+
+	/**
+	 * Field MAX_MESSAGE.
+	 * Small, so that every exchange below is chained.
+	 */
+	private static final int MAX_MESSAGE = 64;
+	/**
+	 * Field CHUID_LENGTH.
+	 */
+	private static final int CHUID_LENGTH = 1500;
+	/**
+	 * Field HISTORICAL_BYTES.
+	 */
+	private static final byte[] HISTORICAL_BYTES = { (byte) 0x80, 0x73, (byte) 0xc0,
+			0x21, (byte) 0xc0 };
+	/**
+	 * Field GET_CHUID.
+	 * Extended length GET DATA of the CHUID, Le 65536.
+	 */
+	private static final byte[] GET_CHUID = { 0x00, (byte) 0xcb, 0x3f, (byte) 0xff,
+			0x00, 0x00, 0x05, 0x5c, 0x03, 0x5f, (byte) 0xc1, 0x02, 0x00, 0x00 };
+	/**
+	 * Field failures.
+	 */
+	private static int failures = 0;
+
+	/**
+	 * Hidden Constructor for CCIDLoopbackCheck.
+	 */
+	private CCIDLoopbackCheck() {
+		// Hide default constructor
+	}
+
+	/**
+	 * Method main.
+	 *
+	 * @param args
+	 *            String[] unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		byte[] chuid = newChuid();
+		byte[] response = new byte[CHUID_LENGTH + 16];
+
+		/*
+		 * A command longer than one message reaches the card whole.
+		 */
+		SimulatedCardTransport card = newCard(chuid);
+		RecordingCardTransport recorder = new RecordingCardTransport(card);
+		SimulatedCCIDEndpoint endpoint = new SimulatedCCIDEndpoint(recorder, MAX_MESSAGE, true);
+		CCIDTransport transport = new CCIDTransport(endpoint);
+		check(transport.isConnected(), "powered on");
+		byte[] select = new byte[5 + 100];
+		select[1] = (byte) 0xa4;
+		select[2] = 0x04;
+		select[4] = 100;
+		int outs = endpoint.getBulkOuts();
+		int length = transport.transmit(select, select.length, response);
+		// The last command and response in the trace are this exchange
+		List<APDUTrace.Frame> frames = APDUTrace.parse(recorder.getTrace()).getFrames();
+		check(length == 2 && endpoint.getBulkOuts() - outs > 1
+				&& Arrays.equals(frames.get(frames.size() - 2).getData(), select),
+				"command chained across blocks");
+
+		/*
+		 * A response longer than one message comes back whole.
+		 */
+		length = transport.transmit(GET_CHUID, GET_CHUID.length, response);
+		check(length == chuid.length + 2
+				&& Arrays.equals(Arrays.copyOf(response, chuid.length), chuid)
+				&& TransportUtil.getSW(response, length) == 0x9000,
+				"response chained across blocks");
+		transport.close();
+
+		/*
+		 * Time extensions are waited out, up to the limit.
+		 */
+		card = newCard(chuid);
+		endpoint = new SimulatedCCIDEndpoint(card, MAX_MESSAGE, true);
+		transport = new CCIDTransport(endpoint);
+		endpoint.setTimeExtensions(CCIDTransport.MAX_TIME_EXTENSIONS);
+		length = transport.transmit(GET_CHUID, GET_CHUID.length, response);
+		check(length == chuid.length + 2 && transport.isConnected(),
+				CCIDTransport.MAX_TIME_EXTENSIONS + " time extensions waited out");
+		endpoint.setTimeExtensions(CCIDTransport.MAX_TIME_EXTENSIONS + 1);
+		check(isLost(transport, response), "one more time extension is a mute card");
+		transport.close();
+
+		/*
+		 * A card that leaves the field is reported lost.
+		 */
+		card = newCard(chuid);
+		endpoint = new SimulatedCCIDEndpoint(card, MAX_MESSAGE, true);
+		transport = new CCIDTransport(endpoint);
+		card.setLostAfter(0);
+		check(isLost(transport, response), "lost card reported");
+		transport.close();
+
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Method isLost.
+	 *
+	 * @param transport
+	 *            CCIDTransport
+	 * @param response
+	 *            byte[]
+	 * @return boolean true if GET DATA failed with CardLostException and
+	 *         the transport is no longer connected
+	 * @throws Exception
+	 */
+	private static boolean isLost(CCIDTransport transport, byte[] response)
+			throws Exception {
+		try {
+			transport.transmit(GET_CHUID, GET_CHUID.length, response);
+		} catch (CardLostException e) {
+			return !transport.isConnected();
+		}
+		return false;
+	}
+
+	/**
+	 * Method newChuid.
+	 *
+	 * @return byte[] an encoded CHUID of CHUID_LENGTH content bytes
+	 */
+	private static byte[] newChuid() {
+		byte[] chuid = new byte[CHUID_LENGTH + 4];
+		chuid[0] = 0x53;
+		chuid[1] = (byte) 0x82;
+		chuid[2] = (byte) (CHUID_LENGTH >> 8);
+		chuid[3] = (byte) CHUID_LENGTH;
+		for (int i = 4; i < chuid.length; i++) {
+			chuid[i] = (byte) i;
+		}
+		return chuid;
+	}
+
+	/**
+	 * Method newCard.
+	 *
+	 * @param chuid
+	 *            byte[]
+	 * @return SimulatedCardTransport taking extended length APDUs
+	 */
+	private static SimulatedCardTransport newCard(byte[] chuid) {
+		SimulatedCardTransport card = new SimulatedCardTransport(HISTORICAL_BYTES);
+		card.putDataObject(PIVContainer.CHUID.getTagBytes(), chuid);
+		card.setTransceiveLimits(65546, true);
+		return card;
+	}
+
+	/**
+	 * Method check.
+	 *
+	 * @param passed
+	 *            boolean
+	 * @param what
+	 *            String
+	 */
+	private static void check(boolean passed, String what) {
+		if (!passed) {
+			failures++;
+		}
+		System.out.println((passed ? "PASS " : "FAIL ") + what);
+	}
+
+}
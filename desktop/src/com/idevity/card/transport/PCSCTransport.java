@@ -0,0 +1,262 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.nio.ByteBuffer;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+
+import com.idevity.android.CardLostException;
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * A CardTransport over a PC/SC reader, using javax.smartcardio.
+ * 
+ * javax.smartcardio is not part of the Android platform, so this class
+ * lives in the desktop source folder and is not built into the APK.  It
+ * allows the 800-73 reader engine to run against desk readers on Linux.
+ * 
+ * PC/SC does not expose the reader's buffer size or a per-command
+ * timeout, so the transceive limit is supplied by the caller and the
+ * timeout is only recorded.  The card identifier is obtained from
+ * contactless readers with the PC/SC Part 3 GET UID command.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class PCSCTransport implements CardTransport {
+
+	/**
+	 * Field GET_UID.
+	 * PC/SC Part 3 pseudo APDU, answered by the reader, not the card.
+	 */
+	private static final byte[] GET_UID = { (byte) 0xff, (byte) 0xca, 0x00, 0x00, 0x00 };
+	/**
+	 * Field card.
+	 */
+	private Card card;
+	/**
+	 * Field channel.
+	 */
+	private javax.smartcardio.CardChannel channel;
+	/**
+	 * Field historicalBytes.
+	 */
+	private byte[] historicalBytes;
+	/**
+	 * Field maxTransceive.
+	 */
+	private int maxTransceive;
+	/**
+	 * Field elApduSupport.
+	 */
+	private boolean elApduSupport;
+	/**
+	 * Field timeOut.
+	 */
+	private int timeOut = 0;
+	/**
+	 * Field isConnected.
+	 */
+	private boolean isConnected = false;
+	/**
+	 * Field cardIdentifier.
+	 */
+	private byte[] cardIdentifier = null;
+
+	/**
+	 * Constructor for PCSCTransport.
+	 * 
+	 * Connects to the card present in the terminal using any protocol,
+	 * with short APDUs only.
+	 * 
+	 * @param terminal
+	 *            CardTerminal
+	 * @throws CardException
+	 */
+	public PCSCTransport(CardTerminal terminal) throws CardException {
+		this(terminal, 261, false);
+	}
+
+	/**
+	 * Constructor for PCSCTransport.
+	 * 
+	 * @param terminal
+	 *            CardTerminal
+	 * @param maxTransceive
+	 *            int the reader's maximum command/response length
+	 * @param elApduSupport
+	 *            boolean true if the reader carries extended length APDUs
+	 * @throws CardException
+	 */
+	public PCSCTransport(CardTerminal terminal, int maxTransceive,
+			boolean elApduSupport) throws CardException {
+		this.card = terminal.connect("*");
+		this.channel = card.getBasicChannel();
+		this.historicalBytes = card.getATR().getHistoricalBytes();
+		this.maxTransceive = maxTransceive;
+		this.elApduSupport = elApduSupport;
+		this.isConnected = true;
+		try {
+			javax.smartcardio.ResponseAPDU uid = channel
+					.transmit(new javax.smartcardio.CommandAPDU(GET_UID));
+			if (uid.getSW() == 0x9000 && uid.getData().length > 0) {
+				this.cardIdentifier = uid.getData();
+			}
+		} catch (CardException e) {
+			// Not a contactless reader, no identifier
+		}
+	}
+
+	/**
+	 * Method transmit.
+	 * 
+	 * @param req
+	 *            CommandAPDU
+	 * @return ResponseAPDU
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public ResponseAPDU transmit(CommandAPDU req) throws InvalidResponseException {
+		if (!isConnected) {
+			throw new CardLostException("Card lost");
+		}
+		try {
+			javax.smartcardio.ResponseAPDU resp = channel
+					.transmit(new javax.smartcardio.CommandAPDU(req.getBytes()));
+			return new ResponseAPDU(resp.getBytes());
+		} catch (CardException e) {
+			isConnected = false;
+			throw new CardLostException("Card lost", e);
+		}
+	}
+
+	/**
+	 * Method transmit.
+	 * 
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param response
+	 *            byte[]
+	 * @return int
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public int transmit(byte[] command, int commandLength, byte[] response)
+			throws InvalidResponseException {
+		if (!isConnected) {
+			throw new CardLostException("Card lost");
+		}
+		try {
+			int length = channel.transmit(ByteBuffer.wrap(command, 0, commandLength),
+					ByteBuffer.wrap(response));
+			if (length < 2) {
+				throw new InvalidResponseException("Response was null!");
+			}
+			return length;
+		} catch (CardException e) {
+			isConnected = false;
+			throw new CardLostException("Card lost", e);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidResponseException(e);
+		}
+	}
+
+	/**
+	 * @return the UID reported by the reader, or null
+	 */
+	@Override
+	public byte[] getCardIdentifier() {
+		return cardIdentifier;
+	}
+
+	/**
+	 * @return the historicalBytes
+	 */
+	@Override
+	public byte[] getHistoricalBytes() {
+		return historicalBytes;
+	}
+
+	/**
+	 * @return the maxTransceive
+	 */
+	@Override
+	public int getMaxTransceiveLength() {
+		return maxTransceive;
+	}
+
+	/**
+	 * @return the elApduSupport
+	 */
+	@Override
+	public boolean isExtendedLengthApduSupported() {
+		return elApduSupport;
+	}
+
+	/**
+	 * @return int
+	 */
+	@Override
+	public int getMaxExtendedLe() {
+		return TransportUtil.getMaxExtendedLe(elApduSupport, maxTransceive);
+	}
+
+	/**
+	 * @return the timeOut
+	 */
+	@Override
+	public int getTimeout() {
+		return timeOut;
+	}
+
+	/**
+	 * @param timeout the timeOut to set
+	 */
+	@Override
+	public void setTimeout(int timeout) {
+		this.timeOut = timeout;
+	}
+
+	/**
+	 * @return the isConnected
+	 */
+	@Override
+	public boolean isConnected() {
+		return isConnected;
+	}
+
+	/**
+	 * Method close.
+	 */
+	@Override
+	public void close() {
+		if (isConnected) {
+			isConnected = false;
+			try {
+				card.disconnect(false);
+			} catch (CardException e) {
+				// Nothing further to release
+			}
+		}
+	}
+
+}
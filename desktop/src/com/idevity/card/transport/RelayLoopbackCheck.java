@@ -0,0 +1,169 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+
+import com.idevity.android.CardLostException;
+import com.idevity.card.data.PIVContainer;
+import com.idevity.card.reader.APDUCatalog;
+
+/**
+ * Drives RemoteCardTransport through an APDURelayServer to a
+ * SimulatedCardTransport, all on the loopback address of one machine.
+ *
+ * Checks that a client with the wrong secret is turned away, that a
+ * batch reaches the card and comes back assembled, and that a client
+ * still holding an earlier card is told the card was lost once the
+ * relay has been given a new one.  Prints one line per check and exits
+ * with status 1 if any fails, e.g.:
+ *
+ * <pre>
+ * java -cp bin:libs/KSJavaAPI.jar com.idevity.card.transport.RelayLoopbackCheck
+ * </pre>
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class RelayLoopbackCheck {
+
+	/**
+	 * Field CHUID_LENGTH.
+	 * Long enough to need GET RESPONSE over short APDUs.
+	 */
+	private static final int CHUID_LENGTH = 1500;
+	/**
+	 * Field failures.
+	 */
+	private static int failures = 0;
+
+	/**
+	 * Hidden Constructor for RelayLoopbackCheck.
+	 */
+	private RelayLoopbackCheck() {
+		// Hide default constructor
+	}
+
+	/**
+	 * Method main.
+	 *
+	 * @param args
+	 *            String[] unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String secret = APDURelayServer.newSecret();
+		APDURelayServer server = APDURelayServer.bindLoopback(0, secret);
+		server.start();
+		try {
+			server.setCard(newCard((byte) 1));
+			int port = server.getPort();
+
+			boolean denied = false;
+			try {
+				new RemoteCardTransport("127.0.0.1", port, secret + "0").close();
+			} catch (IOException e) {
+				denied = true;
+			}
+			check(denied, "wrong secret rejected");
+
+			RemoteCardTransport first = new RemoteCardTransport("127.0.0.1", port, secret);
+			check(first.isConnected(), "connected with the secret");
+			List<ResponseAPDU> responses = readChuid(first);
+			check(responses.size() == 2
+					&& responses.get(1).getSW() == 0x9000
+					&& responses.get(1).getData().length == CHUID_LENGTH + 4,
+					"CHUID read in one round trip");
+
+			server.setCard(newCard((byte) 2));
+			boolean lost = false;
+			try {
+				readChuid(first);
+			} catch (CardLostException e) {
+				lost = true;
+			}
+			check(lost && !first.isConnected(), "earlier card reported lost");
+			first.close();
+
+			RemoteCardTransport second = new RemoteCardTransport("127.0.0.1", port, secret);
+			check(second.getGeneration() == server.getGeneration(),
+					"new connection bound to the new card");
+			check(readChuid(second).get(1).getData()[4] == 2, "new card read");
+			second.close();
+		} finally {
+			server.stop();
+		}
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Method newCard.
+	 *
+	 * @param fill
+	 *            byte the value of every CHUID content byte
+	 * @return SimulatedCardTransport
+	 */
+	private static SimulatedCardTransport newCard(byte fill) {
+		byte[] chuid = new byte[CHUID_LENGTH + 4];
+		chuid[0] = 0x53;
+		chuid[1] = (byte) 0x82;
+		chuid[2] = (byte) (CHUID_LENGTH >> 8);
+		chuid[3] = (byte) CHUID_LENGTH;
+		for (int i = 4; i < chuid.length; i++) {
+			chuid[i] = fill;
+		}
+		SimulatedCardTransport card = new SimulatedCardTransport(new byte[0]);
+		card.putDataObject(PIVContainer.CHUID.getTagBytes(), chuid);
+		card.setTransceiveLimits(261, false);
+		return card;
+	}
+
+	/**
+	 * Method readChuid.
+	 *
+	 * @param transport
+	 *            RemoteCardTransport
+	 * @return List<ResponseAPDU> the SELECT and GET DATA responses
+	 * @throws Exception
+	 */
+	private static List<ResponseAPDU> readChuid(RemoteCardTransport transport)
+			throws Exception {
+		List<CommandAPDU> batch = new ArrayList<CommandAPDU>();
+		batch.add(new CommandAPDU(APDUCatalog.getSelectCommand()));
+		batch.add(new CommandAPDU(APDUCatalog.getGetDataCommand(PIVContainer.CHUID, false)));
+		return transport.transmitBatch(batch,
+				APDURelay.FLAG_GET_RESPONSE | APDURelay.FLAG_STOP_ON_ERROR);
+	}
+
+	/**
+	 * Method check.
+	 *
+	 * @param passed
+	 *            boolean
+	 * @param what
+	 *            String
+	 */
+	private static void check(boolean passed, String what) {
+		if (!passed) {
+			failures++;
+		}
+		System.out.println((passed ? "PASS " : "FAIL ") + what);
+	}
+
+}
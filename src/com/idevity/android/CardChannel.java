@@ -17,6 +17,7 @@
 package com.idevity.android;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.keysupport.smartcardio.CommandAPDU;
 import org.keysupport.smartcardio.ResponseAPDU;
@@ -26,6 +27,11 @@ import android.nfc.Tag;
 import android.nfc.tech.IsoDep;
 import android.util.Log;
 
+import com.idevity.card.transport.CardTransport;
+import com.idevity.card.transport.LatencyHistograms;
+import com.idevity.card.transport.TimeoutController;
+import com.idevity.card.transport.TransportUtil;
+
 /**
  * @author Matthew Ambs (matt@idevity.com)
  * @author Eugene Yu (eugene@idevity.com)
@@ -35,17 +41,19 @@ import android.util.Log;
  * @version $Revision: 295 $ 
  *
  */
-public class CardChannel {
+public class CardChannel implements CardTransport {
 	
 	/**
 	 * Field MAX_APDU_SIZE
-	 * No support at this time for extended length APDUs
+	 * Short APDU limit.  Extended length APDUs are only sent when
+	 * isExtendedLengthApduSupported() is true.
 	 */
 	public final static int MAX_APDU_SIZE = 255;
-	/**
-	 * Field MIN_TIMEOUT.
-	 * (value is 3000)
-	 */
+	/**
+	 * Field MIN_TIMEOUT.
+	 * (value is 3250)
+	 * Budget for commands the TimeoutController has no default for.
+	 */
 	public static final int MIN_TIMEOUT = 3250;
 	/**
 	 * Field TAG.
@@ -63,7 +71,7 @@ public class CardChannel {
 	/**
 	 * Field isConnected.
 	 */
-	private boolean isConnected = false;
+	private volatile boolean isConnected = false;
 	/**
 	 * Field timeOut.
 	 */
@@ -80,6 +88,18 @@ public class CardChannel {
 	 * Field historicalBytes.
 	 */
 	private byte[] historicalBytes = null;
+	/**
+	 * Field cardIdentifier.
+	 */
+	private byte[] cardIdentifier = null;
+	/**
+	 * Field timeouts.
+	 */
+	private TimeoutController timeouts = null;
+	/**
+	 * Field latencies.
+	 */
+	private LatencyHistograms latencies = null;
 	/**
 	 * Constructor for CardChannel.
 	 */
@@ -88,15 +108,51 @@ public class CardChannel {
 		//Default Hidden Constructor
 	}
 
-	/**
-	 * Constructor for CardChannel.
-	 * @param tag Tag
-	 */
+	/**
+	 * Constructor for CardChannel.
+	 * @param tag Tag
+	 */
 	public CardChannel(Tag tag) {
+		this(tag, new TimeoutController(MIN_TIMEOUT));
+	}
+
+	/**
+	 * Constructor for CardChannel.
+	 * 
+	 * The IsoDep timeout is set before each command from the budget the
+	 * controller has learned for that class of command.  Pass the same
+	 * controller to successive channels to keep what it has learned.
+	 * 
+	 * @param tag Tag
+	 * @param timeouts TimeoutController
+	 */
+	public CardChannel(Tag tag, TimeoutController timeouts) {
+		this(tag, timeouts, new LatencyHistograms());
+	}
+
+	/**
+	 * Constructor for CardChannel.
+	 * 
+	 * The time taken to connect and for each APDU is recorded in the
+	 * histograms.  Pass the same histograms to successive channels to
+	 * collect latencies across taps.
+	 * 
+	 * @param tag Tag
+	 * @param timeouts TimeoutController
+	 * @param latencies LatencyHistograms
+	 */
+	public CardChannel(Tag tag, TimeoutController timeouts, LatencyHistograms latencies) {
+		this.timeouts = timeouts;
+		this.latencies = latencies;
+		cardIdentifier = tag.getId();
 		channel = IsoDep.get(tag);
 		try {
+			long start = System.nanoTime();
 			channel.connect();
 			isConnected = channel.isConnected();
+			if (isConnected) {
+				latencies.recordConnect(System.nanoTime() - start);
+			}
 		} catch (IOException e) {
 			Log.d(TAG, "Failed to connect");
 			isConnected = false;
@@ -106,16 +162,6 @@ public class CardChannel {
 			maxTransceive = channel.getMaxTransceiveLength();
 			elApduSupport = channel.isExtendedLengthApduSupported();
 			historicalBytes = channel.getHistoricalBytes();
-			/*
-			 * Increase the timeout if it is smaller than our min.
-			 */
-			if (timeOut < MIN_TIMEOUT) {
-				if (debug) {
-					Log.d(TAG, "Increasing timeout from: " + timeOut + " to: " + MIN_TIMEOUT);
-				}
-				channel.setTimeout(MIN_TIMEOUT);
-				timeOut = channel.getTimeout();
-			}
 		}
 		if (debug) {
 			Log.d(TAG, "Currently Connected: " + isConnected);
@@ -125,9 +171,10 @@ public class CardChannel {
 		}
 	}
 	
-	/**
-	 * Method close.
-	 */
+	/**
+	 * Method close.
+	 */
+	@Override
 	public void close() {
 		
 		isConnected = channel.isConnected();
@@ -135,6 +182,7 @@ public class CardChannel {
 		if (isConnected) {
 			try {
 				channel.close();
+				isConnected = false;
 			} catch (IOException e) {
 				Log.d(TAG, "Failure on close: " + e.getMessage());
 				isConnected = false;
@@ -144,8 +192,9 @@ public class CardChannel {
 	
 	/**
 	 * Method isConnected.
-	 * @return boolean
-	 */
+	 * @return boolean
+	 */
+	@Override
 	public boolean isConnected() {
 		return isConnected;
 	}
@@ -180,20 +229,93 @@ public class CardChannel {
 	 * @return ResponseAPDU 
 	 * @throws InvalidResponseException 
 	 */
+	@Override
 	public ResponseAPDU transmit(CommandAPDU req) throws InvalidResponseException {
+		return new ResponseAPDU(exchange(req.getBytes()));
+	}
+
+	/**
+	 * Method transmit.
+	 * 
+	 * IsoDep.transceive() only accepts an exact length array, so the
+	 * command is only copied if commandLength is shorter than the array.
+	 * The array IsoDep returns is copied into the response buffer.
+	 * 
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param response
+	 *            byte[]
+	 *
+	 * @return int the length of the response
+	 * @throws InvalidResponseException 
+	 */
+	@Override
+	public int transmit(byte[] command, int commandLength, byte[] response)
+			throws InvalidResponseException {
+		if (commandLength != command.length) {
+			command = Arrays.copyOf(command, commandLength);
+		}
+		byte[] respBuff = exchange(command);
+		if (respBuff.length > response.length) {
+			throw new InvalidResponseException("Response of " + respBuff.length
+					+ " bytes exceeds buffer");
+		}
+		System.arraycopy(respBuff, 0, response, 0, respBuff.length);
+		return respBuff.length;
+	}
+
+	/**
+	 * Method exchange.
+	 * 
+	 * @param command
+	 *            byte[]
+	 *
+	 * @return byte[] the response, at least SW1 SW2
+	 * @throws InvalidResponseException 
+	 */
+	private byte[] exchange(byte[] command) throws InvalidResponseException {
 
-		ResponseAPDU response = null;
-		
 		if (debug) {
 			Log.d(TAG,
 					String.format("[%s] --> %s", "Reader",
-							DataUtil.byteArrayToString(req.getBytes())));
+							DataUtil.byteArrayToString(command)));
 		}
-		byte[] respBuff = this.transceive(req.getBytes());
+		/*
+		 * Set the timeout for this class of command, if it differs from
+		 * the one in effect.
+		 */
+		int commandClass = TimeoutController.commandClass(command, command.length);
+		int budget = timeouts.getBudget(commandClass);
+		if (budget != timeOut) {
+			if (debug) {
+				Log.d(TAG, "Changing timeout from: " + timeOut + " to: " + budget);
+			}
+			setTimeout(budget);
+		}
+		long start = System.nanoTime();
+		byte[] respBuff = this.transceive(command);
 		if (respBuff != null && respBuff.length >= 2) {
-			response = new ResponseAPDU(respBuff);
+			long elapsed = System.nanoTime() - start;
+			timeouts.record(commandClass, elapsed / 1000000L);
+			latencies.record(command, command.length, elapsed);
 		} else {
 			if (respBuff == null) {
+				/*
+				 * A failure that took the whole budget is taken for a
+				 * timeout, so the next attempt is given longer.
+				 */
+				if ((System.nanoTime() - start) / 1000000L >= budget) {
+					timeouts.recordTimeout(commandClass, budget);
+				}
+				/*
+				 * transceive() only drops the connection on an IOException,
+				 * i.e., TagLostException or a transceive failure.
+				 */
+				if (!isConnected) {
+					throw new CardLostException("Card lost");
+				}
 				throw new InvalidResponseException("Response was null!");
 			} else {
 				throw new InvalidResponseException("Response: " + DataUtil.byteArrayToString(respBuff));
@@ -202,16 +324,85 @@ public class CardChannel {
 		if (debug) {
 			Log.d(TAG,
 					String.format("[%s] <-- %s", "Reader",
-							DataUtil.byteArrayToString(response.getBytes())));
+							DataUtil.byteArrayToString(respBuff)));
 		}
-		return response;
+		return respBuff;
+	}
+
+	/**
+	 * @return the UID from the Tag
+	 */
+	@Override
+	public byte[] getCardIdentifier() {
+		return cardIdentifier;
 	}
 
 	/**
 	 * @return the historicalBytes
 	 */
+	@Override
 	public byte[] getHistoricalBytes() {
+		if (historicalBytes == null) {
+			return new byte[0];
+		}
 		return historicalBytes;
 	}
 
+	/**
+	 * @return the maxTransceive
+	 */
+	@Override
+	public int getMaxTransceiveLength() {
+		return maxTransceive;
+	}
+
+	/**
+	 * @return the elApduSupport
+	 */
+	@Override
+	public boolean isExtendedLengthApduSupported() {
+		return elApduSupport;
+	}
+
+	/**
+	 * Method getMaxExtendedLe.
+	 * 
+	 * @return int 0 if extended length APDUs are not supported
+	 */
+	@Override
+	public int getMaxExtendedLe() {
+		return TransportUtil.getMaxExtendedLe(elApduSupport, maxTransceive);
+	}
+
+	/**
+	 * @return the timeOut
+	 */
+	@Override
+	public int getTimeout() {
+		return timeOut;
+	}
+
+	/**
+	 * @param timeout the IsoDep transceive timeout to set
+	 */
+	@Override
+	public void setTimeout(int timeout) {
+		channel.setTimeout(timeout);
+		timeOut = timeout;
+	}
+
+	/**
+	 * @return the timeouts
+	 */
+	public TimeoutController getTimeoutController() {
+		return timeouts;
+	}
+
+	/**
+	 * @return the latency histograms
+	 */
+	public LatencyHistograms getLatencyHistograms() {
+		return latencies;
+	}
+
 }
@@ -0,0 +1,46 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ * 
+ *****************************************************************************/
+
+package com.idevity.android;
+
+/**
+ * Thrown when the card leaves the field (or the reader) in the middle of
+ * an exchange, as opposed to the card answering with something we did
+ * not expect.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class CardLostException extends InvalidResponseException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2874519370866403015L;
+
+	/**
+	 * @param detailMessage
+	 */
+	public CardLostException(String detailMessage) {
+		super(detailMessage);
+	}
+
+	/**
+	 * @param detailMessage
+	 * @param throwable
+	 */
+	public CardLostException(String detailMessage, Throwable throwable) {
+		super(detailMessage, throwable);
+	}
+
+}
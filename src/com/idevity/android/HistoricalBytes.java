@@ -70,6 +70,8 @@ public class HistoricalBytes {
 	private boolean implicitSelected = false;
 	private boolean selectPartial = false;
 	private boolean selectFull = false;
+	private boolean cardCapabilities = false;
+	private boolean extendedLength = false;
 
 	/**
 	 * 
@@ -230,6 +232,21 @@ public class HistoricalBytes {
 				}
 				break;
 			}
+			case (byte)0x70: {
+				/*
+				 * Card capabilities (ISO 7816-4, 8.1.1.2.7).  The third
+				 * software function byte, b7, indicates support for
+				 * extended Lc and Le fields.
+				 */
+				cardCapabilities = true;
+				if (value.length >= 3) {
+					extendedLength = (value[2] & (byte)0x40) == (byte)0x40;
+				}
+				if (debug) {
+					System.out.println("Card capabilities: " + DataUtil.byteArrayToString(value));
+				}
+				break;
+			}
 			default: {
 				break;
 			}
@@ -265,4 +282,18 @@ public class HistoricalBytes {
 		return selectFull;
 	}
 
+	/**
+	 * @return true if the card capabilities object was present
+	 */
+	public boolean hasCardCapabilities() {
+		return cardCapabilities;
+	}
+
+	/**
+	 * @return the extendedLength
+	 */
+	public boolean supportsExtendedLength() {
+		return extendedLength;
+	}
+
 }
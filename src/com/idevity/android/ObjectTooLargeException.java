@@ -0,0 +1,68 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ * 
+ *****************************************************************************/
+
+package com.idevity.android;
+
+/**
+ * Thrown when a card declares or returns more data than the object it
+ * was asked for may hold, as opposed to a response we could not parse.
+ * The read is abandoned without issuing further GET RESPONSE.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class ObjectTooLargeException extends InvalidResponseException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4518362071298830117L;
+
+	/**
+	 * Field limit.
+	 */
+	private final int limit;
+	/**
+	 * Field length.
+	 */
+	private final int length;
+
+	/**
+	 * @param limit
+	 *            int the most bytes the object may hold
+	 * @param length
+	 *            int the bytes declared or returned
+	 */
+	public ObjectTooLargeException(int limit, int length) {
+		super("Response of " + length + " bytes exceeds the limit of "
+				+ limit + " bytes");
+		this.limit = limit;
+		this.length = length;
+	}
+
+	/**
+	 * @return the most bytes the object may hold
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the bytes declared or returned, at the point the read was
+	 *         abandoned
+	 */
+	public int getLength() {
+		return length;
+	}
+
+}
@@ -0,0 +1,385 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.android;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import android.hardware.usb.UsbRequest;
+
+import com.idevity.card.transport.CCIDEndpoint;
+
+/**
+ * The bulk endpoints of a CCID interface, over Android USB host mode.
+ *
+ * Bulk-in transfers are queued with a UsbRequest.  awaitIn() waits with
+ * UsbDeviceConnection.requestWait(long) on API 26 and later.  It is
+ * looked up at run time, as the app is built against an older SDK.
+ * Before API 26 requestWait() can not time out, so a watchdog cancels
+ * the request once the timeout has passed.
+ *
+ * The caller must hold permission for the device (UsbManager
+ * .requestPermission()) before calling open().
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class UsbCCIDEndpoint implements CCIDEndpoint {
+
+	/**
+	 * Field DESCRIPTOR_INTERFACE.
+	 */
+	private static final int DESCRIPTOR_INTERFACE = 0x04;
+	/**
+	 * Field DESCRIPTOR_CCID.
+	 */
+	private static final int DESCRIPTOR_CCID = 0x21;
+	/**
+	 * Field REQUEST_WAIT_TIMEOUT.
+	 * UsbDeviceConnection.requestWait(long), or null before API 26.
+	 */
+	private static final Method REQUEST_WAIT_TIMEOUT = findRequestWait();
+	/**
+	 * Field watchdog.
+	 * Cancels bulk-in transfers that outlast their timeout before API 26.
+	 */
+	private static ScheduledExecutorService watchdog;
+	/**
+	 * Field connection.
+	 */
+	private UsbDeviceConnection connection;
+	/**
+	 * Field usbInterface.
+	 */
+	private UsbInterface usbInterface;
+	/**
+	 * Field bulkOut.
+	 */
+	private UsbEndpoint bulkOut;
+	/**
+	 * Field request.
+	 */
+	private UsbRequest request;
+	/**
+	 * Field classDescriptor.
+	 */
+	private byte[] classDescriptor;
+	/**
+	 * Field queued.
+	 */
+	private byte[] queued = null;
+
+	/**
+	 * Constructor for UsbCCIDEndpoint.
+	 *
+	 * @param connection
+	 *            UsbDeviceConnection
+	 * @param usbInterface
+	 *            UsbInterface
+	 * @param bulkIn
+	 *            UsbEndpoint
+	 * @param bulkOut
+	 *            UsbEndpoint
+	 */
+	private UsbCCIDEndpoint(UsbDeviceConnection connection, UsbInterface usbInterface,
+			UsbEndpoint bulkIn, UsbEndpoint bulkOut) {
+		this.connection = connection;
+		this.usbInterface = usbInterface;
+		this.bulkOut = bulkOut;
+		this.request = new UsbRequest();
+		this.request.initialize(connection, bulkIn);
+		this.classDescriptor = findClassDescriptor(connection.getRawDescriptors(),
+				usbInterface.getId());
+	}
+
+	/**
+	 * Method open.
+	 *
+	 * @param manager
+	 *            UsbManager
+	 * @param device
+	 *            UsbDevice
+	 * @return UsbCCIDEndpoint or null if the device has no CCID interface
+	 *         or can not be opened
+	 */
+	public static UsbCCIDEndpoint open(UsbManager manager, UsbDevice device) {
+		UsbInterface ccid = findInterface(device);
+		if (ccid == null) {
+			return null;
+		}
+		UsbEndpoint in = null;
+		UsbEndpoint out = null;
+		for (int i = 0; i < ccid.getEndpointCount(); i++) {
+			UsbEndpoint ep = ccid.getEndpoint(i);
+			if (ep.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK) {
+				if (ep.getDirection() == UsbConstants.USB_DIR_IN) {
+					in = ep;
+				} else {
+					out = ep;
+				}
+			}
+		}
+		if (in == null || out == null) {
+			return null;
+		}
+		UsbDeviceConnection connection = manager.openDevice(device);
+		if (connection == null) {
+			return null;
+		}
+		if (!connection.claimInterface(ccid, true)) {
+			connection.close();
+			return null;
+		}
+		return new UsbCCIDEndpoint(connection, ccid, in, out);
+	}
+
+	/**
+	 * Method findInterface.
+	 *
+	 * @param device
+	 *            UsbDevice
+	 * @return UsbInterface the first smart card (CCID) interface, or null
+	 */
+	public static UsbInterface findInterface(UsbDevice device) {
+		for (int i = 0; i < device.getInterfaceCount(); i++) {
+			UsbInterface candidate = device.getInterface(i);
+			if (candidate.getInterfaceClass() == UsbConstants.USB_CLASS_CSCID) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Method findClassDescriptor.
+	 *
+	 * Walks the configuration descriptors for the CCID class descriptor
+	 * that follows the interface descriptor.
+	 *
+	 * @param descriptors
+	 *            byte[] the raw descriptors of the device
+	 * @param interfaceNumber
+	 *            int
+	 * @return byte[] or null if not found
+	 */
+	static byte[] findClassDescriptor(byte[] descriptors, int interfaceNumber) {
+		if (descriptors == null) {
+			return null;
+		}
+		boolean inInterface = false;
+		int offset = 0;
+		while (offset + 2 <= descriptors.length) {
+			int length = descriptors[offset] & 0xff;
+			if (length < 2 || offset + length > descriptors.length) {
+				break;
+			}
+			int type = descriptors[offset + 1] & 0xff;
+			if (type == DESCRIPTOR_INTERFACE && length > 2) {
+				inInterface = (descriptors[offset + 2] & 0xff) == interfaceNumber;
+			} else if (type == DESCRIPTOR_CCID && inInterface) {
+				return Arrays.copyOfRange(descriptors, offset, offset + length);
+			}
+			offset += length;
+		}
+		return null;
+	}
+
+	/**
+	 * @return byte[]
+	 */
+	@Override
+	public byte[] getClassDescriptor() {
+		return classDescriptor;
+	}
+
+	/**
+	 * Method bulkOut.
+	 *
+	 * @param data
+	 *            byte[]
+	 * @param length
+	 *            int
+	 * @param timeout
+	 *            int
+	 * @throws IOException
+	 */
+	@Override
+	public void bulkOut(byte[] data, int length, int timeout) throws IOException {
+		int sent = connection.bulkTransfer(bulkOut, data, length, timeout);
+		if (sent != length) {
+			throw new IOException("Bulk-out transfer failed");
+		}
+	}
+
+	/**
+	 * Method queueIn.
+	 *
+	 * @param buffer
+	 *            byte[]
+	 * @throws IOException
+	 */
+	@Override
+	public void queueIn(byte[] buffer) throws IOException {
+		if (!request.queue(ByteBuffer.wrap(buffer), buffer.length)) {
+			throw new IOException("Bulk-in transfer could not be queued");
+		}
+		queued = buffer;
+	}
+
+	/**
+	 * Method awaitIn.
+	 *
+	 * @param timeout
+	 *            int in milliseconds, or 0 to wait until the reader
+	 *            answers
+	 * @return byte[]
+	 * @throws IOException
+	 */
+	@Override
+	public byte[] awaitIn(int timeout) throws IOException {
+		if (queued == null) {
+			throw new IOException("No bulk-in transfer queued");
+		}
+		UsbRequest done;
+		if (timeout <= 0) {
+			done = connection.requestWait();
+		} else if (REQUEST_WAIT_TIMEOUT != null) {
+			done = requestWait(timeout);
+		} else {
+			done = watchedRequestWait(timeout);
+		}
+		if (done != request) {
+			throw new IOException("Bulk-in transfer failed");
+		}
+		byte[] buffer = queued;
+		queued = null;
+		return buffer;
+	}
+
+	/**
+	 * Method requestWait.
+	 *
+	 * @param timeout
+	 *            int in milliseconds
+	 * @return UsbRequest
+	 * @throws IOException
+	 *             if the transfer failed or timed out
+	 */
+	private UsbRequest requestWait(int timeout) throws IOException {
+		try {
+			return (UsbRequest) REQUEST_WAIT_TIMEOUT.invoke(connection,
+					Long.valueOf(timeout));
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof TimeoutException) {
+				request.cancel();
+				queued = null;
+				throw new IOException("Bulk-in transfer timed out");
+			}
+			throw new IOException("Bulk-in transfer failed: " + e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IOException("Bulk-in transfer failed: " + e);
+		}
+	}
+
+	/**
+	 * Method watchedRequestWait.
+	 *
+	 * @param timeout
+	 *            int in milliseconds
+	 * @return UsbRequest
+	 * @throws IOException
+	 *             if the transfer timed out
+	 */
+	private UsbRequest watchedRequestWait(int timeout) throws IOException {
+		final UsbRequest waiting = request;
+		ScheduledFuture<?> expiry = getWatchdog().schedule(new Runnable() {
+			@Override
+			public void run() {
+				waiting.cancel();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		UsbRequest done = connection.requestWait();
+		if (!expiry.cancel(false)) {
+			/* The watchdog has cancelled the transfer */
+			queued = null;
+			throw new IOException("Bulk-in transfer timed out");
+		}
+		return done;
+	}
+
+	/**
+	 * Method getWatchdog.
+	 *
+	 * @return ScheduledExecutorService on a daemon thread, created on
+	 *         first use
+	 */
+	private static synchronized ScheduledExecutorService getWatchdog() {
+		if (watchdog == null) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r);
+					t.setName("CCID watchdog#" + t.getId());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return watchdog;
+	}
+
+	/**
+	 * Method findRequestWait.
+	 *
+	 * @return Method UsbDeviceConnection.requestWait(long), or null if the
+	 *         platform does not have it
+	 */
+	private static Method findRequestWait() {
+		try {
+			return UsbDeviceConnection.class.getMethod("requestWait", long.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Method close.
+	 */
+	@Override
+	public void close() {
+		if (connection != null) {
+			request.cancel();
+			request.close();
+			connection.releaseInterface(usbInterface);
+			connection.close();
+			connection = null;
+		}
+	}
+
+}
@@ -0,0 +1,456 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.data;
+
+import java.util.Arrays;
+
+import org.keysupport.encoding.Tag;
+import org.keysupport.nist80073.cardedge.PIVDataTempl;
+
+/**
+ * The PIV data objects (containers) that can be retrieved with GET DATA,
+ * as defined in NIST 800-73-4 Part 1, Table 3, and the CardData80073
+ * field each of them is stored in.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public enum PIVContainer {
+
+	CARD_CAPABILITY_CONTAINER(Tag.PIV_CCC),
+	CHUID(Tag.PIV_CHUID),
+	PIV_AUTH_CERTIFICATE(Tag.PIV_CERT_PIVAUTH),
+	CARDHOLDER_FINGERPRINTS(Tag.PIV_CARDHOLDER_FINGERPRINTS),
+	SECURITY_OBJECT(Tag.PIV_SECURITY_OBJECT),
+	CARDHOLDER_FACIAL_IMAGE(Tag.PIV_CARDHOLDER_FACIAL_IMAGE),
+	PRINTED_INFORMATION(Tag.PIV_PRINTED_INFORMATION),
+	DIGSIG_CERTIFICATE(Tag.PIV_CERT_DIGSIG),
+	KEYMGMT_CERTIFICATE(Tag.PIV_CERT_KEYMGMT),
+	CARD_AUTH_CERTIFICATE(Tag.PIV_CERT_CARDAUTH),
+	DISCOVERY_OBJECT(new byte[] { Tag.PIV_DISCOVERY_OBJECT }),
+	KEY_HISTORY_OBJECT(Tag.PIV_KEY_HISTORY_OBJECT),
+	RETIRED_KM_CERT_01(Tag.PIV_RET_CERT_KM01),
+	RETIRED_KM_CERT_02(Tag.PIV_RET_CERT_KM02),
+	RETIRED_KM_CERT_03(Tag.PIV_RET_CERT_KM03),
+	RETIRED_KM_CERT_04(Tag.PIV_RET_CERT_KM04),
+	RETIRED_KM_CERT_05(Tag.PIV_RET_CERT_KM05),
+	RETIRED_KM_CERT_06(Tag.PIV_RET_CERT_KM06),
+	RETIRED_KM_CERT_07(Tag.PIV_RET_CERT_KM07),
+	RETIRED_KM_CERT_08(Tag.PIV_RET_CERT_KM08),
+	RETIRED_KM_CERT_09(Tag.PIV_RET_CERT_KM09),
+	RETIRED_KM_CERT_10(Tag.PIV_RET_CERT_KM10),
+	RETIRED_KM_CERT_11(Tag.PIV_RET_CERT_KM11),
+	RETIRED_KM_CERT_12(Tag.PIV_RET_CERT_KM12),
+	RETIRED_KM_CERT_13(Tag.PIV_RET_CERT_KM13),
+	RETIRED_KM_CERT_14(Tag.PIV_RET_CERT_KM14),
+	RETIRED_KM_CERT_15(Tag.PIV_RET_CERT_KM15),
+	RETIRED_KM_CERT_16(Tag.PIV_RET_CERT_KM16),
+	RETIRED_KM_CERT_17(Tag.PIV_RET_CERT_KM17),
+	RETIRED_KM_CERT_18(Tag.PIV_RET_CERT_KM18),
+	RETIRED_KM_CERT_19(Tag.PIV_RET_CERT_KM19),
+	RETIRED_KM_CERT_20(Tag.PIV_RET_CERT_KM20),
+	CARDHOLDER_IRIS_IMAGES(Tag.PIV_CARDHOLDER_IRIS_IMAGES),
+	BIO_INFO_TEMPL_GRP_TEMPL(new byte[] { (byte) 0x7F, (byte) 0x61 }),
+	SM_CERT_SIGNER(new byte[] { (byte) 0x5F, (byte) 0xC1, (byte) 0x22 }),
+	PAIRING_CODE_REF_DATA(new byte[] { (byte) 0x5F, (byte) 0xC1, (byte) 0x23 });
+
+	/**
+	 * Field TEMPLATE_OVERHEAD.
+	 * The tag and a three byte length of the template around the data.
+	 */
+	private static final int TEMPLATE_OVERHEAD = 4;
+	/**
+	 * Field tag.
+	 */
+	private final byte[] tag;
+
+	/**
+	 * Constructor for PIVContainer.
+	 * @param tag byte[]
+	 */
+	private PIVContainer(byte[] tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * @return the BER-TLV tag of the container
+	 */
+	public Tag getTag() {
+		return new Tag(tag);
+	}
+
+	/**
+	 * @return a copy of the encoded tag of the container
+	 */
+	public byte[] getTagBytes() {
+		return tag.clone();
+	}
+
+	/**
+	 * Method isPinProtected.
+	 *
+	 * @return boolean true if the card releases the container only after
+	 *         the PIN has been verified (NIST 800-73-4 Part 1, Table 3)
+	 */
+	public boolean isPinProtected() {
+		switch (this) {
+		case CARDHOLDER_FINGERPRINTS:
+		case CARDHOLDER_FACIAL_IMAGE:
+		case PRINTED_INFORMATION:
+		case CARDHOLDER_IRIS_IMAGES:
+		case PAIRING_CODE_REF_DATA:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Method isCertificate.
+	 *
+	 * @return boolean true if the container holds an X.509 certificate
+	 *         (tag 70) for one of the card's keys
+	 */
+	public boolean isCertificate() {
+		switch (this) {
+		case PIV_AUTH_CERTIFICATE:
+		case DIGSIG_CERTIFICATE:
+		case KEYMGMT_CERTIFICATE:
+		case CARD_AUTH_CERTIFICATE:
+			return true;
+		default:
+			return name().startsWith("RETIRED_KM_CERT_");
+		}
+	}
+
+	/**
+	 * Method getTypicalSize.
+	 *
+	 * A rough size of the container as issued, used to plan reads.  Cards
+	 * vary widely; certificates grow with the key and the issuer's
+	 * extensions, images with the capture.
+	 *
+	 * @return int the typical encoded size in bytes, including the 53 tag
+	 */
+	public int getTypicalSize() {
+		switch (this) {
+		case DISCOVERY_OBJECT:
+			return 24;
+		case KEY_HISTORY_OBJECT:
+		case BIO_INFO_TEMPL_GRP_TEMPL:
+		case PAIRING_CODE_REF_DATA:
+			return 32;
+		case CARD_CAPABILITY_CONTAINER:
+			return 64;
+		case PRINTED_INFORMATION:
+			return 128;
+		case SECURITY_OBJECT:
+			return 1024;
+		case CARDHOLDER_FINGERPRINTS:
+			return 1536;
+		case CHUID:
+			return 1600;
+		case CARDHOLDER_IRIS_IMAGES:
+			return 8192;
+		case CARDHOLDER_FACIAL_IMAGE:
+			return 12288;
+		default:
+			// Certificates
+			return 1800;
+		}
+	}
+
+	/**
+	 * Method getMaxSize.
+	 *
+	 * The largest the container may be, from the data model of SP 800-73
+	 * (Part 1, Appendix A), taking the larger of 800-73-3 and 800-73-4
+	 * where they differ.  A card that declares or returns more is not
+	 * read.
+	 *
+	 * @return int the maximum encoded size in bytes, including the 53 tag
+	 */
+	public int getMaxSize() {
+		int max;
+		switch (this) {
+		case CARD_CAPABILITY_CONTAINER:
+			max = 287;
+			break;
+		case CHUID:
+			max = 3395;
+			break;
+		case CARDHOLDER_FINGERPRINTS:
+			max = 4006;
+			break;
+		case SECURITY_OBJECT:
+			max = 1336;
+			break;
+		case CARDHOLDER_FACIAL_IMAGE:
+			max = 12710;
+			break;
+		case PRINTED_INFORMATION:
+			max = 245;
+			break;
+		case DISCOVERY_OBJECT:
+			max = 20;
+			break;
+		case KEY_HISTORY_OBJECT:
+			max = 128;
+			break;
+		case CARDHOLDER_IRIS_IMAGES:
+			max = 7106;
+			break;
+		case BIO_INFO_TEMPL_GRP_TEMPL:
+			max = 65;
+			break;
+		case SM_CERT_SIGNER:
+			max = 2698;
+			break;
+		case PAIRING_CODE_REF_DATA:
+			max = 12;
+			break;
+		default:
+			// Certificates
+			max = 1905;
+			break;
+		}
+		return max + TEMPLATE_OVERHEAD;
+	}
+
+	/**
+	 * Method forTag.
+	 *
+	 * @param tag
+	 *            byte[]
+	 * @return PIVContainer or null if the tag is not a PIV container
+	 */
+	public static PIVContainer forTag(byte[] tag) {
+		for (PIVContainer container : values()) {
+			if (Arrays.equals(container.tag, tag)) {
+				return container;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Method get.
+	 *
+	 * @param cd
+	 *            CardData80073
+	 * @return PIVDataTempl the container as stored in the card data, or null
+	 */
+	public PIVDataTempl get(CardData80073 cd) {
+		switch (this) {
+		case CARD_CAPABILITY_CONTAINER:
+			return cd.getCardCapabilityCont();
+		case CHUID:
+			return cd.getPIVCardHolderUniqueID();
+		case PIV_AUTH_CERTIFICATE:
+			return cd.getpIVAuthCertificate();
+		case CARDHOLDER_FINGERPRINTS:
+			return cd.getCardholderFingerprints();
+		case SECURITY_OBJECT:
+			return cd.getSecurityObject();
+		case CARDHOLDER_FACIAL_IMAGE:
+			return cd.getCardholderFacialImage();
+		case PRINTED_INFORMATION:
+			return cd.getPrintedInformation();
+		case DIGSIG_CERTIFICATE:
+			return cd.getDigSigCertificate();
+		case KEYMGMT_CERTIFICATE:
+			return cd.getKeyMgmtCertificate();
+		case CARD_AUTH_CERTIFICATE:
+			return cd.getCardAuthCertificate();
+		case DISCOVERY_OBJECT:
+			return cd.getPIVDiscoveryObject();
+		case KEY_HISTORY_OBJECT:
+			return cd.getKeyHistoryObject();
+		case RETIRED_KM_CERT_01:
+			return cd.getRetiredKMCert01();
+		case RETIRED_KM_CERT_02:
+			return cd.getRetiredKMCert02();
+		case RETIRED_KM_CERT_03:
+			return cd.getRetiredKMCert03();
+		case RETIRED_KM_CERT_04:
+			return cd.getRetiredKMCert04();
+		case RETIRED_KM_CERT_05:
+			return cd.getRetiredKMCert05();
+		case RETIRED_KM_CERT_06:
+			return cd.getRetiredKMCert06();
+		case RETIRED_KM_CERT_07:
+			return cd.getRetiredKMCert07();
+		case RETIRED_KM_CERT_08:
+			return cd.getRetiredKMCert08();
+		case RETIRED_KM_CERT_09:
+			return cd.getRetiredKMCert09();
+		case RETIRED_KM_CERT_10:
+			return cd.getRetiredKMCert10();
+		case RETIRED_KM_CERT_11:
+			return cd.getRetiredKMCert11();
+		case RETIRED_KM_CERT_12:
+			return cd.getRetiredKMCert12();
+		case RETIRED_KM_CERT_13:
+			return cd.getRetiredKMCert13();
+		case RETIRED_KM_CERT_14:
+			return cd.getRetiredKMCert14();
+		case RETIRED_KM_CERT_15:
+			return cd.getRetiredKMCert15();
+		case RETIRED_KM_CERT_16:
+			return cd.getRetiredKMCert16();
+		case RETIRED_KM_CERT_17:
+			return cd.getRetiredKMCert17();
+		case RETIRED_KM_CERT_18:
+			return cd.getRetiredKMCert18();
+		case RETIRED_KM_CERT_19:
+			return cd.getRetiredKMCert19();
+		case RETIRED_KM_CERT_20:
+			return cd.getRetiredKMCert20();
+		case CARDHOLDER_IRIS_IMAGES:
+			return cd.getCardholderIrisImages();
+		case BIO_INFO_TEMPL_GRP_TEMPL:
+			return cd.getBioInfoTemplGrpTempl();
+		case SM_CERT_SIGNER:
+			return cd.getSecMessagingCertSigner();
+		case PAIRING_CODE_REF_DATA:
+			return cd.getPairingCodeReferenceData();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Method set.
+	 *
+	 * @param cd
+	 *            CardData80073
+	 * @param data
+	 *            PIVDataTempl
+	 */
+	public void set(CardData80073 cd, PIVDataTempl data) {
+		switch (this) {
+		case CARD_CAPABILITY_CONTAINER:
+			cd.setCardCapabilityCont(data);
+			break;
+		case CHUID:
+			cd.setPIVCardHolderUniqueID(data);
+			break;
+		case PIV_AUTH_CERTIFICATE:
+			cd.setpIVAuthCertificate(data);
+			break;
+		case CARDHOLDER_FINGERPRINTS:
+			cd.setCardholderFingerprints(data);
+			break;
+		case SECURITY_OBJECT:
+			cd.setSecurityObject(data);
+			break;
+		case CARDHOLDER_FACIAL_IMAGE:
+			cd.setCardholderFacialImage(data);
+			break;
+		case PRINTED_INFORMATION:
+			cd.setPrintedInformation(data);
+			break;
+		case DIGSIG_CERTIFICATE:
+			cd.setDigSigCertificate(data);
+			break;
+		case KEYMGMT_CERTIFICATE:
+			cd.setKeyMgmtCertificate(data);
+			break;
+		case CARD_AUTH_CERTIFICATE:
+			cd.setCardAuthCertificate(data);
+			break;
+		case DISCOVERY_OBJECT:
+			cd.setPIVDiscoveryObject(data);
+			break;
+		case KEY_HISTORY_OBJECT:
+			cd.setKeyHistoryObject(data);
+			break;
+		case RETIRED_KM_CERT_01:
+			cd.setRetiredKMCert01(data);
+			break;
+		case RETIRED_KM_CERT_02:
+			cd.setRetiredKMCert02(data);
+			break;
+		case RETIRED_KM_CERT_03:
+			cd.setRetiredKMCert03(data);
+			break;
+		case RETIRED_KM_CERT_04:
+			cd.setRetiredKMCert04(data);
+			break;
+		case RETIRED_KM_CERT_05:
+			cd.setRetiredKMCert05(data);
+			break;
+		case RETIRED_KM_CERT_06:
+			cd.setRetiredKMCert06(data);
+			break;
+		case RETIRED_KM_CERT_07:
+			cd.setRetiredKMCert07(data);
+			break;
+		case RETIRED_KM_CERT_08:
+			cd.setRetiredKMCert08(data);
+			break;
+		case RETIRED_KM_CERT_09:
+			cd.setRetiredKMCert09(data);
+			break;
+		case RETIRED_KM_CERT_10:
+			cd.setRetiredKMCert10(data);
+			break;
+		case RETIRED_KM_CERT_11:
+			cd.setRetiredKMCert11(data);
+			break;
+		case RETIRED_KM_CERT_12:
+			cd.setRetiredKMCert12(data);
+			break;
+		case RETIRED_KM_CERT_13:
+			cd.setRetiredKMCert13(data);
+			break;
+		case RETIRED_KM_CERT_14:
+			cd.setRetiredKMCert14(data);
+			break;
+		case RETIRED_KM_CERT_15:
+			cd.setRetiredKMCert15(data);
+			break;
+		case RETIRED_KM_CERT_16:
+			cd.setRetiredKMCert16(data);
+			break;
+		case RETIRED_KM_CERT_17:
+			cd.setRetiredKMCert17(data);
+			break;
+		case RETIRED_KM_CERT_18:
+			cd.setRetiredKMCert18(data);
+			break;
+		case RETIRED_KM_CERT_19:
+			cd.setRetiredKMCert19(data);
+			break;
+		case RETIRED_KM_CERT_20:
+			cd.setRetiredKMCert20(data);
+			break;
+		case CARDHOLDER_IRIS_IMAGES:
+			cd.setCardholderIrisImages(data);
+			break;
+		case BIO_INFO_TEMPL_GRP_TEMPL:
+			cd.setBioInfoTemplGrpTempl(data);
+			break;
+		case SM_CERT_SIGNER:
+			cd.setSecMessagingCertSigner(data);
+			break;
+		case PAIRING_CODE_REF_DATA:
+			cd.setPairingCodeReferenceData(data);
+			break;
+		default:
+			break;
+		}
+	}
+
+}
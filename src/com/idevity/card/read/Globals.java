@@ -39,6 +39,9 @@ public class Globals {
 	public final static String SHOWDEBUG = "pref_showdebug";
 	public final static String ENABLEPOP = "pref_enablepop";
 	public final static String DEFAULTEMAIL = "pref_defaultemail";
+	public final static String READERPROFILE = "pref_readerprofile";
+	public final static String RELAYMODE = "pref_relaymode";
+	public final static String READPROFILE = "pref_readprofile";
 	public static int TABNO = 4;
 
 	public static byte[] currentcarddata;
@@ -84,6 +87,33 @@ public class Globals {
 		return Globals.DEFAULTEMAIL;
 	}
 
+	/**
+	 * Method getReaderProfile
+	 * 
+	 * @return String
+	 */
+	public String getReaderProfile() {
+		return Globals.READERPROFILE;
+	}
+
+	/**
+	 * Method getReadProfile
+	 * 
+	 * @return String
+	 */
+	public String getReadProfile() {
+		return Globals.READPROFILE;
+	}
+
+	/**
+	 * Method getRelayMode
+	 * 
+	 * @return String
+	 */
+	public String getRelayMode() {
+		return Globals.RELAYMODE;
+	}
+
 	/**
 	 * Method getAgencyCodeString.
 	 * 
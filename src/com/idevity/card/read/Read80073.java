@@ -1,5 +1,15 @@
 package com.idevity.card.read;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import org.keysupport.nist80073.cardedge.PIVDataTempl;
+
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.PendingIntent;
@@ -11,6 +21,7 @@ import android.nfc.NfcAdapter.ReaderCallback;
 import android.nfc.Tag;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.text.method.LinkMovementMethod;
@@ -24,7 +35,19 @@ import android.widget.TextView;
 
 import com.idevity.android.CardChannel;
 import com.idevity.card.data.CardData80073;
+import com.idevity.card.data.PIVContainer;
 import com.idevity.card.reader.CardReader80073;
+import com.idevity.card.reader.CoalescingReaderListener;
+import com.idevity.card.reader.EarlyIdentity;
+import com.idevity.card.reader.ReadProfile;
+import com.idevity.card.reader.ReaderListener;
+import com.idevity.card.reader.StrategyCache;
+import com.idevity.card.reader.TraceRecord;
+import com.idevity.card.transport.APDURelay;
+import com.idevity.card.transport.APDURelayServer;
+import com.idevity.card.transport.LatencyHistograms;
+import com.idevity.card.transport.RecordingCardTransport;
+import com.idevity.card.transport.TimeoutController;
 
 /******************************************************************************
  * The following code belongs to IDevity and is provided though commercial
@@ -106,6 +129,11 @@ public class Read80073 extends Activity implements OnClickListener {
 	 * Field readerLog.
 	 */
 	private StringBuffer readerLog;
+	/**
+	 * Field showLog.
+	 * The reader's trace is only formatted when it will be shown.
+	 */
+	private boolean showLog = false;
 	/**
 	 * Field debug.
 	 */
@@ -122,6 +150,56 @@ public class Read80073 extends Activity implements OnClickListener {
 	 * Field touch_seq.
 	 */
 	private int touch_seq = 0;
+	/**
+	 * Field timeouts.
+	 * Shared by every tap, so command latencies learned on one card are
+	 * used to budget the next.
+	 */
+	private TimeoutController timeouts = null;
+	/**
+	 * Field readerProfile.
+	 */
+	private ReaderProfile readerProfile = null;
+	/**
+	 * Field tapTime.
+	 * When the current tag was discovered, from SystemClock.elapsedRealtime().
+	 */
+	private long tapTime = 0;
+	/**
+	 * Field latencies.
+	 * APDU latencies for every tap since the activity was created.
+	 */
+	private LatencyHistograms latencies = new LatencyHistograms();
+	/**
+	 * Field recording.
+	 * The APDU trace of the current tap, in debug mode.
+	 */
+	private RecordingCardTransport recording;
+	/**
+	 * Field STRATEGIES_FILE.
+	 */
+	private static final String STRATEGIES_FILE = "strategies.bin";
+	/**
+	 * Field MAX_TRACES.
+	 * The APDU traces kept in the traces folder; older ones are deleted.
+	 */
+	private static final int MAX_TRACES = 20;
+	/**
+	 * Field strategies.
+	 * What has been learned about reading each card model.
+	 */
+	private StrategyCache strategies;
+	/**
+	 * Field relay.
+	 * In relay mode, lets a host drive the tapped card over TCP instead
+	 * of reading it here.
+	 */
+	private APDURelayServer relay = null;
+	/**
+	 * Field relayChannel.
+	 * The card currently offered to the relay.
+	 */
+	private CardChannel relayChannel = null;
 
 	/**
 	 * Method onCreate.
@@ -180,46 +258,23 @@ public class Read80073 extends Activity implements OnClickListener {
 			Log.d(TAG, "Calling CardReader80073...");
 		}
 		card = new CardReader80073(this, debug, pop);
+		/*
+		 * Only pay for the APDU trace if someone is going to look at it.
+		 */
+		showLog = debug || sharedPref.getBoolean(globals.getShowLog(), false);
+		card.setTraceApdus(showLog);
+		loadReadProfile();
+		strategies = loadStrategies();
+		card.setStrategyCache(strategies);
 		readerLog = new StringBuffer();
 
-		/****************** Launch UI Updating Thread ******************/
-		Thread thread = new Thread() {
+		/****************** Listen to the Reader ******************/
+		card.addListener(new CoalescingReaderListener(new Executor() {
 			@Override
-			public void run() {
-				try {
-					while (!isInterrupted()) {
-						Thread.sleep(10);
-						runOnUiThread(new Runnable() {
-							@Override
-							public void run() {
-								if (card != null) {
-									if (card.isRunning()) {
-										spinnertext.setVisibility(View.VISIBLE);
-										spinner.setVisibility(View.VISIBLE);
-									} else {
-										spinnertext
-												.setVisibility(View.INVISIBLE);
-										spinner.setVisibility(View.INVISIBLE);
-									}
-									if (card.logUpdated()) {
-										String lognibble = card.getLog();
-										readerLog.append(lognibble);
-									}
-									if (card.cardDataAvailable()) {
-										processData();
-									}
-								}
-							}
-						});
-					}
-				} catch (InterruptedException e) {
-					if (debug) {
-						Log.d(TAG, "Error in UI Thread: " + e.getMessage());
-					}
-				}
+			public void execute(Runnable command) {
+				runOnUiThread(command);
 			}
-		};
-		thread.start();
+		}, readerListener));
 
 		/*
 		 * Inspect the intent that possibly launched us and take action
@@ -237,11 +292,117 @@ public class Read80073 extends Activity implements OnClickListener {
 		}
 	}
 
+	/**
+	 * Field readerListener.
+	 * Runs on the UI thread.
+	 */
+	private final ReaderListener readerListener = new ReaderListener() {
+		@Override
+		public void onStarted(boolean resume) {
+			showSpinner(true);
+		}
+
+		@Override
+		public void onObjectReceived(PIVContainer container, PIVDataTempl data) {
+			if (debug) {
+				Log.d(TAG, "Received " + container);
+			}
+		}
+
+		@Override
+		public void onIdentity(EarlyIdentity identity) {
+			if (debug) {
+				Log.d(TAG, identity.toString());
+			}
+		}
+
+		@Override
+		public void onProgress(int completed, int total) {
+			// The spinner is indeterminate
+		}
+
+		@Override
+		public void onLog(TraceRecord record) {
+			if (showLog) {
+				readerLog.append(record).append('\n');
+			}
+		}
+
+		@Override
+		public void onCompleted(CardData80073 data) {
+			showSpinner(false);
+			processData();
+		}
+
+		@Override
+		public void onFailed(String reason, boolean awaitingResume) {
+			if (debug) {
+				Log.d(TAG, "Read failed: " + reason);
+			}
+			showSpinner(awaitingResume);
+			if (awaitingResume) {
+				/*
+				 * Nothing tells us the card did not come back in time,
+				 * so check once the window has passed.
+				 */
+				spinner.postDelayed(new Runnable() {
+					@Override
+					public void run() {
+						showSpinner(card.isRunning() || card.isAwaitingResume());
+					}
+				}, CardReader80073.RESUME_WINDOW + 1);
+			}
+		}
+	};
+
+	/**
+	 * Method showSpinner.
+	 * 
+	 * @param show
+	 *            boolean
+	 */
+	private void showSpinner(boolean show) {
+		int visibility = show ? View.VISIBLE : View.INVISIBLE;
+		spinnertext.setVisibility(visibility);
+		spinner.setVisibility(visibility);
+	}
+
+	/**
+	 * Method loadReadProfile.
+	 * 
+	 * Picks up the read profile, it may have changed in Settings.
+	 */
+	private void loadReadProfile() {
+		if (card == null) {
+			return;
+		}
+		ReadProfile profile = ReadProfile.forName(sharedPref.getString(
+				globals.getReadProfile(), ReadProfile.GATE.getName()));
+		if (debug && profile != card.getReadProfile()) {
+			Log.d(TAG, "Read profile: " + profile);
+		}
+		card.setReadProfile(profile);
+	}
+
 	/**
 	 * Method setupNFC.
 	 */
 	@TargetApi(19)
 	private void setupNFC() {
+		/*
+		 * Pick up the reader profile, it may have changed in Settings.  The
+		 * learned timeouts are only kept while the profile stays the same.
+		 */
+		ReaderProfile profile = ReaderProfile.fromPreference(sharedPref
+				.getString(globals.getReaderProfile(),
+						ReaderProfile.HANDHELD.getValue()));
+		if (profile != readerProfile) {
+			if (debug) {
+				Log.d(TAG, "Reader profile: " + profile);
+			}
+			readerProfile = profile;
+			timeouts = profile.newTimeoutController();
+		}
 		/****************** Initialize NFC ******************/
 		if (debug) {
 			Log.d(TAG, "Getting Adaptor...");
@@ -288,9 +449,9 @@ public class Read80073 extends Activity implements OnClickListener {
 					handleTag(tag);
 				}
 			};
-			int flags = NfcAdapter.FLAG_READER_NFC_A
-					| NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK;
-			adapter.enableReaderMode(this, listener, flags, null);
+			adapter.enableReaderMode(this, listener,
+					readerProfile.getReaderFlags(),
+					readerProfile.getReaderExtras());
 		}
 	}
 
@@ -374,9 +535,54 @@ public class Read80073 extends Activity implements OnClickListener {
 		 */
 		readerLog = new StringBuffer();
 		setupNFC();
+		loadReadProfile();
+		if (sharedPref.getBoolean(globals.getRelayMode(), false)) {
+			startRelay();
+		}
 		super.onResume();
 	}
 
+	/**
+	 * Method startRelay.
+	 * 
+	 * Listens on the loopback address only; the host reaches it with
+	 * "adb forward tcp:35963 tcp:35963".  A new secret is made for every
+	 * session and shown on screen for the user to give to the host.
+	 */
+	private void startRelay() {
+		if (relay != null) {
+			return;
+		}
+		try {
+			String secret = APDURelayServer.newSecret();
+			relay = APDURelayServer.bindLoopback(APDURelay.DEFAULT_PORT, secret);
+			relay.start();
+			spinnertext.setText(getString(R.string.relay_listening,
+					relay.getPort(), secret));
+			spinnertext.setVisibility(View.VISIBLE);
+			Log.i(TAG, "APDU relay listening on port " + relay.getPort());
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to start APDU relay: " + e.getMessage());
+			relay = null;
+		}
+	}
+
+	/**
+	 * Method stopRelay.
+	 */
+	private void stopRelay() {
+		if (relay != null) {
+			relay.stop();
+			relay = null;
+			spinnertext.setText(R.string.progress_text);
+			spinnertext.setVisibility(View.INVISIBLE);
+		}
+		if (relayChannel != null) {
+			relayChannel.close();
+			relayChannel = null;
+		}
+	}
+
 	/**
 	 * Method onPause.
 	 */
@@ -403,7 +609,9 @@ public class Read80073 extends Activity implements OnClickListener {
 		/*
 		 * Everything else
 		 */
+		stopRelay();
 		shutdownNFC();
+		saveStrategies();
 		super.onPause();
 	}
 
@@ -416,6 +624,9 @@ public class Read80073 extends Activity implements OnClickListener {
 			Log.d(TAG, "onDestroy()");
 		}
 		shutdownNFC();
+		if (card != null) {
+			card.shutdown();
+		}
 		super.onDestroy();
 	}
 
@@ -473,9 +684,10 @@ public class Read80073 extends Activity implements OnClickListener {
 		if (tag == null) {
 			return;
 		}
+		tapTime = SystemClock.elapsedRealtime();
 		/*
-		 * Stop the reader thread if it is already running because we received a
-		 * new tag.
+		 * Stop the read in flight because we received a new tag.  The new
+		 * read waits on the reader thread until the old one has given up.
 		 */
 		if (card != null) {
 			if (debug) {
@@ -488,9 +700,35 @@ public class Read80073 extends Activity implements OnClickListener {
 				card.stop();
 			}
 		}
-		channel = new CardChannel(tag);
+		channel = new CardChannel(tag, timeouts, latencies);
+		if (relay != null) {
+			/*
+			 * Relay mode: hand the card to the host, do not read it.
+			 */
+			if (relayChannel != null) {
+				relayChannel.close();
+			}
+			relayChannel = channel;
+			relay.setCard(channel);
+			if (debug) {
+				Log.d(TAG, "Card offered to the APDU relay: " + channel.isConnected());
+			}
+			return;
+		}
 		if (channel.isConnected()) {
-			card.start(channel);
+			boolean started;
+			if (debug) {
+				recording = new RecordingCardTransport(channel);
+				started = card.start(recording);
+			} else {
+				started = card.start(channel);
+			}
+			if (!started) {
+				channel.close();
+				if (debug) {
+					Log.d(TAG, "Read session rejected");
+				}
+			}
 		}
 	}
 
@@ -520,12 +758,159 @@ public class Read80073 extends Activity implements OnClickListener {
 		 */
 		Intent intent = new Intent(this, ReadMain.class);
 		carddata = card.getData();
+		if (recording != null) {
+			saveTrace(recording);
+			recording = null;
+		}
+		long tapToResult = SystemClock.elapsedRealtime() - tapTime;
+		readerLog.append("Reader Profile: " + readerProfile + ", Tap to Result: "
+				+ tapToResult + " ms\n");
+		if (debug) {
+			Log.d(TAG, "Tap to result: " + tapToResult + " ms (" + readerProfile + ")");
+			readerLog.append("############   APDU Latencies   ############\n");
+			readerLog.append(latencies.toString());
+			readerLog.append("############################################\n");
+		}
 		String reader_log = readerLog.toString();
 		intent.putExtra(globals.getReaderLog(), reader_log);
 		intent.putExtra(globals.getCardData(), carddata.toByteArray());
 		startActivity(intent);
 	}
 
+	/**
+	 * Method saveTrace.
+	 * 
+	 * Writes the binary APDU trace of a read to the traces folder in the
+	 * app's private storage, so it can be replayed with ReplayCardTransport.
+	 * Only the newest MAX_TRACES are kept.
+	 * 
+	 * @param trace
+	 *            RecordingCardTransport
+	 */
+	private void saveTrace(RecordingCardTransport trace) {
+		File dir = new File(getFilesDir(), "traces");
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Log.e(TAG, "Can not create " + dir);
+			return;
+		}
+		File file = new File(dir, "trace-" + System.currentTimeMillis() + ".apdu");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			trace.writeTo(out);
+			readerLog.append("APDU Trace: " + file.getName() + "\n");
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to write APDU trace: " + e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					Log.e(TAG, "Failed to close APDU trace: " + e.getMessage());
+				}
+			}
+		}
+		pruneTraces(dir);
+	}
+
+	/**
+	 * Method pruneTraces.
+	 * 
+	 * Deletes all but the newest MAX_TRACES traces.  Their names hold the
+	 * time they were written, so they sort oldest first.
+	 * 
+	 * @param dir
+	 *            File the traces folder
+	 */
+	private static void pruneTraces(File dir) {
+		File[] traces = dir.listFiles();
+		if (traces == null || traces.length <= MAX_TRACES) {
+			return;
+		}
+		Arrays.sort(traces);
+		for (int i = 0; i < traces.length - MAX_TRACES; i++) {
+			if (!traces[i].delete()) {
+				Log.e(TAG, "Failed to delete APDU trace " + traces[i].getName());
+			}
+		}
+	}
+
+	/**
+	 * Method loadStrategies.
+	 * 
+	 * Reads the card model strategies learned on earlier runs, then adds
+	 * those of the seed table for models not yet seen.
+	 * 
+	 * @return StrategyCache
+	 */
+	private StrategyCache loadStrategies() {
+		StrategyCache cache = new StrategyCache();
+		File file = new File(getFilesDir(), STRATEGIES_FILE);
+		if (file.isFile()) {
+			InputStream in = null;
+			try {
+				in = new FileInputStream(file);
+				cache.readFrom(in);
+			} catch (IOException e) {
+				Log.e(TAG, "Failed to read card strategies: " + e.getMessage());
+			} finally {
+				close(in);
+			}
+		}
+		InputStream seed = getResources().openRawResource(R.raw.strategy_seed);
+		try {
+			int seeded = cache.loadSeed(seed);
+			if (debug) {
+				Log.d(TAG, "Card strategies: " + cache.size() + ", seeded " + seeded);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to read card strategy seed: " + e.getMessage());
+		} finally {
+			close(seed);
+		}
+		return cache;
+	}
+
+	/**
+	 * Method saveStrategies.
+	 */
+	private void saveStrategies() {
+		if (strategies == null) {
+			return;
+		}
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(new File(getFilesDir(), STRATEGIES_FILE));
+			strategies.writeTo(out);
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to write card strategies: " + e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					Log.e(TAG, "Failed to close card strategies: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method close.
+	 * 
+	 * @param in
+	 *            InputStream or null
+	 */
+	private void close(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				Log.e(TAG, "Failed to close: " + e.getMessage());
+			}
+		}
+	}
+
 	/**
 	 * Method logoTouched.
 	 * 
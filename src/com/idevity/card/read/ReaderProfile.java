@@ -0,0 +1,162 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ * 
+ *****************************************************************************/
+
+package com.idevity.card.read;
+
+import android.annotation.TargetApi;
+import android.nfc.NfcAdapter;
+import android.os.Bundle;
+
+import com.idevity.card.transport.TimeoutController;
+
+/**
+ * Reader mode settings, chosen together for a use case.
+ * 
+ * The NFC service checks that the tag is still present every presence
+ * check delay while the tag is idle, and those checks can land between
+ * our APDUs.  A longer delay keeps them out of the read, at the cost of
+ * noticing a removed card (and so the next card) later.
+ * 
+ * <ul>
+ * <li>FAST_GATE: NFC-A only, no platform sounds, a delay longer than a
+ * CHUID read, and tight timeouts so a bad tap fails fast.</li>
+ * <li>HANDHELD: NFC-A and NFC-B, a moderate delay, and timeouts long
+ * enough for the CAK proof of possession on a hand held card.</li>
+ * <li>DIAGNOSTIC: NFC-A and NFC-B, the platform's default delay and
+ * generous timeouts, for reproducing problems.</li>
+ * </ul>
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public enum ReaderProfile {
+
+	FAST_GATE("fast_gate", NfcAdapter.FLAG_READER_NFC_A
+			| NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK
+			| NfcAdapter.FLAG_READER_NO_PLATFORM_SOUNDS, 500, 750, 3000, 1500),
+	HANDHELD("handheld", NfcAdapter.FLAG_READER_NFC_A
+			| NfcAdapter.FLAG_READER_NFC_B
+			| NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK, 250,
+			TimeoutController.DEFAULT_FAST_BUDGET,
+			TimeoutController.DEFAULT_SLOW_BUDGET, 3250),
+	DIAGNOSTIC("diagnostic", NfcAdapter.FLAG_READER_NFC_A
+			| NfcAdapter.FLAG_READER_NFC_B
+			| NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK, 125, 5000, 10000, 10000);
+
+	/**
+	 * Field value.
+	 * The value stored in the preference.
+	 */
+	private final String value;
+	/**
+	 * Field readerFlags.
+	 */
+	private final int readerFlags;
+	/**
+	 * Field presenceCheckDelay.
+	 * (value is in milliseconds)
+	 */
+	private final int presenceCheckDelay;
+	/**
+	 * Field fastBudget.
+	 */
+	private final int fastBudget;
+	/**
+	 * Field slowBudget.
+	 */
+	private final int slowBudget;
+	/**
+	 * Field defaultBudget.
+	 */
+	private final int defaultBudget;
+
+	/**
+	 * Constructor for ReaderProfile.
+	 * 
+	 * @param value String
+	 * @param readerFlags int
+	 * @param presenceCheckDelay int
+	 * @param fastBudget int
+	 * @param slowBudget int
+	 * @param defaultBudget int
+	 */
+	private ReaderProfile(String value, int readerFlags, int presenceCheckDelay,
+			int fastBudget, int slowBudget, int defaultBudget) {
+		this.value = value;
+		this.readerFlags = readerFlags;
+		this.presenceCheckDelay = presenceCheckDelay;
+		this.fastBudget = fastBudget;
+		this.slowBudget = slowBudget;
+		this.defaultBudget = defaultBudget;
+	}
+
+	/**
+	 * Method fromPreference.
+	 * 
+	 * @param value
+	 *            String
+	 * @return ReaderProfile HANDHELD if the value is unknown
+	 */
+	public static ReaderProfile fromPreference(String value) {
+		for (ReaderProfile profile : values()) {
+			if (profile.value.equals(value)) {
+				return profile;
+			}
+		}
+		return HANDHELD;
+	}
+
+	/**
+	 * @return the value stored in the preference
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the flags for NfcAdapter.enableReaderMode()
+	 */
+	public int getReaderFlags() {
+		return readerFlags;
+	}
+
+	/**
+	 * Method getReaderExtras.
+	 * 
+	 * @return Bundle the extras for NfcAdapter.enableReaderMode()
+	 */
+	@TargetApi(19)
+	public Bundle getReaderExtras() {
+		Bundle extras = new Bundle();
+		extras.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY,
+				presenceCheckDelay);
+		return extras;
+	}
+
+	/**
+	 * @return the presence check delay, in milliseconds
+	 */
+	public int getPresenceCheckDelay() {
+		return presenceCheckDelay;
+	}
+
+	/**
+	 * Method newTimeoutController.
+	 * 
+	 * @return TimeoutController with this profile's starting budgets
+	 */
+	public TimeoutController newTimeoutController() {
+		return new TimeoutController(fastBudget, slowBudget, defaultBudget);
+	}
+
+}
@@ -0,0 +1,232 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import org.keysupport.nist80073.cardedge.PIVAPDUInterface;
+
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * Every command the reader sends to read a card, encoded once when the
+ * class is loaded.
+ *
+ * For each PIVContainer there is a short GET DATA (Le 00, i.e., 256) and
+ * an extended one (Le 0000, i.e., 65536).  A transport that can not take
+ * a 65536 byte response, e.g., IsoDep, has a smaller extended Le; the
+ * commands for it are built the first time it is asked for and kept
+ * while it is the one in use, which is every tap on the same device.
+ *
+ * The shared arrays are handed to the reader as is, so that an exact
+ * length command goes straight to the transport without a copy; they
+ * must never be modified.  Other callers get copies.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class APDUCatalog {
+
+	/**
+	 * Field MAX_SHORT_NE.
+	 */
+	private static final int MAX_SHORT_NE = 256;
+	/**
+	 * Field MAX_EXTENDED_NE.
+	 */
+	private static final int MAX_EXTENDED_NE = 65536;
+	/**
+	 * Field SELECT.
+	 */
+	private static final byte[] SELECT = PIVAPDUInterface.SELECT_PIV.clone();
+	/**
+	 * Field GET_DATA_SHORT.
+	 * Indexed by PIVContainer.ordinal()
+	 */
+	private static final byte[][] GET_DATA_SHORT;
+	/**
+	 * Field GET_DATA_EXTENDED.
+	 * Indexed by PIVContainer.ordinal()
+	 */
+	private static final byte[][] GET_DATA_EXTENDED;
+	/**
+	 * Field sized.
+	 * GET DATA commands for the last other extended Ne asked for.
+	 */
+	private static volatile SizedCommands sized = null;
+
+	static {
+		PIVContainer[] containers = PIVContainer.values();
+		GET_DATA_SHORT = new byte[containers.length][];
+		GET_DATA_EXTENDED = new byte[containers.length][];
+		for (PIVContainer container : containers) {
+			GET_DATA_SHORT[container.ordinal()] = encodeGetData(
+					container.getTagBytes(), false);
+			GET_DATA_EXTENDED[container.ordinal()] = encodeGetData(
+					container.getTagBytes(), true);
+		}
+	}
+
+	/**
+	 * Hidden Constructor for APDUCatalog.
+	 */
+	private APDUCatalog() {
+		// Hide default constructor
+	}
+
+	/**
+	 * @return a copy of the SELECT command for the PIV Card Application
+	 */
+	public static byte[] getSelectCommand() {
+		return SELECT.clone();
+	}
+
+	/**
+	 * Method getGetDataCommand.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param extended
+	 *            boolean
+	 * @return byte[] a copy of the GET DATA command, with Le 00 or 0000
+	 */
+	public static byte[] getGetDataCommand(PIVContainer container, boolean extended) {
+		return getDataCommand(container, extended).clone();
+	}
+
+	/**
+	 * @return the shared SELECT command, not to be modified
+	 */
+	static byte[] selectCommand() {
+		return SELECT;
+	}
+
+	/**
+	 * Method getDataCommand.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param extended
+	 *            boolean
+	 * @return byte[] the shared GET DATA command, not to be modified
+	 */
+	static byte[] getDataCommand(PIVContainer container, boolean extended) {
+		if (extended) {
+			return GET_DATA_EXTENDED[container.ordinal()];
+		}
+		return GET_DATA_SHORT[container.ordinal()];
+	}
+
+	/**
+	 * Method getDataCommand.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param ne
+	 *            int 256, or an extended Ne up to 65536
+	 * @return byte[] the shared GET DATA command, not to be modified
+	 */
+	static byte[] getDataCommand(PIVContainer container, int ne) {
+		if (ne == MAX_SHORT_NE || ne == MAX_EXTENDED_NE) {
+			return getDataCommand(container, ne > MAX_SHORT_NE);
+		}
+		SizedCommands commands = sized;
+		if (commands == null || commands.ne != ne) {
+			commands = new SizedCommands(ne);
+			sized = commands;
+		}
+		return commands.getData[container.ordinal()];
+	}
+
+	/**
+	 * Method isCataloged.
+	 *
+	 * @param ne
+	 *            int
+	 * @return boolean true if the catalog holds GET DATA commands with
+	 *         this Ne
+	 */
+	static boolean isCataloged(int ne) {
+		return ne == MAX_SHORT_NE || (ne > MAX_SHORT_NE && ne <= MAX_EXTENDED_NE);
+	}
+
+	/**
+	 * Method copyGetDataCommand.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param ne
+	 *            int extended if greater than 256
+	 * @param buffer
+	 *            byte[]
+	 * @return int the length of the command copied to buffer
+	 */
+	public static int copyGetDataCommand(PIVContainer container, int ne, byte[] buffer) {
+		byte[] command = getDataCommand(container, ne > MAX_SHORT_NE);
+		int length = command.length;
+		System.arraycopy(command, 0, buffer, 0, length);
+		if (ne > MAX_SHORT_NE) {
+			buffer[length - 2] = (byte) (ne >> 8);
+		}
+		buffer[length - 1] = (byte) ne;
+		return length;
+	}
+
+	/**
+	 * Method encodeGetData.
+	 *
+	 * @param tag
+	 *            byte[]
+	 * @param extended
+	 *            boolean
+	 * @return byte[] GET DATA for the tag, with the largest Le
+	 */
+	private static byte[] encodeGetData(byte[] tag, boolean extended) {
+		byte[] header = PIVAPDUInterface.PIV_GET_DATA_HEADER;
+		int lc = tag.length + 2;
+		byte[] command = new byte[4 + (extended ? 3 : 1) + lc + (extended ? 2 : 1)];
+		System.arraycopy(header, 0, command, 0, 4);
+		int offset = 4;
+		if (extended) {
+			command[offset++] = 0x00;
+			command[offset++] = (byte) (lc >> 8);
+		}
+		command[offset++] = (byte) lc;
+		command[offset++] = (byte) 0x5c;
+		command[offset++] = (byte) tag.length;
+		System.arraycopy(tag, 0, command, offset, tag.length);
+		/* Le is already 00 or 0000 */
+		return command;
+	}
+
+	/**
+	 * The extended GET DATA commands for one Ne, indexed by
+	 * PIVContainer.ordinal().
+	 */
+	private static final class SizedCommands {
+
+		private final int ne;
+		private final byte[][] getData;
+
+		SizedCommands(int ne) {
+			this.ne = ne;
+			this.getData = new byte[GET_DATA_EXTENDED.length][];
+			for (int i = 0; i < getData.length; i++) {
+				byte[] command = GET_DATA_EXTENDED[i].clone();
+				command[command.length - 2] = (byte) (ne >> 8);
+				command[command.length - 1] = (byte) ne;
+				getData[i] = command;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.UUID;
+
+import org.keysupport.nist80073.datamodel.FASCN;
+import org.keysupport.nist80073.datamodel.PIVCardHolderUniqueID;
+
+import android.util.Log;
+
+/**
+ * What a door or turnstile needs from a card: the identifiers and
+ * expiry of its CHUID, whether the CHUID signature verified, and how long
+ * it took to find out.
+ *
+ * Made by a CardReader80073 as soon as the CHUID has been read and
+ * verified, when the read profile has a latency target.  Whether to
+ * release the door is left to the caller, which usually also looks the
+ * FASC-N or GUID up.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class AccessDecision {
+
+	private static final String TAG = AccessDecision.class.getSimpleName();
+	/**
+	 * Field fascn.
+	 */
+	private final FASCN fascn;
+	/**
+	 * Field guid.
+	 */
+	private final UUID guid;
+	/**
+	 * Field expiration.
+	 */
+	private final Date expiration;
+	/**
+	 * Field signatureValid.
+	 */
+	private final Boolean signatureValid;
+	/**
+	 * Field latency.
+	 */
+	private final long latency;
+	/**
+	 * Field target.
+	 */
+	private final long target;
+
+	/**
+	 * Constructor for AccessDecision.
+	 *
+	 * @param chuid
+	 *            PIVCardHolderUniqueID or null if it could not be parsed
+	 * @param signatureValid
+	 *            Boolean or null if the signature was not checked
+	 * @param latency
+	 *            long from the start of the read (value is in
+	 *            milliseconds)
+	 * @param target
+	 *            long the latency target (value is in milliseconds)
+	 */
+	public AccessDecision(PIVCardHolderUniqueID chuid, Boolean signatureValid,
+			long latency, long target) {
+		FASCN parsed = null;
+		Date expires = null;
+		if (chuid != null) {
+			try {
+				parsed = chuid.getFASCN();
+			} catch (IOException e) {
+				Log.e(TAG, "Problem with FASC-N: " + e.getMessage());
+			}
+			try {
+				expires = chuid.getExpirationDate();
+			} catch (NumberFormatException e) {
+				Log.e(TAG, "Problem with expiration date: " + e.getMessage());
+			}
+		}
+		this.fascn = parsed;
+		this.guid = chuid == null ? null : chuid.getGUID();
+		this.expiration = expires;
+		this.signatureValid = signatureValid;
+		this.latency = latency;
+		this.target = target;
+	}
+
+	/**
+	 * Constructor for AccessDecision.
+	 *
+	 * For a read that abandoned the CHUID once its identity was in, so
+	 * the signature was not checked.
+	 *
+	 * @param identity
+	 *            EarlyIdentity
+	 * @param latency
+	 *            long from the start of the read (value is in
+	 *            milliseconds)
+	 * @param target
+	 *            long the latency target (value is in milliseconds)
+	 */
+	public AccessDecision(EarlyIdentity identity, long latency, long target) {
+		this.fascn = identity.getFASCN();
+		this.guid = identity.getGUID();
+		this.expiration = identity.getExpirationDate();
+		this.signatureValid = null;
+		this.latency = latency;
+		this.target = target;
+	}
+
+	/**
+	 * @return the FASC-N, or null
+	 */
+	public FASCN getFASCN() {
+		return fascn;
+	}
+
+	/**
+	 * @return the GUID, or null
+	 */
+	public UUID getGUID() {
+		return guid;
+	}
+
+	/**
+	 * @return the expiration date of the CHUID, or null
+	 */
+	public Date getExpirationDate() {
+		return expiration == null ? null : (Date) expiration.clone();
+	}
+
+	/**
+	 * @return whether the CHUID signature verified, or null if it was not
+	 *         checked
+	 */
+	public Boolean isSignatureValid() {
+		return signatureValid;
+	}
+
+	/**
+	 * @return true if the CHUID has no expiration date, or it has passed
+	 */
+	public boolean isExpired() {
+		return expiration == null || expiration.before(new Date());
+	}
+
+	/**
+	 * @return true if the CHUID identifies the card, has not expired and
+	 *         its signature verified
+	 */
+	public boolean isValid() {
+		return (fascn != null || guid != null) && !isExpired()
+				&& Boolean.TRUE.equals(signatureValid);
+	}
+
+	/**
+	 * @return the time from the start of the read to the decision (value
+	 *         is in milliseconds)
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return the latency target (value is in milliseconds)
+	 */
+	public long getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return true if the decision was made within the latency target
+	 */
+	public boolean isTargetMet() {
+		return latency <= target;
+	}
+
+	/**
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		return String.format("Access Decision: %s in %d ms (target %d ms, %s)"
+				+ ", FASC-N %s, GUID %s, expires %s, signature %s",
+				isValid() ? "valid" : "invalid", latency, target,
+				isTargetMet() ? "met" : "missed", EarlyIdentity.describe(fascn),
+				guid, expiration,
+				signatureValid == null ? "not checked"
+						: signatureValid.booleanValue() ? "verified" : "failed");
+	}
+
+}
@@ -16,7 +16,6 @@
 
 package com.idevity.card.reader;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -43,7 +42,7 @@ import org.keysupport.util.DataUtil;
 
 import android.util.Log;
 
-import com.idevity.android.CardChannel;
+import com.idevity.card.transport.APDUBufferPool;
 
 /**
  * @author Matthew Ambs (matt@idevity.com)
@@ -116,6 +115,20 @@ public class CAKChallenge {
 	 * 6. The signed product will be provided back to this class for signature verification.
 	 */
 
+	/**
+	 * Field MAX_SHORT_LC.
+	 */
+	private static final int MAX_SHORT_LC = 255;
+	/**
+	 * Field SHORT_OVERHEAD.
+	 * Header, Lc and Le of a short command.
+	 */
+	private static final int SHORT_OVERHEAD = 6;
+	/**
+	 * Field EXTENDED_OVERHEAD.
+	 * Header, Lc and Le of an extended length command.
+	 */
+	private static final int EXTENDED_OVERHEAD = 9;
 	/**
 	 * Field debug.
 	 * (value is true)
@@ -137,6 +150,15 @@ public class CAKChallenge {
 	 * Field gaapdus.
 	 */
 	private Enumeration<CommandAPDU> gaApdus;
+	/**
+	 * Field algRef.
+	 */
+	private byte algRef;
+	/**
+	 * Field gaTemplate.
+	 * The encoded dynamic authentication template sent to the card.
+	 */
+	private byte[] gaTemplate;
 	/**
 	 * Field cakPopSig.
 	 */
@@ -240,8 +262,7 @@ public class CAKChallenge {
 			DynamicAuthTempl gaReq = new DynamicAuthTempl(
 					DynamicAuthTempl.POP_TO_TERM_RSA, message);
 
-			this.gaApdus = generalAuthenticate(pivkeytype,
-					CipherEngine.CARD_AUTH_KEY, gaReq.getEncoded());
+			setTemplate(pivkeytype, gaReq.getEncoded());
 
 		} else {
 			ECPublicKey pub = (ECPublicKey) cardAuth.getPublicKey();
@@ -283,8 +304,7 @@ public class CAKChallenge {
 			DynamicAuthTempl gaReq = new DynamicAuthTempl(
 					DynamicAuthTempl.POP_TO_TERM_ECC, rbDigest);
 
-			this.gaApdus = generalAuthenticate(pivkeytype,
-					CipherEngine.CARD_AUTH_KEY, gaReq.getEncoded());
+			setTemplate(pivkeytype, gaReq.getEncoded());
 		}
 	}
 
@@ -352,90 +372,79 @@ public class CAKChallenge {
 		return pop;
 	}
 
+	/**
+	 * Method setTemplate.
+	 * 
+	 * @param algRef
+	 *            byte
+	 * @param template
+	 *            byte[] the encoded dynamic authentication template
+	 */
+	private void setTemplate(byte algRef, byte[] template) {
+		this.algRef = algRef;
+		this.gaTemplate = template;
+		this.gaApdus = generalAuthenticate(algRef, CipherEngine.CARD_AUTH_KEY,
+				template, APDUBufferPool.SHORT_BUFFER, 0);
+	}
+
 	/**
 	 * Method generalAuthenticate.
 	 * 
+	 * Sends the template in as few commands as the channel allows: one
+	 * extended length command if that is allowed and fits, otherwise short
+	 * commands chained (CLA 10) in segments as large as the transceive
+	 * limit takes.  Data that fits one short command is sent unchained,
+	 * without Le.
+	 * 
 	 * @param algRef
 	 *            byte
 	 * @param keyRef
 	 *            byte
 	 * @param dat
 	 *            byte[]
+	 * @param maxTransceive
+	 *            int
+	 * @param maxExtendedLe
+	 *            int 0 if extended length APDUs must not be used
 	 * @return Enumeration<CommandAPDU> 
-	 * @throws IOException 
 	 */
 	private static Enumeration<CommandAPDU> generalAuthenticate(byte algRef,
-			byte keyRef, byte[] dat) throws IOException {
-		byte[] apdu_data;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte keyRef, byte[] dat, int maxTransceive, int maxExtendedLe) {
 		Vector<CommandAPDU> apdus = new Vector<CommandAPDU>();
-
-		apdu_data = dat;
-
-		if ((apdu_data.length) >= CardChannel.MAX_APDU_SIZE) {
-			baos.write(PIVAPDUInterface.PIV_GEN_AUTH_CC_HEADER);
-			baos.write(algRef);
-			baos.write(keyRef);
-			baos.write(CardChannel.MAX_APDU_SIZE - 5);
-			baos.write(apdu_data);
-			apdu_data = baos.toByteArray();
-			baos.reset();
-			byte[][] cc_apdu_data = DataUtil.getArrays(apdu_data,
-					CardChannel.MAX_APDU_SIZE, false);
-			for (int i = 0; i < cc_apdu_data.length; i++) {
-				if (i == 0) {
-					baos.write(cc_apdu_data[i]);
-					if (debug) {
-						Log.d(TAG,
-							"Adding APDU: "
-									+ DataUtil.byteArrayToString(baos
-											.toByteArray()));
-					}
-					apdus.add(new CommandAPDU(baos.toByteArray()));
-					baos.reset();
-				} else if (i == (cc_apdu_data.length - 1)) {
-					baos.write(PIVAPDUInterface.PIV_GEN_AUTH_HEADER);
-					baos.write(algRef);
-					baos.write(keyRef);
-					baos.write(cc_apdu_data[i].length);
-					baos.write(cc_apdu_data[i]);
-					baos.write((byte) 0x00); // Add Le
-					if (debug) {
-						Log.d(TAG,
-							"Adding APDU: "
-									+ DataUtil.byteArrayToString(baos
-											.toByteArray()));
-					}
-					apdus.add(new CommandAPDU(baos.toByteArray()));
-					baos.reset();
+		byte[] header = PIVAPDUInterface.PIV_GEN_AUTH_HEADER;
+		byte[] ccHeader = PIVAPDUInterface.PIV_GEN_AUTH_CC_HEADER;
+		if (maxTransceive <= SHORT_OVERHEAD) {
+			maxTransceive = APDUBufferPool.SHORT_BUFFER;
+		}
+		int segment = Math.min(MAX_SHORT_LC, maxTransceive - SHORT_OVERHEAD);
+
+		if (dat.length > segment && maxExtendedLe > 0
+				&& dat.length + EXTENDED_OVERHEAD <= maxTransceive) {
+			apdus.add(new CommandAPDU(header[0] & 0xff, header[1] & 0xff,
+					algRef & 0xff, keyRef & 0xff, dat, maxExtendedLe));
+		} else if (dat.length > segment) {
+			for (int offset = 0; offset < dat.length; offset += segment) {
+				int length = Math.min(segment, dat.length - offset);
+				if (offset + length == dat.length) {
+					apdus.add(new CommandAPDU(header[0] & 0xff, header[1] & 0xff,
+							algRef & 0xff, keyRef & 0xff, dat, offset, length, 256));
 				} else {
-					baos.write(PIVAPDUInterface.PIV_GEN_AUTH_CC_HEADER);
-					baos.write(algRef);
-					baos.write(keyRef);
-					baos.write(cc_apdu_data[i].length);
-					baos.write(cc_apdu_data[i]);
-					if (debug) {
-						Log.d(TAG,
-							"Adding APDU: "
-									+ DataUtil.byteArrayToString(baos
-											.toByteArray()));
-					}
-					apdus.add(new CommandAPDU(baos.toByteArray()));
-					baos.reset();
+					apdus.add(new CommandAPDU(ccHeader[0] & 0xff, ccHeader[1] & 0xff,
+							algRef & 0xff, keyRef & 0xff, dat, offset, length));
 				}
 			}
 		} else {
 			// Typically the case when algRef=CipherEngine.THREE_KEY_3DES_ECB &&
 			// keyRef=CipherEngine.CARD_MGMT_KEY
-			baos.write(PIVAPDUInterface.PIV_GEN_AUTH_HEADER);
-			baos.write(algRef);
-			baos.write(keyRef);
-			baos.write(dat.length);
-			baos.write(dat);
-			apdus.add(new CommandAPDU(baos.toByteArray()));
+			apdus.add(new CommandAPDU(header[0] & 0xff, header[1] & 0xff,
+					algRef & 0xff, keyRef & 0xff, dat));
+		}
+		if (debug) {
+			for (CommandAPDU apdu : apdus) {
+				Log.d(TAG, "Adding APDU: " + DataUtil.byteArrayToString(apdu.getBytes()));
+			}
 		}
-		Enumeration<CommandAPDU> apduse = apdus.elements();
-		return apduse;
+		return apdus.elements();
 	}
 
 	/**
@@ -461,12 +470,28 @@ public class CAKChallenge {
 	}
 
 	/**
-	 * @return the gaApdus
+	 * @return the gaApdus, sized for a short APDU channel
 	 */
 	public Enumeration<CommandAPDU> getGenAuthAPDUs() {
 		return gaApdus;
 	}
 
+	/**
+	 * Method getGenAuthAPDUs.
+	 * 
+	 * @param maxTransceive
+	 *            int the channel's transceive limit
+	 * @param maxExtendedLe
+	 *            int the Le to use in an extended length command, or 0 if
+	 *            extended length APDUs must not be used
+	 * @return Enumeration<CommandAPDU> the GENERAL AUTHENTICATE commands
+	 *         sized for the channel
+	 */
+	public Enumeration<CommandAPDU> getGenAuthAPDUs(int maxTransceive, int maxExtendedLe) {
+		return generalAuthenticate(algRef, CipherEngine.CARD_AUTH_KEY, gaTemplate,
+				maxTransceive, maxExtendedLe);
+	}
+
 	/**
 	 * @return the cakPopNonce
 	 */
@@ -0,0 +1,62 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Asks one read session to stop.
+ *
+ * Interrupting a thread does not unblock a transceive in progress, so a
+ * session checks its token instead, before every APDU, and gives up at
+ * the first check after cancel().  A token is never reset; every session
+ * gets its own.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class CancellationToken {
+
+	/**
+	 * Field cancelled.
+	 */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Method cancel.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true once cancel() has been called
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Method throwIfCancelled.
+	 *
+	 * @throws CancellationException
+	 *             if cancel() has been called
+	 */
+	public void throwIfCancelled() {
+		if (cancelled) {
+			throw new CancellationException("Read cancelled");
+		}
+	}
+
+}
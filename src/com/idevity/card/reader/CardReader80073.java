@@ -22,8 +22,21 @@ import java.security.Security;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.keysupport.asn1.ASN1Exception;
 import org.keysupport.encoding.Tag;
@@ -35,7 +48,6 @@ import org.keysupport.nist80073.datamodel.PIVCardHolderUniqueID;
 import org.keysupport.nist80073.datamodel.PIVCertificate;
 import org.keysupport.provider.OpenSSLFIPSProvider;
 import org.keysupport.smartcardio.CommandAPDU;
-import org.keysupport.smartcardio.ResponseAPDU;
 import org.keysupport.util.DataUtil;
 
 import android.content.Context;
@@ -45,10 +57,17 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Build;
 import android.util.Log;
 
-import com.idevity.android.CardChannel;
+import com.idevity.android.CardLostException;
 import com.idevity.android.HistoricalBytes;
 import com.idevity.android.InvalidResponseException;
+import com.idevity.android.ObjectTooLargeException;
 import com.idevity.card.data.CardData80073;
+import com.idevity.card.data.PIVContainer;
+import com.idevity.card.transport.APDUBufferPool;
+import com.idevity.card.transport.AsyncCardTransport;
+import com.idevity.card.transport.CardOperation;
+import com.idevity.card.transport.CardTransport;
+import com.idevity.card.transport.ResponseAssembler;
 
 /**
  * @author Matthew Ambs (matt@idevity.com)
@@ -61,34 +80,150 @@ import com.idevity.card.data.CardData80073;
 public class CardReader80073 {
 
 	private static final String TAG = CardReader80073.class.getSimpleName();
+	/**
+	 * How long we wait for a lost card to come back before the read
+	 * starts over (value is in milliseconds).
+	 */
+	public static final long RESUME_WINDOW = 10000;
+	/**
+	 * How long the decode thread is kept once idle (value is in
+	 * milliseconds).
+	 */
+	private static final long DECODE_KEEP_ALIVE = 30000;
 
 	private boolean debug = false;
 	private boolean pop = false;
 	private Context ctx;
-	private CardChannel channel;
+	/*
+	 * Set and cleared by the session thread only; stop() from another
+	 * thread may close it, but leaves the field alone.
+	 */
+	private volatile CardTransport channel;
 	private CardData80073 carddata;
 	private boolean dataavailable = false;
 	private int threadcount = 0;
-	private StringBuffer log;
-	private boolean logupdated = false;
+	private final TraceBuffer trace = new TraceBuffer(TraceBuffer.DEFAULT_CAPACITY,
+			TraceLevel.INFO);
 	private boolean isRunning = false;
 	private Thread readerThread;
 	private long timeStart = System.currentTimeMillis();
+	private int extendedLe = 0;
+	/*
+	 * Whether the card refused extended length this session, as opposed
+	 * to it not being tried.
+	 */
+	private boolean extendedRejected = false;
+	private int popApdus = 0;
+	private int apduCount = 0;
+	private ReadProfile profile = ReadProfile.GATE;
+	private byte[] pin = null;
+	private boolean pinVerified = false;
+	/*
+	 * VERIFY of the PIV Card Application PIN, padded with FF to 8 bytes.
+	 */
+	private static final byte PIV_APPLICATION_PIN = (byte) 0x80;
+	private static final byte PIN_LENGTH = 8;
+	/*
+	 * APDU buffers, reused for every exchange in a session so that the
+	 * read path does not allocate per APDU.  The response buffer is
+	 * borrowed from the APDUBufferPool for the length of a session.
+	 */
+	private final byte[] commandBuffer = new byte[APDUBufferPool.SHORT_BUFFER];
+	private byte[] responseBuffer;
+	private ResponseAssembler assembler;
+	private final ResponseAssembler.Listener apduTrace = new ResponseAssembler.Listener() {
+		@Override
+		public void onExchange(byte[] command, int commandLength,
+				byte[] response, int responseLength) {
+			/*
+			 * Catalog commands are never modified and are held by
+			 * reference; the session buffers are reused, so are copied.
+			 */
+			long time = System.currentTimeMillis() - timeStart;
+			publish(trace.command(time, command == commandBuffer ? Arrays
+					.copyOf(command, commandLength) : command, commandLength));
+			publish(trace.response(time,
+					Arrays.copyOf(response, responseLength), responseLength));
+		}
+	};
+	/*
+	 * What has been read from the current card, kept when the card is lost
+	 * so a read can resume when the same card returns.
+	 */
+	private final EnumSet<PIVContainer> completed = EnumSet.noneOf(PIVContainer.class);
+	private boolean popComplete = false;
+	private byte[] cardIdentifier;
+	private boolean awaitingResume = false;
+	private long lostAt = 0;
+	private SharedCardCache cache = null;
+	private DecodePipeline pipeline;
+	private AccessDecision decision;
+	/*
+	 * What earlier reads learned about the card model, if a cache is set.
+	 */
+	private StrategyCache strategies = null;
+	private CardStrategy strategy;
+	private int lastStatus = 0;
+	/*
+	 * What the card declares it holds, from the objects read ahead of the
+	 * others, and the round trips the last session saved by it.
+	 */
+	private ReadPlan plan;
+	private int avoidedRoundTrips = 0;
+	/*
+	 * The identity of the CHUID, parsed from the first chunk of its
+	 * response when the policy is not OFF.
+	 */
+	private EarlyIdentity.Policy identityPolicy = EarlyIdentity.Policy.OFF;
+	private EarlyIdentity identity;
+	private final ResponseAssembler.ChunkListener identityWatcher = new ResponseAssembler.ChunkListener() {
+		@Override
+		public boolean onChunk(byte[] data, int length, boolean complete) {
+			if (identity == null) {
+				identity = EarlyIdentity.parse(data, length,
+						System.currentTimeMillis() - timeStart);
+				if (identity == null) {
+					return true;
+				}
+				log(identity.toString());
+				for (ReaderListener listener : listeners) {
+					listener.onIdentity(identity);
+				}
+			}
+			return identityPolicy != EarlyIdentity.Policy.ABANDON;
+		}
+	};
+	private ExecutorService decodeExecutor;
+	/*
+	 * Every command of a session, with its GET RESPONSEs, runs on the I/O
+	 * thread through io, in the order sent.
+	 */
+	private ExecutorService ioExecutor;
+	private AsyncCardTransport io;
+	/*
+	 * Sessions run on one long-lived thread.  The tokens let another
+	 * thread stop the session in flight, or the one waiting for it.
+	 */
+	private ExecutorService sessionExecutor;
+	private volatile CancellationToken current;
+	private CancellationToken queued;
+	private boolean isShutdown = false;
+	private final List<ReaderListener> listeners = new CopyOnWriteArrayList<ReaderListener>();
 
 	/**
 	 * Constructor for CardReader80073.
 	 * 
 	 * @param ctx
-	 *            Context
+	 *            Context, may be null when running off-device
 	 * @param pop 
 	 */
 	public CardReader80073(Context ctx, boolean debug, boolean pop) {
 		this.ctx = ctx;
 		this.debug = debug;
 		this.pop = pop;
-		this.log = new StringBuffer();
 		this.timeStart = System.currentTimeMillis();
 		if (debug) {
+			trace.setLevel(TraceLevel.DEBUG);
 			log("800-73-3 Reader Initialized");
 		}
 	}
@@ -96,29 +231,159 @@ public class CardReader80073 {
 	/**
 	 * Method start.
 	 * 
+	 * If the previous read was cut short by the card leaving the field,
+	 * and this is the same card (by UID) returning within RESUME_WINDOW,
+	 * the read resumes from the first container not yet completed.
+	 * Otherwise a new read is started.
+	 * 
+	 * Sessions run one at a time on the reader's own thread.  A session
+	 * started while another is in flight waits for it; call stop() first
+	 * to have the one in flight give up.  At most one session waits, any
+	 * more are rejected.
+	 * 
 	 * @param tag
-	 *            CardChannel
-	 * @throws IOException
+	 *            CardTransport
+	 * @return boolean false if the session was rejected, or the reader has
+	 *         been shut down
+	 */
+	public synchronized boolean start(final CardTransport tag) {
+		if (isShutdown) {
+			return false;
+		}
+		final CancellationToken token = new CancellationToken();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (CardReader80073.this) {
+					if (queued == token) {
+						queued = null;
+					}
+					if (token.isCancelled()) {
+						tag.close();
+						return;
+					}
+					current = token;
+					readerThread = Thread.currentThread();
+					isRunning = true;
+				}
+				session(tag).run();
+			}
+		};
+		try {
+			getSessionExecutor().execute(task);
+		} catch (RejectedExecutionException e) {
+			Log.w(TAG, "Read session rejected, one is in flight and one waiting");
+			return false;
+		}
+		queued = token;
+		isRunning = true;
+		if (debug) {
+			Log.d(TAG, "Queued read session");
+		}
+		return true;
+	}
+
+	/**
+	 * Method read.
+	 * 
+	 * Same as start(), but the read runs on the calling thread, e.g., a
+	 * worker of a LaneManager, and this returns once it is over.
+	 * 
+	 * @param tag
+	 *            CardTransport
 	 */
-	public void start(CardChannel tag) {
+	public void read(CardTransport tag) {
+		synchronized (this) {
+			current = new CancellationToken();
+			readerThread = Thread.currentThread();
+			isRunning = true;
+		}
+		session(tag).run();
+	}
+
+	/**
+	 * Method getSessionExecutor.
+	 * 
+	 * @return ExecutorService the reader thread, created once and kept
+	 *         until shutdown()
+	 */
+	private synchronized ExecutorService getSessionExecutor() {
+		if (sessionExecutor == null) {
+			sessionExecutor = new ThreadPoolExecutor(1, 1, 0L,
+					TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r);
+							t.setName("800-73 reader thread#" + t.getId());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+		return sessionExecutor;
+	}
+
+	/**
+	 * Method session.
+	 * 
+	 * @param tag
+	 *            CardTransport
+	 * @return Runnable the read of tag
+	 */
+	private Runnable session(CardTransport tag) {
 		this.timeStart = Calendar.getInstance().getTimeInMillis();
+		final boolean resume = canResume(tag);
 		this.channel = tag;
-		this.carddata = new CardData80073();
+		this.io = new AsyncCardTransport(tag, getIoExecutor());
+		this.awaitingResume = false;
+		if (!resume) {
+			this.carddata = new CardData80073();
+			this.completed.clear();
+			this.popComplete = false;
+			this.pipeline = new DecodePipeline(getDecodeExecutor(), cache);
+			this.decision = null;
+			this.identity = null;
+			this.plan = null;
+			this.cardIdentifier = tag.getCardIdentifier();
+			if (cardIdentifier != null) {
+				carddata.setCSN(cardIdentifier);
+			}
+		}
+		this.apduCount = 0;
+		this.extendedRejected = false;
+		this.pinVerified = false;
 		threadcount++;
 		if (debug) {
 			log("800-73-3 Reader Thread: " + threadcount);
 		}
 
-		Runnable r = new Runnable() {
+		return new Runnable() {
 			@Override
 			public void run() {
+				/*
+				 * A fast path profile skips the platform and card reports,
+				 * and decides as soon as the CHUID is in.
+				 */
+				final boolean fastPath = profile.isFastPath();
+				responseBuffer = APDUBufferPool.acquire(Math.max(
+						channel.getMaxTransceiveLength(), 258));
+				assembler = new ResponseAssembler(channel, responseBuffer);
+				if (trace.isEnabled(TraceLevel.APDU)) {
+					assembler.setListener(apduTrace);
+				}
 				try {
 					dataavailable = false;
-					ResponseAPDU response;
+					for (ReaderListener listener : listeners) {
+						listener.onStarted(resume);
+					}
 					/*
 					 * Select the PIV Application
 					 */
-					if (debug) {
+					if (resume) {
+						log("Card returned, resuming read after " + completed);
+					}
+					if (debug && ctx != null && !resume && !fastPath) {
 						PackageManager manager = ctx.getPackageManager();
 						PackageInfo info = null;
 						String packageName = "";
@@ -173,11 +438,13 @@ public class CardReader80073 {
 					 * Check historical bytes from the RATS, and see if the PIV Card application is
 					 * implicitly selected.  Otherwise, perform an explicit select.
 					 */
-					log("############   Card Information  ###########");
 					byte[] historicalBytes = channel.getHistoricalBytes();
-					log("Historical Bytes: " + DataUtil.byteArrayToString(historicalBytes));
+					if (!fastPath) {
+						log("############   Card Information  ###########");
+						log("Historical Bytes: " + DataUtil.byteArrayToString(historicalBytes));
+					}
 					HistoricalBytes hb = new HistoricalBytes(historicalBytes);
-					if (debug) {
+					if (debug && !fastPath) {
 						log("Application Implicitly Selected: " + (hb.isAppImplicitSelected() ? "Yes":"No"));
 						if (hb.isAppImplicitSelected()) {
 							String AID = null;
@@ -191,135 +458,277 @@ public class CardReader80073 {
 						log("Selection by full select: " + (hb.allowsFullSelect() ? "Yes":"No"));
 						log("Selection by partial select: " + (hb.allowsPartialSelect() ? "Yes":"No"));
 					}
-					if (!hb.isAppImplicitSelected()) {
-						if (debug) {
-							log("Selecting PIV Card Application");
+					/*
+					 * A card model known not to need SELECT is not sent one;
+					 * one not yet known is tried without, once it has been
+					 * read often enough to be worth learning.  Either way, if
+					 * the first container read fails, the application is
+					 * selected and the container read again.
+					 */
+					strategy = strategies == null ? null : strategies.find(historicalBytes);
+					boolean select = !hb.isAppImplicitSelected();
+					boolean probeSelect = false;
+					boolean selectSkipped = false;
+					byte[] pcap = null;
+					if (select && strategy != null) {
+						if (Boolean.FALSE.equals(strategy.isSelectRequired())) {
+							select = false;
+							selectSkipped = true;
+							log("SELECT skipped, not needed by this card model");
+						} else if (strategy.shouldProbeSelect()) {
+							select = false;
+							selectSkipped = true;
+							probeSelect = true;
+						}
+					}
+					if (select) {
+						pcap = selectApplication();
+						if (strategy == null && strategies != null) {
+							strategy = strategies.find(historicalBytes, pcap);
 						}
-						response = transmit(new CommandAPDU(PIVAPDUInterface.SELECT_PIV));
-						log("Response from select: " + DataUtil.byteArrayToString(response.getBytes()));
 					}
-					log("############################################\n");
-
 					/*
-					 * Obtain and Store CHUID Object
+					 * Use extended length GET DATA when both the NFC stack and
+					 * the card allow it.  Cards that do not publish their
+					 * capabilities get the benefit of the doubt, and drop back
+					 * to short APDUs if they reject the first one.
 					 */
-					if (debug) {
-						log("Getting the CHUID");
+					extendedLe = 0;
+					if (!hb.hasCardCapabilities() || hb.supportsExtendedLength()) {
+						extendedLe = channel.getMaxExtendedLe();
+					}
+					if (strategy != null && strategy.getExtendedLe() == 0) {
+						// The card model rejected extended length before
+						extendedLe = 0;
 					}
-					PIVDataTempl chuid = getPIVData(new Tag(Tag.PIV_CHUID));
-					if (chuid != null) {
-						carddata.setPIVCardHolderUniqueID(chuid);
+					if (!fastPath) {
+						if (extendedLe > 0) {
+							log("APDU Mode: Extended Length (Le=" + extendedLe + ")");
+						} else {
+							log("APDU Mode: Short");
+						}
+						log("############################################\n");
 					}
+
 					/*
-					 * Obtain and Store Card Auth Certificate if present
+					 * Read the containers of the profile, in its order.  The
+					 * CAK proof of possession follows the CAK certificate.
+					 * Each container read is decoded and verified by the
+					 * pipeline while the next one is requested.
 					 */
-					if (debug) {
-						log("Checking for a Card Auth Certificate");
-					}
-					PIVCertificate cardAuthPC = getCardAuthCert();
-					X509Certificate cardAuth = null;
-					
+					boolean firstData = false;
+					EnumSet<PIVContainer> found = EnumSet.noneOf(PIVContainer.class);
+					EnumSet<PIVContainer> missing = EnumSet.noneOf(PIVContainer.class);
 					/*
-					 * Check to make sure it is not some silly
-					 * empty encoding (suspect this may be the
-					 * case for State and HHS creds)
+					 * The objects that say what the card holds are read
+					 * first, when the profile has containers they can rule
+					 * out, so those the card declares absent are not asked
+					 * for.
 					 */
-					
-					if (cardAuthPC != null) {
-						try {
-							cardAuth = cardAuthPC.getCertificate();
-						} catch (NullPointerException e) { 
-							if (debug) {
-								log("Error: Empty Certificate Object Received!");
-								Log.e(TAG, "Error: Empty Certificate Object Received!");
-							}
+					List<PIVContainer> order = new ArrayList<PIVContainer>(profile.getContainers());
+					List<PIVContainer> planning = ReadPlan.getPlanningReads(profile);
+					int skipped = 0;
+					int planningReads = 0;
+					if (!planning.isEmpty()) {
+						if (plan == null) {
+							plan = new ReadPlan();
 						}
-						
-						if (cardAuth != null) {
-							/*
-							 * CAK POP Test
-							 */
-							if (pop) {
-								PIVDataTempl cac = getPIVData(new Tag(Tag.PIV_CERT_CARDAUTH));
-								if (cac != null) {
-									carddata.setCardAuthCertificate(cac);
+						order.removeAll(planning);
+						order.addAll(0, planning);
+					}
+					for (PIVContainer container : order) {
+						if (!completed.contains(container)) {
+							if (plan != null && plan.isDeclaredAbsent(container)) {
+								if (debug) {
+									log("Skipping " + container + ", declared absent by the card");
 								}
-								CAKChallenge popTest = new CAKChallenge(cardAuth);
+								skipped++;
+								completed.add(container);
+								progress();
+								continue;
+							}
+							if (container.isPinProtected() && !verifyPin()) {
+								log("Skipping " + container + ", PIN not verified");
+								continue;
+							}
+							if (strategy != null && strategy.isKnownAbsent(container)) {
 								if (debug) {
-									log("Performing CAK Proof of Possession Test");
+									log("Skipping " + container + ", not on this card model");
+								}
+								if (plan != null && planning.contains(container)) {
+									plan.record(container, null,
+											PIVAPDUInterface.PIV_SW_OBJECT_OR_APPLICATION_NOT_FOUND);
 								}
+								completed.add(container);
+								progress();
+								continue;
+							}
+							if (debug) {
+								log("Getting " + container);
+							}
+							PIVDataTempl data = readContainer(container);
+							if (selectSkipped) {
 								/*
-								 * Transmit enumeration of APDUs and obtain the
-								 * signed response.
+								 * Only data returned without SELECT shows
+								 * it is not needed.  A failure may only mean
+								 * the container is absent, so SELECT is
+								 * needed only if it changes the answer; if
+								 * it does not, nothing is learned.
 								 */
-								DynamicAuthTempl gaResp = generalAuthenticate(popTest.getGenAuthAPDUs());
-								byte[] signature = gaResp.getTemplateValue();
-								if (signature != null) {
-									carddata.setCAKPoPNonce(popTest.getCAKPoPNonce());
-									carddata.setCAKPoPSig(signature);
-									if (debug) {
-										Log.d(TAG, "Signature: " + DataUtil.byteArrayToString(signature));
+								selectSkipped = false;
+								Boolean needed = Boolean.FALSE;
+								if (lastStatus != PIVAPDUInterface.PIV_SW_SUCCESSFUL_EXECUTION
+										&& !assembler.isAbandoned()) {
+									int without = lastStatus;
+									select = true;
+									pcap = selectApplication();
+									data = readContainer(container);
+									needed = lastStatus != without ? Boolean.TRUE : null;
+								}
+								if (probeSelect) {
+									if (needed == null) {
+										log("SELECT probe inconclusive, " + container
+												+ " answered the same with it");
+									} else {
+										log(needed.booleanValue() ? "SELECT needed by this card model"
+												: "SELECT not needed by this card model");
+										strategy.setSelectRequired(needed.booleanValue());
 									}
+								} else if (Boolean.TRUE.equals(needed)) {
+									/*
+									 * Not every card of the model behaves
+									 * the same; learn it again.
+									 */
+									log("SELECT needed by this card, no longer skipped for its model");
+									strategy.resetSelectRequired();
+								}
+							}
+							if (plan != null && planning.contains(container)) {
+								plan.record(container, data, lastStatus);
+								if (!profile.getContainers().contains(container)) {
+									planningReads++;
 								}
 							}
+							if (data == null
+									&& lastStatus == PIVAPDUInterface.PIV_SW_OBJECT_OR_APPLICATION_NOT_FOUND) {
+								missing.add(container);
+							}
+							if (data != null) {
+								found.add(container);
+								container.set(carddata, data);
+								pipeline.submit(container, data);
+								for (ReaderListener listener : listeners) {
+									listener.onObjectReceived(container, data);
+								}
+								if (!firstData) {
+									firstData = true;
+									log("First Data: " + container + " after "
+											+ (System.currentTimeMillis() - timeStart) + " ms");
+								}
+							}
+							completed.add(container);
+							if (fastPath && container == PIVContainer.CHUID) {
+								decide();
+							}
+							progress();
+						}
+						if (container == PIVContainer.CARD_AUTH_CERTIFICATE) {
+							proveCardAuth(container.get(carddata));
+						}
+					}
+					long ioTime = System.currentTimeMillis() - timeStart;
+					pipeline.await();
+					long latency = System.currentTimeMillis() - timeStart;
+					if (!resume) {
+						profile.recordLatency(latency);
+					}
+					avoidedRoundTrips = skipped - planningReads;
+					if (plan != null) {
+						if (!resume) {
+							profile.recordAvoided(avoidedRoundTrips);
+						}
+						if (debug) {
+							log(plan.toString());
+						}
+						log(String.format("Read Plan: %d containers skipped, %d round trips avoided",
+								skipped, avoidedRoundTrips));
+					}
+					if (strategies != null) {
+						if (strategy == null) {
+							strategy = strategies.get(historicalBytes, pcap);
+						}
+						for (PIVContainer container : found) {
+							strategy.recordContainer(container, true);
+						}
+						for (PIVContainer container : missing) {
+							strategy.recordContainer(container, false);
+						}
+						if (!resume) {
+							/*
+							 * Short APDUs because of the reader or the
+							 * historical bytes say nothing of the model.
+							 */
+							int learnedLe = extendedRejected ? 0
+									: extendedLe > 0 ? extendedLe : CardStrategy.UNKNOWN;
+							strategy.recordRead(learnedLe, assembler.getLargestResponse(),
+									latency);
+						}
+						if (debug) {
+							log(strategy.toString());
 						}
 					}
+					log(String.format("Read Profile: %s, %d APDUs (%d expected), %d ms",
+							profile, apduCount,
+							profile.getExpectedApduCount(select, extendedLe),
+							latency));
+					log(String.format("Decode Pipeline: I/O %d ms, decode %d ms, waited %d ms",
+							ioTime, pipeline.getDecodeTime(), pipeline.getWaitTime()));
 
-					
 					/*
 					 * Debug Output to pretty print CHUID, verify signature and
 					 * pretty print the signature signing cert, and pretty print
 					 * the Card Auth Cert
 					 */
 					if (debug) {
-						log("############# BEGIN CHUID #############");
-						byte[] chuidData = chuid.getData();
-						if (chuidData == null) {
-							chuidData = chuid.getEncoded();
-						}
-						PIVCardHolderUniqueID chuid2 = new PIVCardHolderUniqueID(chuidData);
-						log(chuid2.toString());
-						log("Verifying CHUID Signature:");
-						CMSSignedDataObject chuidSig = null;
-						try {
-							chuidSig = new CMSSignedDataObject(
-									chuid2.getSignatureBytes(),
-									chuid2.getSignatureDataBytes());
-							chuidSig.setProviderName("OpenSSLFIPSProvider");
-						} catch (SignatureException e) {
-							log("Problem with Signature: " + e.getMessage());
-						}
-						if (chuidSig != null) {
-							log("######### BEGIN CONTENT SIGNER ########");
-							log(chuidSig.getSigner().toString());
-							log("######### END CONTENT SIGNER ##########");
+						PIVCardHolderUniqueID chuid = pipeline.getCHUID();
+						if (chuid != null) {
+							log("############# BEGIN CHUID #############");
+							log(chuid.toString());
+							log("Verifying CHUID Signature:");
+							CMSSignedDataObject chuidSig = null;
 							try {
-								if (chuidSig.verifySignature(false)) {
-									log("Signature Verified!");
-								} else {
-									log("Signature Verification Failed!");
-								}
+								chuidSig = new CMSSignedDataObject(
+										chuid.getSignatureBytes(),
+										chuid.getSignatureDataBytes());
 							} catch (SignatureException e) {
 								log("Problem with Signature: " + e.getMessage());
 							}
+							if (chuidSig != null) {
+								log("######### BEGIN CONTENT SIGNER ########");
+								log(chuidSig.getSigner().toString());
+								log("######### END CONTENT SIGNER ##########");
+							}
+							if (Boolean.TRUE.equals(pipeline.isCHUIDSignatureValid())) {
+								log("Signature Verified!");
+							} else {
+								log("Signature Verification Failed!");
+							}
+							log("############## END CHUID ##############");
 						}
-						log("############## END CHUID ##############");
+						X509Certificate cardAuth = pipeline
+								.getCertificate(PIVContainer.CARD_AUTH_CERTIFICATE);
 						if (cardAuth != null) {
 							log("############# BEGIN CARDAUTH #############");
 							log(cardAuth.toString());
 							log("############## END CARDAUTH ##############");
 
-							if (carddata.getCAKPoPNonce() != null && carddata.getCAKPoPSig() != null) {
+							Boolean popValid = pipeline.isPopValid();
+							if (popValid != null) {
 								log("####### BEGIN PROOF OF POSSESSION ########");
-								CAKChallenge popVerify = new CAKChallenge(cardAuth, carddata.getCAKPoPNonce(), carddata.getCAKPoPSig());
-								try {
-									if (popVerify.validatePOP()) {
-										log("Proof of Possession Verified!");
-									} else {
-										log("Proof of Possession Failed!");
-									}
-								} catch (SignatureException e) {
-									log("Problem with Proof of Possession: " + e.getMessage());
+								if (popValid.booleanValue()) {
+									log("Proof of Possession Verified!");
+								} else {
+									log("Proof of Possession Failed!");
 								}
 								log("######## END PROOF OF POSSESSION #########");
 							}
@@ -331,50 +740,91 @@ public class CardReader80073 {
 					 * consumption
 					 */
 					setCardData(carddata);
+					setPin(null);
 					dataavailable = true;
+					for (ReaderListener listener : listeners) {
+						listener.onCompleted(carddata);
+					}
 				} catch (IOException e) {
 					Log.e(TAG, "Error: " + e.getMessage());
 					if (debug) {
 						Log.d(TAG, String.format("Stopping reader thread '%s'",
 								readerThread.getName()));
 					}
+					failed(e);
 					stop();
 					return;
-				} catch (NullPointerException e) {
+				} catch (CardLostException e) {
+					log(TraceLevel.ERROR, "Card lost: " + e.getLocalizedMessage());
 					Log.e(TAG, "Error: " + e.getMessage());
+					if (isRecognizable(cardIdentifier)) {
+						awaitingResume = true;
+						lostAt = System.currentTimeMillis();
+						log("Waiting for the card to return, completed: " + completed);
+					}
 					if (debug) {
 						Log.d(TAG, String.format("Stopping reader thread '%s'",
 								readerThread.getName()));
 					}
+					failed(e);
+					stop();
+					return;
+				} catch (ObjectTooLargeException e) {
+					log(TraceLevel.ERROR, "Read abandoned: " + e.getLocalizedMessage());
+					Log.e(TAG, "Error: " + e.getMessage());
+					if (debug) {
+						Log.d(TAG, String.format("Stopping reader thread '%s'",
+								readerThread.getName()));
+					}
+					failed(e);
 					stop();
 					return;
 				} catch (InvalidResponseException e) {
-					log("Invalid Response Received by reader: " + e.getLocalizedMessage());
+					log(TraceLevel.ERROR, "Invalid Response Received by reader: " + e.getLocalizedMessage());
 					Log.e(TAG, "Error: " + e.getMessage());
 					if (debug) {
 						Log.d(TAG, String.format("Stopping reader thread '%s'",
 								readerThread.getName()));
 					}
+					failed(e);
 					stop();
 					return;
 				} catch (CertificateException e) {
-					log("Problem with Card Auth Certificate: " + e.getLocalizedMessage());
+					log(TraceLevel.ERROR, "Problem with Card Auth Certificate: " + e.getLocalizedMessage());
 					Log.e(TAG, "Error: " + e.getMessage());
 					if (debug) {
 						Log.d(TAG, String.format("Stopping reader thread '%s'",
 								readerThread.getName()));
 					}
+					failed(e);
 					stop();
 					return;
 				} catch (ASN1Exception e) {
-					log("Problem with CAK POP Test: " + e.getLocalizedMessage());
+					log(TraceLevel.ERROR, "Problem with CAK POP Test: " + e.getLocalizedMessage());
 					Log.e(TAG, "Error: " + e.getMessage());
 					if (debug) {
 						Log.d(TAG, String.format("Stopping reader thread '%s'",
 								readerThread.getName()));
 					}
+					failed(e);
+					stop();
+					return;
+				} catch (InterruptedException e) {
+					log("Read interrupted");
+					pipeline.cancel();
+					failed(e);
+					stop();
+					return;
+				} catch (CancellationException e) {
+					log("Read cancelled");
+					pipeline.cancel();
+					failed(e);
 					stop();
 					return;
+				} finally {
+					APDUBufferPool.release(responseBuffer);
+					responseBuffer = null;
+					assembler = null;
 				}
 				if (debug) {
 					Log.d(TAG, String.format("Stopping reader thread '%s'",
@@ -384,16 +834,286 @@ public class CardReader80073 {
 				return;
 			}
 		};
-		readerThread = new Thread(r); // $codepro.audit.disable
-										// disallowUnnamedThreadUsage
-		readerThread.setName("800-73 reader thread#" + readerThread.getId());
-		readerThread.start();
-		isRunning = true;
+	}
+
+	/**
+	 * Method selectApplication.
+	 * 
+	 * @return byte[] the application property template, or null
+	 * @throws InvalidResponseException
+	 */
+	private byte[] selectApplication() throws InvalidResponseException {
 		if (debug) {
-			Log.d(TAG,
-					String.format("Started reader thread '%s'",
-							readerThread.getName()));
+			log("Selecting PIV Card Application");
+		}
+		byte[] select = APDUCatalog.selectCommand();
+		int status_word = transmit(select, select.length);
+		byte[] pcap = assembler.getData();
+		if (trace.isEnabled(TraceLevel.APDU)) {
+			log(String.format("Response from select: %s%04X",
+					pcap == null ? "" : DataUtil.byteArrayToString(pcap),
+					status_word));
+		}
+		return pcap;
+	}
+
+	/**
+	 * Method readContainer.
+	 * 
+	 * Reads a container, parsing the identity of the CHUID early if the
+	 * policy says to.
+	 * 
+	 * @param container
+	 *            PIVContainer
+	 * @return PIVDataTempl or null
+	 * @throws IOException
+	 * @throws InvalidResponseException
+	 */
+	private PIVDataTempl readContainer(PIVContainer container) throws IOException,
+			InvalidResponseException {
+		if (container != PIVContainer.CHUID
+				|| identityPolicy == EarlyIdentity.Policy.OFF) {
+			return getPIVData(container);
+		}
+		assembler.setChunkListener(identityWatcher);
+		try {
+			return getPIVData(container);
+		} finally {
+			assembler.setChunkListener(null);
+		}
+	}
+
+	/**
+	 * Method decide.
+	 * 
+	 * Waits for the CHUID to be verified, and makes the AccessDecision.
+	 * 
+	 * @throws InterruptedException
+	 */
+	private void decide() throws InterruptedException {
+		pipeline.await();
+		long latency = System.currentTimeMillis() - timeStart;
+		if (pipeline.getCHUID() == null && identity != null) {
+			decision = new AccessDecision(identity, latency, profile.getLatencyTarget());
+		} else {
+			decision = new AccessDecision(pipeline.getCHUID(),
+					pipeline.isCHUIDSignatureValid(), latency,
+					profile.getLatencyTarget());
+		}
+		log(decision.toString());
+		if (!decision.isTargetMet()) {
+			Log.w(TAG, String.format("Access decision took %d ms, target %d ms",
+					decision.getLatency(), decision.getTarget()));
+		}
+	}
+
+	/**
+	 * Method proveCardAuth.
+	 * 
+	 * If the profile asks for it, runs the CAK proof of possession once
+	 * per card, and hands the signature to the pipeline to verify.
+	 * 
+	 * @param cardAuthData
+	 *            PIVDataTempl the CAK certificate container, or null
+	 * @throws IOException
+	 * @throws CertificateException
+	 * @throws InvalidResponseException
+	 * @throws ASN1Exception
+	 */
+	private void proveCardAuth(PIVDataTempl cardAuthData) throws IOException,
+			CertificateException, InvalidResponseException, ASN1Exception {
+		if (cardAuthData == null || !pop || !profile.isPop() || popComplete) {
+			return;
 		}
+		/*
+		 * The challenge is built from the certificate, so it is decoded
+		 * here rather than waiting on the pipeline.
+		 * 
+		 * Check to make sure it is not some silly
+		 * empty encoding (suspect this may be the
+		 * case for State and HHS creds)
+		 */
+		X509Certificate cardAuth = null;
+		try {
+			if (cache != null) {
+				cardAuth = cache.getCertificate(cardAuthData.getData());
+			} else {
+				cardAuth = new PIVCertificate(cardAuthData.getData()).getCertificate();
+			}
+		} catch (NullPointerException e) { 
+			if (debug) {
+				log("Error: Empty Certificate Object Received!");
+				Log.e(TAG, "Error: Empty Certificate Object Received!");
+			}
+		}
+		if (cardAuth == null) {
+			return;
+		}
+		/*
+		 * CAK POP Test
+		 */
+		CAKChallenge popTest = new CAKChallenge(cardAuth);
+		if (debug) {
+			log("Performing CAK Proof of Possession Test");
+		}
+		/*
+		 * Transmit enumeration of APDUs and obtain the
+		 * signed response.
+		 */
+		DynamicAuthTempl gaResp = generalAuthenticate(popTest);
+		byte[] signature = gaResp.getTemplateValue();
+		if (signature != null) {
+			carddata.setCAKPoPNonce(popTest.getCAKPoPNonce());
+			carddata.setCAKPoPSig(signature);
+			pipeline.submitPop(cardAuth, popTest.getCAKPoPNonce(), signature);
+			if (debug) {
+				Log.d(TAG, "Signature: " + DataUtil.byteArrayToString(signature));
+			}
+		}
+		popComplete = true;
+	}
+
+	/**
+	 * Method verifyPin.
+	 * 
+	 * Verifies the PIV Card Application PIN once per session.  The PIN is
+	 * forgotten after a failed attempt, so a wrong PIN is never retried
+	 * towards blocking the card.
+	 * 
+	 * @return boolean true if the PIN has been verified
+	 * @throws InvalidResponseException
+	 */
+	private boolean verifyPin() throws InvalidResponseException {
+		if (pinVerified || pin == null) {
+			return pinVerified;
+		}
+		byte[] header = PIVAPDUInterface.PIV_VERIFY_HEADER;
+		byte[] verify = new byte[header.length + 2 + PIN_LENGTH];
+		System.arraycopy(header, 0, verify, 0, header.length);
+		verify[header.length] = PIV_APPLICATION_PIN;
+		verify[header.length + 1] = PIN_LENGTH;
+		Arrays.fill(verify, header.length + 2, verify.length, (byte) 0xff);
+		System.arraycopy(pin, 0, verify, header.length + 2, pin.length);
+		/*
+		 * Keep the PIN out of the APDU trace
+		 */
+		assembler.setListener(null);
+		int status_word;
+		try {
+			status_word = transmit(verify, verify.length);
+		} finally {
+			Arrays.fill(verify, (byte) 0);
+			if (trace.isEnabled(TraceLevel.APDU)) {
+				assembler.setListener(apduTrace);
+			}
+		}
+		if (status_word == 0x9000) {
+			pinVerified = true;
+		} else {
+			if ((status_word & 0xfff0) == 0x63c0) {
+				log("PIN Verification Failed, " + (status_word & 0x0f) + " tries left");
+			} else {
+				log(String.format("PIN Verification Failed: %04X", status_word));
+			}
+			setPin(null);
+		}
+		return pinVerified;
+	}
+
+	/**
+	 * Method progress.
+	 * 
+	 * Tells the listeners how many of the profile's containers are done.
+	 */
+	private void progress() {
+		if (listeners.isEmpty()) {
+			return;
+		}
+		int done = 0;
+		for (PIVContainer container : profile.getContainers()) {
+			if (completed.contains(container)) {
+				done++;
+			}
+		}
+		for (ReaderListener listener : listeners) {
+			listener.onProgress(done, profile.getContainers().size());
+		}
+	}
+
+	/**
+	 * Method failed.
+	 * 
+	 * @param e
+	 *            Throwable why the session ended without data
+	 */
+	private void failed(Throwable e) {
+		String reason = e.getClass().getSimpleName() + ": " + e.getLocalizedMessage();
+		for (ReaderListener listener : listeners) {
+			listener.onFailed(reason, awaitingResume);
+		}
+	}
+
+	/**
+	 * Method addListener.
+	 * 
+	 * Log entries go to the listeners as they are made, as well as to the
+	 * trace read by getLog().
+	 * 
+	 * @param listener
+	 *            ReaderListener
+	 */
+	public void addListener(ReaderListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Method removeListener.
+	 * 
+	 * @param listener
+	 *            ReaderListener
+	 */
+	public void removeListener(ReaderListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Method canResume.
+	 * 
+	 * @param tag
+	 *            CardTransport
+	 * @return boolean true if tag is the card we lost, and it came back
+	 *         within RESUME_WINDOW
+	 */
+	public boolean canResume(CardTransport tag) {
+		return isAwaitingResume() && Arrays.equals(cardIdentifier, tag.getCardIdentifier());
+	}
+
+	/**
+	 * Method isAwaitingResume.
+	 * 
+	 * @return boolean true if a read was cut short by the card leaving the
+	 *         field less than RESUME_WINDOW ago
+	 */
+	public boolean isAwaitingResume() {
+		return awaitingResume && System.currentTimeMillis() - lostAt <= RESUME_WINDOW;
+	}
+
+	/**
+	 * Method isRecognizable.
+	 * 
+	 * A card that presents a random UID (single size UID starting with
+	 * 08, per ISO/IEC 14443-3) can not be told apart from any other when
+	 * it returns.
+	 * 
+	 * @param uid
+	 *            byte[]
+	 * @return boolean
+	 */
+	private static boolean isRecognizable(byte[] uid) {
+		if (uid == null || uid.length == 0) {
+			return false;
+		}
+		return !(uid.length == 4 && uid[0] == 0x08);
 	}
 
 	private void setCardData(CardData80073 carddata) {
@@ -401,92 +1121,295 @@ public class CardReader80073 {
 	}
 
 	/**
-	 * Method transmit.
+	 * Method setCache.
 	 * 
-	 * @param command
-	 *            CommandAPDU
-	 * @return ResponseAPDU
-	 * @throws IOException
-	 * @throws InvalidResponseException 
+	 * @param cache
+	 *            SharedCardCache for certificates, shared with other
+	 *            readers; or null to decode every certificate read
+	 */
+	public void setCache(SharedCardCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Method getDecodeExecutor.
+	 * 
+	 * @return ExecutorService the pipeline's worker, a single thread that
+	 *         goes away when idle
+	 */
+	private synchronized ExecutorService getDecodeExecutor() {
+		if (decodeExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+					DECODE_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r);
+							t.setName("800-73 decode thread#" + t.getId());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			decodeExecutor = executor;
+		}
+		return decodeExecutor;
+	}
+
+	/**
+	 * Method getIoExecutor.
+	 * 
+	 * @return ExecutorService the I/O thread, a single thread that goes
+	 *         away when idle
+	 */
+	private synchronized ExecutorService getIoExecutor() {
+		if (ioExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+					DECODE_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r);
+							t.setName("800-73 I/O thread#" + t.getId());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			ioExecutor = executor;
+		}
+		return ioExecutor;
+	}
+
+	/**
+	 * Method getDecodePipeline.
+	 * 
+	 * @return DecodePipeline the decoded and verified containers of the
+	 *         last read, or null before the first
+	 */
+	public DecodePipeline getDecodePipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Method setReadProfile.
+	 * 
+	 * @param profile
+	 *            ReadProfile the containers the next read fetches
+	 */
+	public void setReadProfile(ReadProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Method getReadProfile.
+	 * 
+	 * @return ReadProfile
+	 */
+	public ReadProfile getReadProfile() {
+		return profile;
+	}
+
+	/**
+	 * Method setPin.
+	 * 
+	 * @param pin
+	 *            byte[] the PIV Card Application PIN, 6 to 8 ASCII digits,
+	 *            for profiles that read PIN protected containers; or null.
+	 *            The array is cleared when the PIN is no longer needed.
+	 */
+	public synchronized void setPin(byte[] pin) {
+		if (this.pin != null && this.pin != pin) {
+			Arrays.fill(this.pin, (byte) 0);
+		}
+		if (pin != null && pin.length > PIN_LENGTH) {
+			throw new IllegalArgumentException("PIN longer than " + PIN_LENGTH + " digits");
+		}
+		this.pin = pin;
+	}
+
+	/**
+	 * Method setEarlyIdentityPolicy.
+	 * 
+	 * @param identityPolicy
+	 *            EarlyIdentity.Policy whether the identity of the CHUID is
+	 *            parsed from the first chunk of its response, and whether
+	 *            the rest is read then
+	 */
+	public void setEarlyIdentityPolicy(EarlyIdentity.Policy identityPolicy) {
+		this.identityPolicy = identityPolicy;
+	}
+
+	/**
+	 * Method getEarlyIdentity.
+	 * 
+	 * @return EarlyIdentity of the last read, or null if it was not parsed
 	 */
-	private ResponseAPDU transmit(CommandAPDU command) throws IOException, InvalidResponseException {
-		ResponseAPDU response;
-		log(String.format("[%s] --> %s", "Reader",
-				DataUtil.byteArrayToString(command.getBytes())));
-		//Temp debug logging
-		//Log.i(TAG, String.format("[%s] --> %s", "Reader",
-		//		DataUtil.byteArrayToString(command.getBytes())));
-		response = channel.transmit(command);
-		log(String.format("[%s] <-- %s", "Reader",
-				DataUtil.byteArrayToString(response.getBytes())));
-		//Temp debug logging
-		//Log.i(TAG, String.format("[%s] <-- %s", "Reader",
-		//		DataUtil.byteArrayToString(response.getBytes())));
-		return response;
+	public EarlyIdentity getEarlyIdentity() {
+		return identity;
+	}
+
+	/**
+	 * Method setStrategyCache.
+	 * 
+	 * @param strategies
+	 *            StrategyCache to learn card models in and read by, or null
+	 */
+	public void setStrategyCache(StrategyCache strategies) {
+		this.strategies = strategies;
+	}
+
+	/**
+	 * Method getCardStrategy.
+	 * 
+	 * @return CardStrategy of the card model last read, or null
+	 */
+	public CardStrategy getCardStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Method getAvoidedRoundTrips.
+	 * 
+	 * @return int the GET DATA round trips the last read saved by skipping
+	 *         the containers the card declared absent, less the reads it
+	 *         took to learn that; 0 if it did not plan
+	 */
+	public int getAvoidedRoundTrips() {
+		return avoidedRoundTrips;
+	}
+
+	/**
+	 * Method getAccessDecision.
+	 * 
+	 * @return AccessDecision of the last read with a fast path profile, or
+	 *         null
+	 */
+	public AccessDecision getAccessDecision() {
+		return decision;
+	}
+
+	/**
+	 * Method getApduCount.
+	 * 
+	 * @return int the APDUs the last read took, including GET RESPONSE
+	 */
+	public int getApduCount() {
+		return apduCount;
+	}
+
+	/**
+	 * Method setTraceApdus.
+	 * 
+	 * @param traceApdus
+	 *            boolean write every command and response to the log
+	 */
+	public void setTraceApdus(boolean traceApdus) {
+		if (traceApdus) {
+			trace.setLevel(TraceLevel.APDU);
+		} else {
+			trace.setLevel(debug ? TraceLevel.DEBUG : TraceLevel.INFO);
+		}
+	}
+
+	/**
+	 * Method setTraceLevel.
+	 * 
+	 * Takes effect for APDUs at the start of the next session.
+	 * 
+	 * @param level
+	 *            TraceLevel
+	 */
+	public void setTraceLevel(TraceLevel level) {
+		trace.setLevel(level);
+	}
+
+	/**
+	 * Method getTrace.
+	 * 
+	 * @return TraceBuffer the records of the recent sessions
+	 */
+	public TraceBuffer getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Method getResponseData.
+	 * 
+	 * @param status_word
+	 *            int the status word returned by the assembler
+	 * @return byte[] the response data the assembler collected, or null
+	 *         if there was none
+	 */
+	private byte[] getResponseData(int status_word) {
+		if (status_word == PIVAPDUInterface.PIV_SW_SUCCESSFUL_EXECUTION) {
+			byte[] data = assembler.getData();
+			if (data == null || data.length <= 2) {
+				log("Response APDU is empty.");
+				return null;
+			}
+			return data;
+		} else if (status_word == PIVAPDUInterface.PIV_SW_OBJECT_OR_APPLICATION_NOT_FOUND) {
+			log("Tag Not Found.");
+		} else if (status_word == PIVAPDUInterface.PIV_SW_SECURITY_CONDITION_NOT_SATISFIED) {
+			log("Security Condition Not Satisfied");
+		} else {
+			log("Error");
+		}
+		return null;
 	}
 
 	/**
 	 * Method generalAuthenticate
+	 * 
+	 * Sends the challenge in as few commands as the channel takes: one
+	 * extended length command while extended length is in use, otherwise
+	 * short commands chained in segments sized to the transceive limit.
+	 * 
+	 * @param popTest
+	 *            CAKChallenge
+	 * @return DynamicAuthTempl or null
 	 * @throws InvalidResponseException 
 	 * @throws IOException 
 	 */
-	private DynamicAuthTempl generalAuthenticate(Enumeration<CommandAPDU> capdus) throws InvalidResponseException, IOException {
-
-		DynamicAuthTempl gaResp = null;
-		CommandAPDU gaapdu = null;
-		ResponseAPDU response = null;
+	private DynamicAuthTempl generalAuthenticate(CAKChallenge popTest) throws InvalidResponseException, IOException {
+		popApdus = 0;
+		int maxTransceive = channel.getMaxTransceiveLength();
+		int status_word = generalAuthenticate(popTest.getGenAuthAPDUs(maxTransceive, extendedLe));
+		if (extendedLe > 0 && isLengthRejected(status_word)) {
+			log("Extended Length APDU rejected, APDU Mode: Short");
+			extendedLe = 0;
+			extendedRejected = true;
+			status_word = generalAuthenticate(popTest.getGenAuthAPDUs(maxTransceive, 0));
+		}
+		log("CAK POP: " + popApdus + " APDUs");
+		byte[] data = getResponseData(status_word);
+		if (data == null) {
+			return null;
+		}
+		return new DynamicAuthTempl(data);
+	}
 
-		try {
-			while (capdus.hasMoreElements()) {
-				gaapdu = capdus.nextElement();
-				response = transmit(gaapdu);
-			}
-			if (response == null) {
-				throw new IOException("Response was null");
-			}
-			int status_word = response.getSW();
-			int SW1 = response.getSW1();
-			int SW2 = response.getSW2();
-
-			if (SW1 == 0x61) {
-				ByteArrayOutputStream rbaos = new ByteArrayOutputStream();
-				rbaos.write(response.getData());
-				while (SW1 == 0x61) {
-					// Craft a GET-DATA APDU to collect the bytes remaining
-					if (SW2 == 0x00) {
-						response = transmit(new CommandAPDU(
-								DataUtil.stringToByteArray("00C0000000")));
-					} else {
-						CommandAPDU remain = new CommandAPDU(0x00, 0xc0, 0x00,
-								0x00, SW2);
-						response = transmit(remain);
-					}
-					rbaos.write(response.getData());
-					SW1 = response.getSW1();
-					SW2 = response.getSW2();
-				}
-				gaResp = new DynamicAuthTempl(rbaos.toByteArray());
-			} else if (status_word == PIVAPDUInterface.PIV_SW_SUCCESSFUL_EXECUTION) {
-				if (response.getData().length <= 2) {
-					log("Response APDU is empty.");
-					gaResp = null;
-				} else {
-					gaResp = new DynamicAuthTempl(response.getData());
-				}
-			} else if (status_word == PIVAPDUInterface.PIV_SW_OBJECT_OR_APPLICATION_NOT_FOUND) {
-				log("Tag Not Found.");
-				gaResp = null;
-			} else if (status_word == PIVAPDUInterface.PIV_SW_SECURITY_CONDITION_NOT_SATISFIED) {
-				log("Security Condition Not Satisfied");
-				gaResp = null;
-			} else {
-				log("Error");
-				gaResp = null;
-			}
-		} catch (java.io.IOException ex) {
-			throw new IOException(ex);
+	/**
+	 * Method generalAuthenticate
+	 * 
+	 * @param capdus
+	 *            Enumeration<CommandAPDU>
+	 * @return int the status word of the last command
+	 * @throws InvalidResponseException 
+	 * @throws IOException 
+	 */
+	private int generalAuthenticate(Enumeration<CommandAPDU> capdus) throws InvalidResponseException, IOException {
+		int status_word = -1;
+		while (capdus.hasMoreElements()) {
+			byte[] gaapdu = capdus.nextElement().getBytes();
+			status_word = transmit(gaapdu, gaapdu.length);
+			popApdus += assembler.getExchanges();
+		}
+		if (status_word < 0) {
+			throw new IOException("Response was null");
 		}
-		return gaResp;
+		return status_word;
 	}
 	
 	/**
@@ -510,61 +1433,160 @@ public class CardReader80073 {
 	}
 
 	/**
-	 * Method getPIVData.
+	 * Method getDataAPDU.
+	 * 
+	 * Builds a GET DATA command with the given Ne, which will be encoded
+	 * as an extended length APDU when Ne is greater than 256.
 	 * 
 	 * @param pivObjectTag
 	 *            Tag
-	 * @return PIVDataTempl
-	 * @throws IOException
+	 * @param ne
+	 *            int
+	 * @return CommandAPDU
+	 */
+	public static CommandAPDU getDataAPDU(Tag pivObjectTag, int ne) {
+		byte[] tag_bytes = pivObjectTag.getBytes();
+		byte[] header = PIVAPDUInterface.PIV_GET_DATA_HEADER;
+		byte[] data = new byte[tag_bytes.length + 2];
+		data[0] = (byte) 0x5c;
+		data[1] = (byte) tag_bytes.length;
+		System.arraycopy(tag_bytes, 0, data, 2, tag_bytes.length);
+		return new CommandAPDU(header[0] & 0xff, header[1] & 0xff,
+				header[2] & 0xff, header[3] & 0xff, data, ne);
+	}
+
+	/**
+	 * Method isLengthRejected.
+	 * 
+	 * @param status_word
+	 *            int
+	 * @return boolean true if the card refused the Le we sent
+	 */
+	private static boolean isLengthRejected(int status_word) {
+		return status_word == 0x6700 || status_word == 0x6f00
+				|| (status_word & 0xff00) == 0x6c00;
+	}
+
+	/**
+	 * Method getData.
+	 * 
+	 * Sends a GET DATA from the APDUCatalog.  Only an Ne the catalog does
+	 * not hold is copied into the command buffer.
+	 * 
+	 * @param container
+	 *            PIVContainer
+	 * @param ne
+	 *            int
+	 * @return int the status word
 	 * @throws InvalidResponseException 
 	 */
-	private PIVDataTempl getPIVData(Tag pivObjectTag) throws IOException, InvalidResponseException {
-		PIVDataTempl data = null;
+	private int getData(PIVContainer container, int ne) throws InvalidResponseException {
 		try {
-			ResponseAPDU response = transmit(getDataAPDU(pivObjectTag));
-			int status_word = response.getSW();
-			int SW1 = response.getSW1();
-			int SW2 = response.getSW2();
-
-			if (SW1 == 0x61) {
-				ByteArrayOutputStream rbaos = new ByteArrayOutputStream();
-				rbaos.write(response.getData());
-				while (SW1 == 0x61) {
-					// Craft a GET-DATA APDU to collect the bytes remaining
-					if (SW2 == 0x00) {
-						response = transmit(new CommandAPDU(
-								DataUtil.stringToByteArray("00C0000000")));
-					} else {
-						CommandAPDU remain = new CommandAPDU(0x00, 0xc0, 0x00,
-								0x00, SW2);
-						response = transmit(remain);
-					}
-					rbaos.write(response.getData());
-					SW1 = response.getSW1();
-					SW2 = response.getSW2();
-				}
-				data = new PIVDataTempl(rbaos.toByteArray());
-			} else if (status_word == PIVAPDUInterface.PIV_SW_SUCCESSFUL_EXECUTION) {
-				if (response.getData().length <= 2) {
-					log("Response APDU is empty.");
-					data = null;
-				} else {
-					data = new PIVDataTempl(response.getData());
+			if (APDUCatalog.isCataloged(ne)) {
+				byte[] command = APDUCatalog.getDataCommand(container, ne);
+				return transmit(command, command.length, container.getMaxSize());
+			}
+			return transmit(commandBuffer,
+					APDUCatalog.copyGetDataCommand(container, ne, commandBuffer),
+					container.getMaxSize());
+		} catch (ObjectTooLargeException e) {
+			log(TraceLevel.ERROR, container + " too large: " + e.getLength()
+					+ " bytes, at most " + e.getLimit());
+			throw e;
+		}
+	}
+
+	/**
+	 * Method transmit.
+	 * 
+	 * @param command
+	 *            byte[]
+	 * @param length
+	 *            int
+	 * @return int the status word
+	 * @throws InvalidResponseException
+	 */
+	private int transmit(byte[] command, int length) throws InvalidResponseException {
+		return transmit(command, length, ResponseAssembler.MAX_RESPONSE);
+	}
+
+	/**
+	 * Method transmit.
+	 * 
+	 * Runs the command, and any GET RESPONSEs, as one operation on the
+	 * I/O thread and waits for it.  A stop() from outside the session
+	 * closes the card under the command in flight; the card lost that
+	 * results is reported as the cancellation it is, so that no resume
+	 * is offered.
+	 * 
+	 * @param command
+	 *            byte[]
+	 * @param length
+	 *            int
+	 * @param maxLength
+	 *            int the most response data to accept
+	 * @return int the status word
+	 * @throws ObjectTooLargeException
+	 *             if the response declares or returns more than maxLength
+	 * @throws InvalidResponseException
+	 */
+	private int transmit(final byte[] command, final int length, final int maxLength)
+			throws InvalidResponseException {
+		CancellationToken token = current;
+		if (token != null) {
+			token.throwIfCancelled();
+		}
+		try {
+			return AsyncCardTransport.get(io.submit(new CardOperation<Integer>() {
+				@Override
+				public Integer run(CardTransport transport) throws InvalidResponseException {
+					return Integer.valueOf(assembler.transmit(command, length, maxLength));
 				}
-			} else if (status_word == PIVAPDUInterface.PIV_SW_OBJECT_OR_APPLICATION_NOT_FOUND) {
-				log("Tag Not Found.");
-				data = null;
-			} else if (status_word == PIVAPDUInterface.PIV_SW_SECURITY_CONDITION_NOT_SATISFIED) {
-				log("Security Condition Not Satisfied");
-				data = null;
-			} else {
-				log("Error");
-				data = null;
+			})).intValue();
+		} catch (CardLostException e) {
+			if (token != null) {
+				token.throwIfCancelled();
 			}
-		} catch (java.io.IOException ex) {
-			throw new IOException(ex);
+			throw e;
+		} catch (RejectedExecutionException e) {
+			throw new CancellationException("Reader shut down");
+		} finally {
+			apduCount += assembler.getExchanges();
+		}
+	}
+
+	/**
+	 * Method getPIVData.
+	 * 
+	 * @param container
+	 *            PIVContainer
+	 * @return PIVDataTempl
+	 * @throws IOException
+	 * @throws InvalidResponseException 
+	 */
+	private PIVDataTempl getPIVData(PIVContainer container) throws IOException, InvalidResponseException {
+		int status_word;
+		if (extendedLe > 0) {
+			status_word = getData(container, extendedLe);
+			if (isLengthRejected(status_word)) {
+				log("Extended Length APDU rejected, APDU Mode: Short");
+				extendedLe = 0;
+				extendedRejected = true;
+				status_word = getData(container, 256);
+			}
+		} else {
+			status_word = getData(container, 256);
+		}
+		lastStatus = status_word;
+		if (assembler.isAbandoned()) {
+			log(container + " abandoned after " + assembler.getExchanges() + " APDUs");
+			return null;
+		}
+		byte[] data = getResponseData(status_word);
+		if (data == null) {
+			return null;
 		}
-		return data;
+		return new PIVDataTempl(data);
 	}
 
 	/**
@@ -574,9 +1596,36 @@ public class CardReader80073 {
 	 *            String
 	 */
 	public void log(String msg) {
-		long checkpoint = System.currentTimeMillis() - this.timeStart;
-		log.append("[" + checkpoint + "ms]" + msg + "\n");
-		logupdated = true;
+		log(TraceLevel.INFO, msg);
+	}
+
+	/**
+	 * Method log.
+	 * 
+	 * @param level
+	 *            TraceLevel
+	 * @param msg
+	 *            String
+	 */
+	public void log(TraceLevel level, String msg) {
+		publish(trace.message(level, System.currentTimeMillis() - timeStart, msg));
+	}
+
+	/**
+	 * Method publish.
+	 * 
+	 * Hands a record to the listeners, unformatted.
+	 * 
+	 * @param record
+	 *            TraceRecord or null if it was not recorded
+	 */
+	private void publish(TraceRecord record) {
+		if (record == null) {
+			return;
+		}
+		for (ReaderListener listener : listeners) {
+			listener.onLog(record);
+		}
 	}
 
 	/**
@@ -587,7 +1636,7 @@ public class CardReader80073 {
 	 * @throws InvalidResponseException 
 	 */
 	public PIVCardHolderUniqueID getCardHolderUniqueID() throws IOException, InvalidResponseException {
-		PIVDataTempl data = getPIVData(new Tag(Tag.PIV_CHUID));
+		PIVDataTempl data = getPIVData(PIVContainer.CHUID);
 		return new PIVCardHolderUniqueID(data.getData());
 	}
 
@@ -599,7 +1648,7 @@ public class CardReader80073 {
 	 * @throws InvalidResponseException 
 	 */
 	public PIVCertificate getCardAuthCert() throws IOException, InvalidResponseException {
-		PIVDataTempl data = getPIVData(new Tag(Tag.PIV_CERT_CARDAUTH));
+		PIVDataTempl data = getPIVData(PIVContainer.CARD_AUTH_CERTIFICATE);
 		PIVCertificate cert = null;
 		if (data != null) {
 			cert = new PIVCertificate(data.getData());
@@ -626,6 +1675,16 @@ public class CardReader80073 {
 		return carddata;
 	}
 
+	/**
+	 * Method getPopApduCount.
+	 * 
+	 * @return int the APDUs the last CAK proof of possession took,
+	 *         including GET RESPONSE
+	 */
+	public int getPopApduCount() {
+		return popApdus;
+	}
+
 	/**
 	 * Method isRunning.
 	 * 
@@ -641,46 +1700,114 @@ public class CardReader80073 {
 	 * @return boolean
 	 */
 	public boolean logUpdated() {
-		return logupdated;
+		return trace.hasUnread();
 	}
 
 	/**
 	 * Method getLog.
 	 * 
-	 * @return String
+	 * @return String the log entries made since the last call
 	 */
 	public String getLog() {
-		logupdated = false;
-		String retlog = log.toString();
-		log = new StringBuffer();
-		return retlog;
+		return trace.drain();
 	}
 
 	public synchronized void stop() {
 		if (debug) {
 			Log.d(TAG, "stopping reader thread");
 		}
-		if (readerThread != null) {
-			readerThread.interrupt();
+		if (readerThread != null && readerThread != Thread.currentThread()) {
+			/*
+			 * Asked from outside the session: cancel the session in flight
+			 * and any waiting for it.
+			 */
+			if (current != null) {
+				current.cancel();
+			}
+			if (queued != null) {
+				queued.cancel();
+			}
 			isRunning = false;
-
+			/*
+			 * Closing the card makes an exchange in flight fail at once;
+			 * the session sees the cancellation and clears the channel
+			 * itself as it ends.
+			 */
+			CardTransport inFlight = channel;
+			if (inFlight != null && inFlight.isConnected()) {
+				inFlight.close();
+			}
+		} else {
+			/*
+			 * The session is ending
+			 */
+			current = null;
+			isRunning = queued != null;
 			if (debug) {
-				Log.d(TAG, "reader thread running: " + isRunning);
+				Log.d(TAG, "Resetting reader state");
+			}
+			if (channel != null) {
+				if (channel.isConnected()) {
+					channel.close();
+				}
+				channel = null;
 			}
 		}
 		if (debug) {
-			Log.d(TAG, "Resetting reader state");
+			Log.d(TAG, "reader thread running: " + isRunning);
 		}
-		if (channel != null) {
-			// try {
-			if (channel.isConnected()) {
-				channel.close();
+	}
+
+	/**
+	 * Method shutdown.
+	 * 
+	 * Stops the session in flight and any waiting, and lets the reader,
+	 * I/O and decode threads end.  The reader can not be started again.
+	 */
+	public void shutdown() {
+		ExecutorService sessions;
+		ExecutorService decoders;
+		ExecutorService ios;
+		synchronized (this) {
+			isShutdown = true;
+			if (current != null) {
+				current.cancel();
 			}
-			channel = null;
-			// } catch (IOException e) {
-			// Log.w(TAG, "Error closing channel: " + e.getMessage(), e);
-			// }
+			if (queued != null) {
+				queued.cancel();
+			}
+			sessions = sessionExecutor;
+			decoders = decodeExecutor;
+			ios = ioExecutor;
+		}
+		if (sessions != null) {
+			sessions.shutdown();
+		}
+		if (decoders != null) {
+			decoders.shutdown();
+		}
+		if (ios != null) {
+			ios.shutdown();
+		}
+	}
+
+	/**
+	 * Method awaitTermination.
+	 * 
+	 * @param timeout
+	 *            long
+	 * @param unit
+	 *            TimeUnit
+	 * @return boolean true if the reader thread has ended
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		ExecutorService sessions;
+		synchronized (this) {
+			sessions = sessionExecutor;
 		}
+		return sessions == null || sessions.awaitTermination(timeout, unit);
 	}
 
 }
@@ -0,0 +1,472 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.keysupport.util.DataUtil;
+
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * What has been learned about reading one card model, identified by the
+ * historical bytes of its ATS and the application property template it
+ * returns to SELECT.
+ *
+ * <ul>
+ * <li>Whether the PIV application must be selected.  Cards that do not
+ * say in their historical bytes that it is selected implicitly are
+ * selected until the model has been read SELECT_PROBE_AFTER times, then
+ * read once without; the answer is kept.</li>
+ * <li>The Le of extended length GET DATA that worked, or 0 if the model
+ * rejected extended length.</li>
+ * <li>The largest response the model returned in one exchange.</li>
+ * <li>The containers it has, and those it answered 6A82 for.  A container
+ * missing ABSENT_CONFIRMATIONS times, and never found, is not requested
+ * for the next ABSENT_EXPIRY reads, then asked for again.  Most
+ * containers are optional to the issuer, so cards of one model differ;
+ * what was learned this way is not kept when the strategy is written
+ * out.</li>
+ * <li>The containers the model can not hold, from the seed table.  These
+ * are never requested.</li>
+ * <li>The mean latency of a read.</li>
+ * </ul>
+ *
+ * All methods are thread safe.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class CardStrategy {
+
+	/**
+	 * Field SELECT_PROBE_AFTER.
+	 */
+	public static final int SELECT_PROBE_AFTER = 2;
+	/**
+	 * Field ABSENT_CONFIRMATIONS.
+	 */
+	public static final int ABSENT_CONFIRMATIONS = 2;
+	/**
+	 * Field ABSENT_EXPIRY.
+	 * (value is in reads of the model)
+	 */
+	public static final int ABSENT_EXPIRY = 8;
+	/**
+	 * Field UNKNOWN.
+	 */
+	public static final int UNKNOWN = -1;
+	/*
+	 * Select states, as stored
+	 */
+	private static final byte SELECT_UNKNOWN = 0;
+	private static final byte SELECT_REQUIRED = 1;
+	private static final byte SELECT_NOT_REQUIRED = 2;
+	/**
+	 * Field historicalBytes.
+	 */
+	private final byte[] historicalBytes;
+	/**
+	 * Field pcap.
+	 */
+	private final byte[] pcap;
+	/**
+	 * Field select.
+	 */
+	private byte select = SELECT_UNKNOWN;
+	/**
+	 * Field extendedLe.
+	 */
+	private int extendedLe = UNKNOWN;
+	/**
+	 * Field chunkSize.
+	 */
+	private int chunkSize = 0;
+	/**
+	 * Field present.
+	 */
+	private final EnumSet<PIVContainer> present = EnumSet.noneOf(PIVContainer.class);
+	/**
+	 * Field absent.
+	 * Missing, then skipped, reads of each container, counted up to
+	 * ABSENT_CONFIRMATIONS + ABSENT_EXPIRY.
+	 */
+	private final Map<PIVContainer, Integer> absent = new EnumMap<PIVContainer, Integer>(
+			PIVContainer.class);
+	/**
+	 * Field unsupported.
+	 */
+	private final EnumSet<PIVContainer> unsupported = EnumSet.noneOf(PIVContainer.class);
+	/**
+	 * Field reads.
+	 */
+	private int reads = 0;
+	/**
+	 * Field totalLatency.
+	 */
+	private long totalLatency = 0;
+
+	/**
+	 * Constructor for CardStrategy.
+	 *
+	 * @param historicalBytes
+	 *            byte[]
+	 * @param pcap
+	 *            byte[] or null if the model was not selected
+	 */
+	public CardStrategy(byte[] historicalBytes, byte[] pcap) {
+		this.historicalBytes = historicalBytes == null ? new byte[0]
+				: historicalBytes.clone();
+		this.pcap = pcap == null ? new byte[0] : pcap.clone();
+	}
+
+	/**
+	 * Method getKey.
+	 *
+	 * @param historicalBytes
+	 *            byte[]
+	 * @param pcap
+	 *            byte[] or null
+	 * @return String the key of a model in a StrategyCache
+	 */
+	static String getKey(byte[] historicalBytes, byte[] pcap) {
+		return (historicalBytes == null ? "" : DataUtil.byteArrayToString(historicalBytes))
+				+ "/" + (pcap == null ? "" : DataUtil.byteArrayToString(pcap));
+	}
+
+	/**
+	 * @return the key of the model in a StrategyCache
+	 */
+	String getKey() {
+		return getKey(historicalBytes, pcap);
+	}
+
+	/**
+	 * Method matches.
+	 *
+	 * @param historicalBytes
+	 *            byte[]
+	 * @return boolean true if the model has these historical bytes
+	 */
+	boolean matches(byte[] historicalBytes) {
+		return Arrays.equals(this.historicalBytes,
+				historicalBytes == null ? new byte[0] : historicalBytes);
+	}
+
+	/**
+	 * @return the historical bytes
+	 */
+	public byte[] getHistoricalBytes() {
+		return historicalBytes.clone();
+	}
+
+	/**
+	 * @return the application property template, empty if the model was
+	 *         not selected
+	 */
+	public byte[] getPCAP() {
+		return pcap.clone();
+	}
+
+	/**
+	 * @return whether SELECT is needed, or null if it is not known
+	 */
+	public synchronized Boolean isSelectRequired() {
+		switch (select) {
+		case SELECT_REQUIRED:
+			return Boolean.TRUE;
+		case SELECT_NOT_REQUIRED:
+			return Boolean.FALSE;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @param required whether SELECT turned out to be needed
+	 */
+	public synchronized void setSelectRequired(boolean required) {
+		select = required ? SELECT_REQUIRED : SELECT_NOT_REQUIRED;
+	}
+
+	/**
+	 * Method resetSelectRequired.
+	 *
+	 * Forgets whether SELECT is needed, e.g., after a card of the model
+	 * failed a read without it, so that it is learned again.
+	 */
+	public synchronized void resetSelectRequired() {
+		select = SELECT_UNKNOWN;
+	}
+
+	/**
+	 * @return true if the next read should try without SELECT
+	 */
+	public synchronized boolean shouldProbeSelect() {
+		return select == SELECT_UNKNOWN && reads >= SELECT_PROBE_AFTER;
+	}
+
+	/**
+	 * @return the Le of extended length GET DATA that worked, 0 if the
+	 *         model rejects extended length, or UNKNOWN
+	 */
+	public synchronized int getExtendedLe() {
+		return extendedLe;
+	}
+
+	/**
+	 * @return the largest response returned in one exchange, in bytes
+	 */
+	public synchronized int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Method isKnownAbsent.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @return boolean true if the model can not hold the container, or
+	 *         has never had it and was found without it often enough,
+	 *         and recently enough, to skip it
+	 */
+	public synchronized boolean isKnownAbsent(PIVContainer container) {
+		if (unsupported.contains(container)) {
+			return true;
+		}
+		if (present.contains(container)) {
+			return false;
+		}
+		Integer count = absent.get(container);
+		return count != null && count.intValue() >= ABSENT_CONFIRMATIONS;
+	}
+
+	/**
+	 * Method recordContainer.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param found
+	 *            boolean false if the card answered 6A82
+	 */
+	public synchronized void recordContainer(PIVContainer container, boolean found) {
+		if (found) {
+			present.add(container);
+			absent.remove(container);
+		} else if (!present.contains(container)) {
+			Integer count = absent.get(container);
+			absent.put(container, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+		}
+	}
+
+	/**
+	 * Method recordRead.
+	 *
+	 * @param extendedLe
+	 *            int the Le of extended length GET DATA that worked, 0 if
+	 *            the card rejected extended length, or UNKNOWN if it was
+	 *            not tried, which keeps what was known
+	 * @param chunkSize
+	 *            int the largest response of the read
+	 * @param latency
+	 *            long (value is in milliseconds)
+	 */
+	public synchronized void recordRead(int extendedLe, int chunkSize, long latency) {
+		/*
+		 * Age the containers being skipped; once expired, they are asked
+		 * for again.
+		 */
+		Iterator<Map.Entry<PIVContainer, Integer>> aging = absent.entrySet().iterator();
+		while (aging.hasNext()) {
+			Map.Entry<PIVContainer, Integer> entry = aging.next();
+			int count = entry.getValue().intValue();
+			if (count >= ABSENT_CONFIRMATIONS + ABSENT_EXPIRY) {
+				aging.remove();
+			} else if (count >= ABSENT_CONFIRMATIONS) {
+				entry.setValue(Integer.valueOf(count + 1));
+			}
+		}
+		if (extendedLe != UNKNOWN) {
+			this.extendedLe = extendedLe;
+		}
+		this.chunkSize = Math.max(this.chunkSize, chunkSize);
+		reads++;
+		totalLatency += latency;
+	}
+
+	/**
+	 * @return the number of reads recorded
+	 */
+	public synchronized int getReads() {
+		return reads;
+	}
+
+	/**
+	 * @return the mean latency of a read (value is in milliseconds), or 0
+	 */
+	public synchronized long getAverageLatency() {
+		return reads == 0 ? 0 : totalLatency / reads;
+	}
+
+	/**
+	 * @return String
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder known = new StringBuilder();
+		for (PIVContainer container : PIVContainer.values()) {
+			if (isKnownAbsent(container)) {
+				known.append(known.length() == 0 ? "" : ",").append(container);
+			}
+		}
+		return String.format("Card Strategy: %d reads, %d ms mean, select %s, extended Le %s"
+				+ ", chunk %d, absent [%s]", reads, getAverageLatency(),
+				select == SELECT_UNKNOWN ? "unknown" : select == SELECT_REQUIRED ? "yes" : "no",
+				extendedLe == UNKNOWN ? "unknown" : String.valueOf(extendedLe),
+				chunkSize, known);
+	}
+
+	/**
+	 * Method writeTo.
+	 *
+	 * Containers learned absent are left out, see the class comment.
+	 *
+	 * @param out
+	 *            DataOutputStream
+	 * @throws IOException
+	 */
+	synchronized void writeTo(DataOutputStream out) throws IOException {
+		writeBytes(out, historicalBytes);
+		writeBytes(out, pcap);
+		out.writeByte(select);
+		out.writeInt(extendedLe);
+		out.writeInt(chunkSize);
+		out.writeInt(reads);
+		out.writeLong(totalLatency);
+		out.writeShort(present.size());
+		for (PIVContainer container : present) {
+			out.writeUTF(container.name());
+		}
+		out.writeShort(unsupported.size());
+		for (PIVContainer container : unsupported) {
+			out.writeUTF(container.name());
+		}
+	}
+
+	/**
+	 * Method readFrom.
+	 *
+	 * @param in
+	 *            DataInputStream
+	 * @return CardStrategy
+	 * @throws IOException
+	 */
+	static CardStrategy readFrom(DataInputStream in) throws IOException {
+		CardStrategy strategy = new CardStrategy(readBytes(in), readBytes(in));
+		strategy.select = in.readByte();
+		strategy.extendedLe = in.readInt();
+		strategy.chunkSize = in.readInt();
+		strategy.reads = in.readInt();
+		strategy.totalLatency = in.readLong();
+		for (int i = in.readUnsignedShort(); i > 0; i--) {
+			PIVContainer container = forName(in.readUTF());
+			if (container != null) {
+				strategy.present.add(container);
+			}
+		}
+		for (int i = in.readUnsignedShort(); i > 0; i--) {
+			PIVContainer container = forName(in.readUTF());
+			if (container != null) {
+				strategy.unsupported.add(container);
+			}
+		}
+		return strategy;
+	}
+
+	/**
+	 * Method seed.
+	 *
+	 * Sets what a seed table entry says of the model, as if it had been
+	 * learned.
+	 *
+	 * @param selectRequired
+	 *            Boolean or null if not known
+	 * @param extendedLe
+	 *            int or UNKNOWN
+	 * @param absentContainers
+	 *            PIVContainer... the model can not hold
+	 */
+	synchronized void seed(Boolean selectRequired, int extendedLe,
+			PIVContainer... absentContainers) {
+		if (selectRequired != null) {
+			setSelectRequired(selectRequired.booleanValue());
+		}
+		this.extendedLe = extendedLe;
+		for (PIVContainer container : absentContainers) {
+			unsupported.add(container);
+		}
+	}
+
+	/**
+	 * Method forName.
+	 *
+	 * @param name
+	 *            String
+	 * @return PIVContainer or null if there is no such container, e.g.,
+	 *         one stored by another version
+	 */
+	private static PIVContainer forName(String name) {
+		try {
+			return PIVContainer.valueOf(name);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Method writeBytes.
+	 *
+	 * @param out
+	 *            DataOutputStream
+	 * @param data
+	 *            byte[]
+	 * @throws IOException
+	 */
+	private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+		out.writeShort(data.length);
+		out.write(data);
+	}
+
+	/**
+	 * Method readBytes.
+	 *
+	 * @param in
+	 *            DataInputStream
+	 * @return byte[]
+	 * @throws IOException
+	 */
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] data = new byte[in.readUnsignedShort()];
+		in.readFully(data);
+		return data;
+	}
+
+}
@@ -0,0 +1,292 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.keysupport.nist80073.cardedge.PIVDataTempl;
+
+import com.idevity.card.data.CardData80073;
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * Hands reader events to another listener on another thread, typically
+ * the UI thread, with as few hand offs as possible.
+ *
+ * At most one task is posted to the executor at a time.  Events that
+ * arrive before it runs are delivered by it, in order, with consecutive
+ * log records gathered into one event and consecutive progress reduced
+ * to the latest.  Log records are passed on unformatted.  Nothing is posted while the reader is idle.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class CoalescingReaderListener implements ReaderListener {
+
+	/**
+	 * Field executor.
+	 */
+	private final Executor executor;
+	/**
+	 * Field delegate.
+	 */
+	private final ReaderListener delegate;
+	/**
+	 * Field events.
+	 */
+	private final List<Runnable> events = new ArrayList<Runnable>();
+	/**
+	 * Field pendingLog.
+	 */
+	private List<TraceRecord> pendingLog = null;
+	/**
+	 * Field lastProgress.
+	 */
+	private Progress lastProgress = null;
+	/**
+	 * Field posted.
+	 */
+	private boolean posted = false;
+	/**
+	 * Field posts.
+	 */
+	private int posts = 0;
+	/**
+	 * Field drain.
+	 */
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			List<Runnable> batch;
+			synchronized (CoalescingReaderListener.this) {
+				flushLog();
+				batch = new ArrayList<Runnable>(events);
+				events.clear();
+				lastProgress = null;
+				posted = false;
+			}
+			for (Runnable event : batch) {
+				event.run();
+			}
+		}
+	};
+
+	/**
+	 * Constructor for CoalescingReaderListener.
+	 *
+	 * @param executor
+	 *            Executor e.g., one that runs on the UI thread
+	 * @param delegate
+	 *            ReaderListener called by the executor
+	 */
+	public CoalescingReaderListener(Executor executor, ReaderListener delegate) {
+		this.executor = executor;
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return the number of tasks posted to the executor
+	 */
+	public synchronized int getPosts() {
+		return posts;
+	}
+
+	/**
+	 * Method onStarted.
+	 *
+	 * @param resume
+	 *            boolean
+	 */
+	@Override
+	public void onStarted(final boolean resume) {
+		add(new Runnable() {
+			@Override
+			public void run() {
+				delegate.onStarted(resume);
+			}
+		});
+	}
+
+	/**
+	 * Method onObjectReceived.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param data
+	 *            PIVDataTempl
+	 */
+	@Override
+	public void onObjectReceived(final PIVContainer container, final PIVDataTempl data) {
+		add(new Runnable() {
+			@Override
+			public void run() {
+				delegate.onObjectReceived(container, data);
+			}
+		});
+	}
+
+	/**
+	 * Method onIdentity.
+	 *
+	 * @param identity
+	 *            EarlyIdentity
+	 */
+	@Override
+	public void onIdentity(final EarlyIdentity identity) {
+		add(new Runnable() {
+			@Override
+			public void run() {
+				delegate.onIdentity(identity);
+			}
+		});
+	}
+
+	/**
+	 * Method onProgress.
+	 *
+	 * @param completed
+	 *            int
+	 * @param total
+	 *            int
+	 */
+	@Override
+	public synchronized void onProgress(int completed, int total) {
+		flushLog();
+		if (lastProgress != null && !events.isEmpty()
+				&& events.get(events.size() - 1) == lastProgress) {
+			lastProgress.completed = completed;
+			lastProgress.total = total;
+			return;
+		}
+		lastProgress = new Progress(completed, total);
+		events.add(lastProgress);
+		post();
+	}
+
+	/**
+	 * Method onLog.
+	 *
+	 * @param record
+	 *            TraceRecord
+	 */
+	@Override
+	public synchronized void onLog(TraceRecord record) {
+		if (pendingLog == null) {
+			pendingLog = new ArrayList<TraceRecord>();
+		}
+		pendingLog.add(record);
+		post();
+	}
+
+	/**
+	 * Method onCompleted.
+	 *
+	 * @param data
+	 *            CardData80073
+	 */
+	@Override
+	public void onCompleted(final CardData80073 data) {
+		add(new Runnable() {
+			@Override
+			public void run() {
+				delegate.onCompleted(data);
+			}
+		});
+	}
+
+	/**
+	 * Method onFailed.
+	 *
+	 * @param reason
+	 *            String
+	 * @param awaitingResume
+	 *            boolean
+	 */
+	@Override
+	public void onFailed(final String reason, final boolean awaitingResume) {
+		add(new Runnable() {
+			@Override
+			public void run() {
+				delegate.onFailed(reason, awaitingResume);
+			}
+		});
+	}
+
+	/**
+	 * Method add.
+	 *
+	 * @param event
+	 *            Runnable
+	 */
+	private synchronized void add(Runnable event) {
+		flushLog();
+		events.add(event);
+		post();
+	}
+
+	/**
+	 * Method flushLog.
+	 *
+	 * Queues the log records gathered so far as one event, ahead of the
+	 * event being added.
+	 */
+	private void flushLog() {
+		if (pendingLog == null) {
+			return;
+		}
+		final List<TraceRecord> records = pendingLog;
+		pendingLog = null;
+		events.add(new Runnable() {
+			@Override
+			public void run() {
+				for (TraceRecord record : records) {
+					delegate.onLog(record);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Method post.
+	 */
+	private void post() {
+		if (!posted) {
+			posted = true;
+			posts++;
+			executor.execute(drain);
+		}
+	}
+
+	/**
+	 * The latest progress, updated in place until it is delivered.
+	 */
+	private class Progress implements Runnable {
+
+		int completed;
+		int total;
+
+		Progress(int completed, int total) {
+			this.completed = completed;
+			this.total = total;
+		}
+
+		@Override
+		public void run() {
+			delegate.onProgress(completed, total);
+		}
+	}
+
+}
@@ -0,0 +1,371 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.io.IOException;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.keysupport.nist80073.cardedge.PIVDataTempl;
+import org.keysupport.nist80073.datamodel.CMSSignedDataObject;
+import org.keysupport.nist80073.datamodel.PIVCardHolderUniqueID;
+import org.keysupport.nist80073.datamodel.PIVCertificate;
+
+import android.util.Log;
+
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * Decodes and verifies the containers of one read on a worker thread,
+ * while the reader thread goes on to request the next container.
+ *
+ * <ul>
+ * <li>CHUID: parsed, and the signature verified.</li>
+ * <li>Certificates: decoded, and checked for validity at the current
+ * time.</li>
+ * <li>CAK proof of possession: the signature over the nonce verified.</li>
+ * </ul>
+ *
+ * Results are null until their task completes, and stay null if the data
+ * could not be decoded.  Call await() before reading them.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class DecodePipeline {
+
+	private static final String TAG = DecodePipeline.class.getSimpleName();
+	/**
+	 * Field executor.
+	 */
+	private final ExecutorService executor;
+	/**
+	 * Field cache.
+	 */
+	private final SharedCardCache cache;
+	/**
+	 * Field pending.
+	 */
+	private final List<Future<?>> pending = new ArrayList<Future<?>>();
+	/**
+	 * Field chuid.
+	 */
+	private PIVCardHolderUniqueID chuid = null;
+	/**
+	 * Field chuidSignatureValid.
+	 */
+	private Boolean chuidSignatureValid = null;
+	/**
+	 * Field certificates.
+	 */
+	private final Map<PIVContainer, X509Certificate> certificates = new EnumMap<PIVContainer, X509Certificate>(
+			PIVContainer.class);
+	/**
+	 * Field certificatesCurrent.
+	 */
+	private final Map<PIVContainer, Boolean> certificatesCurrent = new EnumMap<PIVContainer, Boolean>(
+			PIVContainer.class);
+	/**
+	 * Field popValid.
+	 */
+	private Boolean popValid = null;
+	/**
+	 * Field decodeTime.
+	 */
+	private long decodeTime = 0;
+	/**
+	 * Field waitTime.
+	 */
+	private long waitTime = 0;
+
+	/**
+	 * Constructor for DecodePipeline.
+	 *
+	 * @param executor
+	 *            ExecutorService the worker, not shut down by the pipeline
+	 * @param cache
+	 *            SharedCardCache or null
+	 */
+	public DecodePipeline(ExecutorService executor, SharedCardCache cache) {
+		this.executor = executor;
+		this.cache = cache;
+	}
+
+	/**
+	 * Method submit.
+	 *
+	 * Hands a container that has been read to the worker.  Containers
+	 * other than the CHUID and certificates are ignored.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param data
+	 *            PIVDataTempl
+	 */
+	public void submit(final PIVContainer container, final PIVDataTempl data) {
+		if (container == PIVContainer.CHUID) {
+			run(new Runnable() {
+				@Override
+				public void run() {
+					decodeCHUID(data);
+				}
+			});
+		} else if (container.isCertificate()) {
+			run(new Runnable() {
+				@Override
+				public void run() {
+					decodeCertificate(container, data);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Method submitPop.
+	 *
+	 * @param cardAuth
+	 *            X509Certificate
+	 * @param nonce
+	 *            byte[]
+	 * @param signature
+	 *            byte[]
+	 */
+	public void submitPop(final X509Certificate cardAuth, final byte[] nonce,
+			final byte[] signature) {
+		run(new Runnable() {
+			@Override
+			public void run() {
+				boolean valid;
+				try {
+					valid = new CAKChallenge(cardAuth, nonce, signature).validatePOP();
+				} catch (SignatureException e) {
+					Log.e(TAG, "Problem with Proof of Possession: " + e.getMessage());
+					valid = false;
+				}
+				synchronized (DecodePipeline.this) {
+					popValid = Boolean.valueOf(valid);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Method await.
+	 *
+	 * Waits for every task submitted so far.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		List<Future<?>> tasks;
+		synchronized (this) {
+			tasks = new ArrayList<Future<?>>(pending);
+			pending.clear();
+		}
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				Log.e(TAG, "Decode failed: " + e.getCause());
+			}
+		}
+		synchronized (this) {
+			waitTime += System.currentTimeMillis() - start;
+		}
+	}
+
+	/**
+	 * Method cancel.
+	 *
+	 * Drops the tasks that have not started, e.g., when the read is
+	 * abandoned.
+	 */
+	public synchronized void cancel() {
+		for (Future<?> task : pending) {
+			task.cancel(false);
+		}
+		pending.clear();
+	}
+
+	/**
+	 * @return the parsed CHUID, or null
+	 */
+	public synchronized PIVCardHolderUniqueID getCHUID() {
+		return chuid;
+	}
+
+	/**
+	 * @return whether the CHUID signature verified, or null if it was not
+	 *         checked
+	 */
+	public synchronized Boolean isCHUIDSignatureValid() {
+		return chuidSignatureValid;
+	}
+
+	/**
+	 * Method getCertificate.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @return X509Certificate or null
+	 */
+	public synchronized X509Certificate getCertificate(PIVContainer container) {
+		return certificates.get(container);
+	}
+
+	/**
+	 * Method isCertificateCurrent.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @return whether the certificate is valid now, or null if it was not
+	 *         decoded
+	 */
+	public synchronized Boolean isCertificateCurrent(PIVContainer container) {
+		return certificatesCurrent.get(container);
+	}
+
+	/**
+	 * @return whether the CAK proof of possession verified, or null if it
+	 *         was not checked
+	 */
+	public synchronized Boolean isPopValid() {
+		return popValid;
+	}
+
+	/**
+	 * @return the time the worker spent decoding and verifying (value is
+	 *         in milliseconds)
+	 */
+	public synchronized long getDecodeTime() {
+		return decodeTime;
+	}
+
+	/**
+	 * @return the time the reader thread spent in await() (value is in
+	 *         milliseconds), i.e., the decoding that did not overlap I/O
+	 */
+	public synchronized long getWaitTime() {
+		return waitTime;
+	}
+
+	/**
+	 * Method run.
+	 *
+	 * @param task
+	 *            Runnable
+	 */
+	private void run(final Runnable task) {
+		Future<?> future = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.currentTimeMillis();
+				try {
+					task.run();
+				} finally {
+					synchronized (DecodePipeline.this) {
+						decodeTime += System.currentTimeMillis() - start;
+					}
+				}
+			}
+		});
+		synchronized (this) {
+			pending.add(future);
+		}
+	}
+
+	/**
+	 * Method decodeCHUID.
+	 *
+	 * @param data
+	 *            PIVDataTempl
+	 */
+	private void decodeCHUID(PIVDataTempl data) {
+		byte[] chuidData = data.getData();
+		if (chuidData == null) {
+			chuidData = data.getEncoded();
+		}
+		PIVCardHolderUniqueID parsed = new PIVCardHolderUniqueID(chuidData);
+		synchronized (this) {
+			chuid = parsed;
+		}
+		boolean valid;
+		if (cache != null) {
+			valid = cache.verifyCHUID(parsed);
+		} else if (parsed.getSignatureBytes() == null
+				|| parsed.getSignatureDataBytes() == null) {
+			valid = false;
+		} else {
+			try {
+				CMSSignedDataObject chuidSig = SharedCardCache.newSignedData(
+						parsed.getSignatureBytes(), parsed.getSignatureDataBytes());
+				valid = chuidSig.verifySignature(false);
+			} catch (SignatureException e) {
+				Log.e(TAG, "Problem with Signature: " + e.getMessage());
+				valid = false;
+			}
+		}
+		synchronized (this) {
+			chuidSignatureValid = Boolean.valueOf(valid);
+		}
+	}
+
+	/**
+	 * Method decodeCertificate.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param data
+	 *            PIVDataTempl
+	 */
+	private void decodeCertificate(PIVContainer container, PIVDataTempl data) {
+		X509Certificate cert;
+		try {
+			if (cache != null) {
+				cert = cache.getCertificate(data.getData());
+			} else {
+				cert = new PIVCertificate(data.getData()).getCertificate();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Problem with " + container + ": " + e.getMessage());
+			return;
+		} catch (CertificateException e) {
+			Log.e(TAG, "Problem with " + container + ": " + e.getMessage());
+			return;
+		}
+		if (cert == null) {
+			return;
+		}
+		boolean current = true;
+		try {
+			cert.checkValidity();
+		} catch (CertificateException e) {
+			current = false;
+		}
+		synchronized (this) {
+			certificates.put(container, cert);
+			certificatesCurrent.put(container, Boolean.valueOf(current));
+		}
+	}
+
+}
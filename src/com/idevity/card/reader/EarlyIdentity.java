@@ -0,0 +1,300 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+
+import org.keysupport.nist80073.datamodel.FASCN;
+
+import android.util.Log;
+
+/**
+ * The identity fields of a CHUID, read from the front of the object
+ * before the rest of it has arrived.
+ *
+ * The FASC-N, GUID and expiration date come ahead of the issuer
+ * signature, which is most of the CHUID, so they are in the first chunk
+ * of a chained GET DATA response.  A roster lookup can start on them
+ * while the chain goes on for the signature, or the chain can be
+ * abandoned when the signature is not wanted; see Policy.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class EarlyIdentity {
+
+	/**
+	 * What a reader does once the identity is in.
+	 */
+	public enum Policy {
+		/**
+		 * The CHUID is not parsed early.
+		 */
+		OFF,
+		/**
+		 * The identity is reported, and the rest of the CHUID read and
+		 * its signature verified.
+		 */
+		CONTINUE,
+		/**
+		 * The identity is reported, and the rest of the CHUID is not
+		 * requested.  The CHUID is then neither kept nor verified.
+		 */
+		ABANDON
+	}
+
+	private static final String TAG = EarlyIdentity.class.getSimpleName();
+	/*
+	 * CHUID tags, SP 800-73-3 Part 1, Appendix A
+	 */
+	private static final int TAG_CHUID = 0x53;
+	private static final int TAG_FASCN = 0x30;
+	private static final int TAG_GUID = 0x34;
+	private static final int TAG_EXPIRATION = 0x35;
+	private static final int TAG_SIGNATURE = 0x3e;
+	private static final int TAG_LRC = 0xfe;
+	private static final int GUID_LENGTH = 16;
+	private static final String EXPIRATION_FORMAT = "yyyyMMdd";
+	/**
+	 * Field fascn.
+	 */
+	private final FASCN fascn;
+	/**
+	 * Field guid.
+	 */
+	private final UUID guid;
+	/**
+	 * Field expiration.
+	 */
+	private final Date expiration;
+	/**
+	 * Field time.
+	 */
+	private final long time;
+
+	/**
+	 * Constructor for EarlyIdentity.
+	 *
+	 * @param fascn
+	 *            FASCN or null
+	 * @param guid
+	 *            UUID or null
+	 * @param expiration
+	 *            Date or null
+	 * @param time
+	 *            long
+	 */
+	private EarlyIdentity(FASCN fascn, UUID guid, Date expiration, long time) {
+		this.fascn = fascn;
+		this.guid = guid;
+		this.expiration = expiration;
+		this.time = time;
+	}
+
+	/**
+	 * Method parse.
+	 *
+	 * @param data
+	 *            byte[] the start of a CHUID, 53 L ...
+	 * @param length
+	 *            int the number of bytes of data received so far
+	 * @param time
+	 *            long since the start of the read (value is in
+	 *            milliseconds)
+	 * @return EarlyIdentity or null if the data does not reach past the
+	 *         expiration date yet, or holds no FASC-N or GUID
+	 */
+	public static EarlyIdentity parse(byte[] data, int length, long time) {
+		if (length < 2 || (data[0] & 0xff) != TAG_CHUID) {
+			return null;
+		}
+		int offset = skipLength(data, 1, length);
+		byte[] fascnBytes = null;
+		UUID guid = null;
+		Date expiration = null;
+		boolean complete = false;
+		while (!complete && offset >= 0 && offset < length) {
+			int tag = data[offset] & 0xff;
+			if (tag == TAG_SIGNATURE || tag == TAG_LRC) {
+				complete = true;
+				break;
+			}
+			int valueOffset = skipLength(data, offset + 1, length);
+			if (valueOffset < 0) {
+				return null;
+			}
+			int valueLength = getLength(data, offset + 1);
+			if (valueOffset + valueLength > length) {
+				return null;
+			}
+			switch (tag) {
+			case TAG_FASCN:
+				fascnBytes = Arrays.copyOfRange(data, valueOffset, valueOffset + valueLength);
+				break;
+			case TAG_GUID:
+				if (valueLength == GUID_LENGTH) {
+					ByteBuffer guidBytes = ByteBuffer.wrap(data, valueOffset, valueLength);
+					guid = new UUID(guidBytes.getLong(), guidBytes.getLong());
+				}
+				break;
+			case TAG_EXPIRATION:
+				expiration = parseDate(new String(data, valueOffset, valueLength));
+				complete = true;
+				break;
+			default:
+				break;
+			}
+			offset = valueOffset + valueLength;
+		}
+		if (!complete) {
+			return null;
+		}
+		FASCN fascn = null;
+		if (fascnBytes != null) {
+			try {
+				fascn = new FASCN(fascnBytes);
+			} catch (IOException e) {
+				Log.e(TAG, "Problem with FASC-N: " + e.getMessage());
+			}
+		}
+		if (fascn == null && guid == null) {
+			return null;
+		}
+		return new EarlyIdentity(fascn, guid, expiration, time);
+	}
+
+	/**
+	 * @return the FASC-N, or null
+	 */
+	public FASCN getFASCN() {
+		return fascn;
+	}
+
+	/**
+	 * @return the GUID, or null
+	 */
+	public UUID getGUID() {
+		return guid;
+	}
+
+	/**
+	 * @return the expiration date of the CHUID, or null
+	 */
+	public Date getExpirationDate() {
+		return expiration == null ? null : (Date) expiration.clone();
+	}
+
+	/**
+	 * @return the time from the start of the read to the identity being
+	 *         parsed (value is in milliseconds)
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		return String.format("Early Identity: after %d ms, FASC-N %s, GUID %s, expires %s",
+				time, describe(fascn), guid, expiration);
+	}
+
+	/**
+	 * Method describe.
+	 *
+	 * @param fascn
+	 *            FASCN or null
+	 * @return String the agency, system, credential number, series and
+	 *         issue on one line, e.g., 0000-0000-000000-0-0
+	 */
+	static String describe(FASCN fascn) {
+		if (fascn == null) {
+			return "null";
+		}
+		return fascn.getAgencyCode() + "-" + fascn.getSystemCode() + "-"
+				+ fascn.getCredentialNumber() + "-" + fascn.getCredentialSeries()
+				+ "-" + fascn.getIndividualCredentialIssue();
+	}
+
+	/**
+	 * Method skipLength.
+	 *
+	 * @param data
+	 *            byte[]
+	 * @param offset
+	 *            int of a BER length
+	 * @param length
+	 *            int the number of bytes available
+	 * @return int the offset of the value, or -1 if the length is not all
+	 *         there or not plausible
+	 */
+	private static int skipLength(byte[] data, int offset, int length) {
+		if (offset >= length) {
+			return -1;
+		}
+		int first = data[offset] & 0xff;
+		if (first > 0x83) {
+			return -1;
+		}
+		int end = offset + 1 + (first < 0x80 ? 0 : first & 0x7f);
+		return end > length ? -1 : end;
+	}
+
+	/**
+	 * Method getLength.
+	 *
+	 * @param data
+	 *            byte[]
+	 * @param offset
+	 *            int of a complete BER length
+	 * @return int the length
+	 */
+	private static int getLength(byte[] data, int offset) {
+		int first = data[offset] & 0xff;
+		if (first < 0x80) {
+			return first;
+		}
+		int value = 0;
+		for (int i = 1; i <= (first & 0x7f); i++) {
+			value = (value << 8) | (data[offset + i] & 0xff);
+		}
+		return value;
+	}
+
+	/**
+	 * Method parseDate.
+	 *
+	 * @param date
+	 *            String YYYYMMDD
+	 * @return Date or null
+	 */
+	private static Date parseDate(String date) {
+		try {
+			return new SimpleDateFormat(EXPIRATION_FORMAT, Locale.US).parse(date);
+		} catch (ParseException e) {
+			Log.e(TAG, "Problem with expiration date: " + e.getMessage());
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.idevity.card.transport.CardTransport;
+
+/**
+ * Runs independent read sessions concurrently, one per reader (lane),
+ * for entry points where one host drives several PC/SC or CCID readers.
+ *
+ * Reads run on a fixed pool of workers with a bounded queue.  A read is
+ * refused, with a RejectedExecutionException, if its lane is already
+ * busy or the queue is full, rather than piling up behind a slow card.
+ * Certificates, CHUID verification results and the roster are shared
+ * between lanes through a SharedCardCache.  Throughput is kept per lane
+ * and can be totalled with getAggregateStats().
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class LaneManager {
+
+	/**
+	 * Notified on the worker thread when a read completes.
+	 */
+	public interface Listener {
+
+		/**
+		 * Method onRead.
+		 *
+		 * @param result
+		 *            LaneResult
+		 */
+		public void onRead(LaneResult result);
+	}
+
+	/**
+	 * Field workers.
+	 */
+	private final ThreadPoolExecutor workers;
+	/**
+	 * Field cache.
+	 */
+	private final SharedCardCache cache;
+	/**
+	 * Field pop.
+	 */
+	private final boolean pop;
+	/**
+	 * Field lanes.
+	 */
+	private final Map<String, ReaderLane> lanes = new LinkedHashMap<String, ReaderLane>();
+	/**
+	 * Field verifyCHUID.
+	 */
+	private volatile boolean verifyCHUID = false;
+	/**
+	 * Field listener.
+	 */
+	private volatile Listener listener = null;
+
+	/**
+	 * Constructor for LaneManager.
+	 *
+	 * @param threads
+	 *            int the number of reads that may run at once
+	 * @param queueLimit
+	 *            int the number of reads that may wait for a worker
+	 * @param cache
+	 *            SharedCardCache
+	 * @param pop
+	 *            boolean perform the CAK proof of possession
+	 */
+	public LaneManager(int threads, int queueLimit, SharedCardCache cache, boolean pop) {
+		this.cache = cache;
+		this.pop = pop;
+		this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueLimit)),
+				new ThreadFactory() {
+					private int count = 0;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "lane worker#" + (++count));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Method addLane.
+	 *
+	 * @param name
+	 *            String e.g., the reader name
+	 * @return ReaderLane the lane, which is reused if it already exists
+	 */
+	public synchronized ReaderLane addLane(String name) {
+		ReaderLane lane = lanes.get(name);
+		if (lane == null) {
+			lane = new ReaderLane(name, pop, cache);
+			lanes.put(name, lane);
+		}
+		return lane;
+	}
+
+	/**
+	 * @param name the name of the lane
+	 * @return the lane, or null
+	 */
+	public synchronized ReaderLane getLane(String name) {
+		return lanes.get(name);
+	}
+
+	/**
+	 * @return every lane, in the order they were added
+	 */
+	public synchronized List<ReaderLane> getLanes() {
+		return new ArrayList<ReaderLane>(lanes.values());
+	}
+
+	/**
+	 * @param verifyCHUID verify the CHUID signature of every read
+	 */
+	public void setVerifyCHUID(boolean verifyCHUID) {
+		this.verifyCHUID = verifyCHUID;
+	}
+
+	/**
+	 * @param listener notified of every completed read, or null
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the cache shared by the lanes
+	 */
+	public SharedCardCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Method submit.
+	 *
+	 * @param name
+	 *            String the lane the card was presented to
+	 * @param card
+	 *            CardTransport
+	 * @return Future<LaneResult>
+	 * @throws RejectedExecutionException
+	 *             if the lane is busy or too many reads are waiting
+	 */
+	public Future<LaneResult> submit(String name, final CardTransport card) {
+		final ReaderLane lane = addLane(name);
+		if (!lane.acquire()) {
+			throw new RejectedExecutionException("Lane busy: " + name);
+		}
+		try {
+			return workers.submit(new Callable<LaneResult>() {
+				@Override
+				public LaneResult call() {
+					LaneResult result = lane.read(card, cache, verifyCHUID);
+					Listener l = listener;
+					if (l != null) {
+						l.onRead(result);
+					}
+					return result;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			lane.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the totals over every lane
+	 */
+	public LaneStats getAggregateStats() {
+		List<LaneStats> stats = new ArrayList<LaneStats>();
+		for (ReaderLane lane : getLanes()) {
+			stats.add(lane.getStats());
+		}
+		return LaneStats.combine("all lanes", stats);
+	}
+
+	/**
+	 * Method shutdown.
+	 *
+	 * Refuses new reads; reads already submitted complete.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * Method awaitTermination.
+	 *
+	 * @param timeout
+	 *            long in milliseconds
+	 * @return boolean true if every read completed
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout) throws InterruptedException {
+		return workers.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+}
@@ -0,0 +1,128 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import com.idevity.card.data.CardData80073;
+
+/**
+ * The outcome of one read on a lane.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class LaneResult {
+
+	/**
+	 * Field lane.
+	 */
+	private final String lane;
+	/**
+	 * Field data.
+	 */
+	private final CardData80073 data;
+	/**
+	 * Field log.
+	 */
+	private final String log;
+	/**
+	 * Field elapsed.
+	 */
+	private final long elapsed;
+	/**
+	 * Field chuidVerified.
+	 */
+	private final Boolean chuidVerified;
+	/**
+	 * Field onRoster.
+	 */
+	private final Boolean onRoster;
+
+	/**
+	 * Constructor for LaneResult.
+	 *
+	 * @param lane
+	 *            String
+	 * @param data
+	 *            CardData80073
+	 * @param log
+	 *            String
+	 * @param elapsed
+	 *            long
+	 * @param chuidVerified
+	 *            Boolean
+	 * @param onRoster
+	 *            Boolean
+	 */
+	LaneResult(String lane, CardData80073 data, String log, long elapsed,
+			Boolean chuidVerified, Boolean onRoster) {
+		this.lane = lane;
+		this.data = data;
+		this.log = log;
+		this.elapsed = elapsed;
+		this.chuidVerified = chuidVerified;
+		this.onRoster = onRoster;
+	}
+
+	/**
+	 * @return the name of the lane
+	 */
+	public String getLane() {
+		return lane;
+	}
+
+	/**
+	 * @return true if card data was read
+	 */
+	public boolean isSuccess() {
+		return data != null;
+	}
+
+	/**
+	 * @return the card data, or null if the read failed
+	 */
+	public CardData80073 getData() {
+		return data;
+	}
+
+	/**
+	 * @return the reader log of the read
+	 */
+	public String getLog() {
+		return log;
+	}
+
+	/**
+	 * @return how long the read took, in milliseconds
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * @return whether the CHUID signature verified, or null if it was not
+	 *         checked
+	 */
+	public Boolean isCHUIDVerified() {
+		return chuidVerified;
+	}
+
+	/**
+	 * @return whether the credential is on the roster, or null if there is
+	 *         no roster
+	 */
+	public Boolean isOnRoster() {
+		return onRoster;
+	}
+
+}
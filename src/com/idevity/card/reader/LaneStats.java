@@ -0,0 +1,173 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.util.Collection;
+
+/**
+ * Throughput of a lane, or of all lanes, at a point in time.
+ *
+ * The window runs from the start of the first read to the end of the
+ * last one, so the aggregate rate of concurrent lanes is higher than
+ * any single lane's.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class LaneStats {
+
+	/**
+	 * Field name.
+	 */
+	private final String name;
+	/**
+	 * Field reads.
+	 * Reads that returned card data.
+	 */
+	private final int reads;
+	/**
+	 * Field failures.
+	 */
+	private final int failures;
+	/**
+	 * Field busyMillis.
+	 */
+	private final long busyMillis;
+	/**
+	 * Field firstStart.
+	 * (0 if nothing has been read)
+	 */
+	private final long firstStart;
+	/**
+	 * Field lastEnd.
+	 */
+	private final long lastEnd;
+
+	/**
+	 * Constructor for LaneStats.
+	 *
+	 * @param name
+	 *            String
+	 * @param reads
+	 *            int
+	 * @param failures
+	 *            int
+	 * @param busyMillis
+	 *            long
+	 * @param firstStart
+	 *            long
+	 * @param lastEnd
+	 *            long
+	 */
+	LaneStats(String name, int reads, int failures, long busyMillis,
+			long firstStart, long lastEnd) {
+		this.name = name;
+		this.reads = reads;
+		this.failures = failures;
+		this.busyMillis = busyMillis;
+		this.firstStart = firstStart;
+		this.lastEnd = lastEnd;
+	}
+
+	/**
+	 * Method combine.
+	 *
+	 * @param name
+	 *            String
+	 * @param lanes
+	 *            Collection<LaneStats>
+	 * @return LaneStats the totals over all lanes
+	 */
+	public static LaneStats combine(String name, Collection<LaneStats> lanes) {
+		int reads = 0;
+		int failures = 0;
+		long busy = 0;
+		long first = 0;
+		long last = 0;
+		for (LaneStats lane : lanes) {
+			reads += lane.reads;
+			failures += lane.failures;
+			busy += lane.busyMillis;
+			if (lane.firstStart != 0 && (first == 0 || lane.firstStart < first)) {
+				first = lane.firstStart;
+			}
+			last = Math.max(last, lane.lastEnd);
+		}
+		return new LaneStats(name, reads, failures, busy, first, last);
+	}
+
+	/**
+	 * @return the name of the lane
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of reads that returned card data
+	 */
+	public int getReads() {
+		return reads;
+	}
+
+	/**
+	 * @return the number of reads that did not
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return the time spent reading, in milliseconds
+	 */
+	public long getBusyMillis() {
+		return busyMillis;
+	}
+
+	/**
+	 * @return the time from the first read starting to the last ending,
+	 *         in milliseconds
+	 */
+	public long getWindowMillis() {
+		return firstStart == 0 ? 0 : lastEnd - firstStart;
+	}
+
+	/**
+	 * @return reads per minute over the window
+	 */
+	public double getReadsPerMinute() {
+		long window = getWindowMillis();
+		return window <= 0 ? 0 : reads * 60000.0 / window;
+	}
+
+	/**
+	 * @return the mean time a read took, in milliseconds
+	 */
+	public double getMeanReadMillis() {
+		int total = reads + failures;
+		return total == 0 ? 0 : (double) busyMillis / total;
+	}
+
+	/**
+	 * Method toString.
+	 *
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s reads=%d failures=%d mean=%.1fms rate=%.1f/min",
+				name, reads, failures, getMeanReadMillis(), getReadsPerMinute());
+	}
+
+}
@@ -0,0 +1,318 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+
+package com.idevity.card.reader;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.keysupport.nist80073.cardedge.PIVAPDUInterface;
+import org.keysupport.nist80073.cardedge.PIVDataTempl;
+
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * What a card declares about its own containers, learned from a few small
+ * objects read ahead of the rest, and the containers a read can skip
+ * because of it.
+ *
+ * <ul>
+ * <li>Key History Object: keysWithOnCardCerts (C1) retired key management
+ * certificates are on the card, the rest of the twenty are not.  A card
+ * without the object has none.</li>
+ * <li>Discovery Object: the PIN usage policy says whether on-card
+ * biometric comparison and the virtual contact interface are
+ * implemented, without which the BIT group template and the pairing code
+ * are not on the card.  A card without the object implements neither.</li>
+ * <li>Card Capability Container: read with the others when the profile
+ * wants it.  It lists no containers a PIV card must honour, so skips
+ * nothing.</li>
+ * </ul>
+ *
+ * Each skipped container would have cost a GET DATA answered by 6A82.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class ReadPlan {
+
+	/*
+	 * Key History Object tags, SP 800-73-4 Part 1, Appendix A
+	 */
+	private static final int TAG_KEYS_WITH_ON_CARD_CERTS = 0xc1;
+	/*
+	 * Discovery Object tags, SP 800-73-4 Part 1, Section 3.3.2
+	 */
+	private static final int TAG_PIN_USAGE_POLICY = 0x5f2f;
+	private static final int POLICY_OCC = 0x10;
+	private static final int POLICY_VCI = 0x08;
+	/**
+	 * Field recorded.
+	 */
+	private final EnumSet<PIVContainer> recorded = EnumSet.noneOf(PIVContainer.class);
+	/**
+	 * Field absent.
+	 */
+	private final EnumSet<PIVContainer> absent = EnumSet.noneOf(PIVContainer.class);
+
+	/**
+	 * Method getPlanningReads.
+	 *
+	 * @param profile
+	 *            ReadProfile
+	 * @return the containers to read ahead of the others, in order; empty
+	 *         if the profile has nothing a plan could skip
+	 */
+	public static List<PIVContainer> getPlanningReads(ReadProfile profile) {
+		boolean keys = false;
+		boolean discovery = false;
+		for (PIVContainer container : profile.getContainers()) {
+			if (isRetiredCertificate(container)) {
+				keys = true;
+			} else if (container == PIVContainer.BIO_INFO_TEMPL_GRP_TEMPL
+					|| container == PIVContainer.PAIRING_CODE_REF_DATA) {
+				discovery = true;
+			}
+		}
+		List<PIVContainer> reads = new ArrayList<PIVContainer>();
+		if (!keys && !discovery) {
+			return reads;
+		}
+		if (profile.getContainers().contains(PIVContainer.CARD_CAPABILITY_CONTAINER)) {
+			reads.add(PIVContainer.CARD_CAPABILITY_CONTAINER);
+		}
+		if (discovery) {
+			reads.add(PIVContainer.DISCOVERY_OBJECT);
+		}
+		if (keys) {
+			reads.add(PIVContainer.KEY_HISTORY_OBJECT);
+		}
+		return reads;
+	}
+
+	/**
+	 * Method isRecorded.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @return true if the result of reading the container has been
+	 *         recorded
+	 */
+	public boolean isRecorded(PIVContainer container) {
+		return recorded.contains(container);
+	}
+
+	/**
+	 * Method record.
+	 *
+	 * @param container
+	 *            PIVContainer read ahead of the others
+	 * @param data
+	 *            PIVDataTempl or null if it could not be read
+	 * @param statusWord
+	 *            int of the GET DATA; 6A82 declares the container absent,
+	 *            any other failure declares nothing
+	 */
+	public void record(PIVContainer container, PIVDataTempl data, int statusWord) {
+		recorded.add(container);
+		byte[] encoded = data == null ? null : data.getEncoded();
+		if (encoded == null
+				&& statusWord != PIVAPDUInterface.PIV_SW_OBJECT_OR_APPLICATION_NOT_FOUND) {
+			return;
+		}
+		switch (container) {
+		case KEY_HISTORY_OBJECT:
+			int onCard = 0;
+			if (encoded != null) {
+				byte[] value = find(encoded, TAG_KEYS_WITH_ON_CARD_CERTS);
+				if (value == null || value.length != 1) {
+					return;
+				}
+				onCard = value[0] & 0xff;
+			}
+			for (PIVContainer retired : PIVContainer.values()) {
+				if (isRetiredCertificate(retired) && getRetiredNumber(retired) > onCard) {
+					absent.add(retired);
+				}
+			}
+			break;
+		case DISCOVERY_OBJECT:
+			int policy = 0;
+			if (encoded != null) {
+				byte[] value = find(encoded, TAG_PIN_USAGE_POLICY);
+				if (value == null || value.length < 1) {
+					return;
+				}
+				policy = value[0] & 0xff;
+			}
+			if ((policy & POLICY_OCC) == 0) {
+				absent.add(PIVContainer.BIO_INFO_TEMPL_GRP_TEMPL);
+			}
+			if ((policy & POLICY_VCI) == 0) {
+				absent.add(PIVContainer.PAIRING_CODE_REF_DATA);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Method isDeclaredAbsent.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @return true if the card has declared it does not hold the container
+	 */
+	public boolean isDeclaredAbsent(PIVContainer container) {
+		return absent.contains(container);
+	}
+
+	/**
+	 * @return the containers the card has declared it does not hold
+	 */
+	public Set<PIVContainer> getDeclaredAbsent() {
+		return EnumSet.copyOf(absent);
+	}
+
+	/**
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		return "Read Plan: read " + recorded + ", declared absent " + absent;
+	}
+
+	/**
+	 * Method isRetiredCertificate.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @return true for RETIRED_KM_CERT_01 to RETIRED_KM_CERT_20
+	 */
+	private static boolean isRetiredCertificate(PIVContainer container) {
+		return container.name().startsWith("RETIRED_KM_CERT_");
+	}
+
+	/**
+	 * Method getRetiredNumber.
+	 *
+	 * @param container
+	 *            PIVContainer a retired key management certificate
+	 * @return int 1 to 20
+	 */
+	private static int getRetiredNumber(PIVContainer container) {
+		return Integer.parseInt(container.name().substring(
+				"RETIRED_KM_CERT_".length()));
+	}
+
+	/**
+	 * Method find.
+	 *
+	 * Walks the TLVs inside the outer template of an object, e.g., 53 or
+	 * 7E.
+	 *
+	 * @param encoded
+	 *            byte[] the object
+	 * @param wanted
+	 *            int a one or two byte tag
+	 * @return byte[] the value of the tag, or null if it is not there
+	 */
+	private static byte[] find(byte[] encoded, int wanted) {
+		int offset = skipTag(encoded, 0);
+		if (offset < 0 || offset >= encoded.length) {
+			return null;
+		}
+		int outerLengthBytes = lengthBytes(encoded[offset]);
+		int end = offset + 1 + outerLengthBytes;
+		if (outerLengthBytes < 0 || end > encoded.length) {
+			return null;
+		}
+		offset = end;
+		while (offset < encoded.length) {
+			int valueOffset = skipTag(encoded, offset);
+			if (valueOffset < 0 || valueOffset >= encoded.length) {
+				return null;
+			}
+			int tag = encoded[offset] & 0xff;
+			if (valueOffset - offset == 2) {
+				tag = (tag << 8) | (encoded[offset + 1] & 0xff);
+			}
+			int lengthBytes = lengthBytes(encoded[valueOffset]);
+			if (lengthBytes < 0 || valueOffset + 1 + lengthBytes > encoded.length) {
+				return null;
+			}
+			int length = 0;
+			if (lengthBytes == 0) {
+				length = encoded[valueOffset] & 0xff;
+			} else {
+				for (int i = 1; i <= lengthBytes; i++) {
+					length = (length << 8) | (encoded[valueOffset + i] & 0xff);
+				}
+			}
+			int start = valueOffset + 1 + lengthBytes;
+			if (start + length > encoded.length) {
+				return null;
+			}
+			if (tag == wanted) {
+				byte[] value = new byte[length];
+				System.arraycopy(encoded, start, value, 0, length);
+				return value;
+			}
+			offset = start + length;
+		}
+		return null;
+	}
+
+	/**
+	 * Method skipTag.
+	 *
+	 * @param encoded
+	 *            byte[]
+	 * @param offset
+	 *            int of a BER tag
+	 * @return int the offset of the length, or -1 if the tag runs off the
+	 *         end
+	 */
+	private static int skipTag(byte[] encoded, int offset) {
+		if (offset >= encoded.length) {
+			return -1;
+		}
+		if ((encoded[offset] & 0x1f) != 0x1f) {
+			return offset + 1;
+		}
+		return offset + 2 > encoded.length ? -1 : offset + 2;
+	}
+
+	/**
+	 * Method lengthBytes.
+	 *
+	 * @param first
+	 *            byte of a BER length
+	 * @return int the bytes that follow it, or -1 if it is not plausible
+	 */
+	private static int lengthBytes(byte first) {
+		int value = first & 0xff;
+		if (value < 0x80) {
+			return 0;
+		}
+		if (value > 0x83) {
+			return -1;
+		}
+		return value & 0x7f;
+	}
+
+}
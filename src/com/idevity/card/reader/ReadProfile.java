@@ -0,0 +1,388 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * The PIV containers a read fetches, and whether it runs the CAK proof of
+ * possession.
+ *
+ * The containers are read in the order that gets useful data out
+ * soonest, whatever order they are given in: the CHUID (the identity)
+ * first, then the Card Authentication certificate (so the proof of
+ * possession can follow it), then the rest smallest first.
+ *
+ * <ul>
+ * <li>ACCESS: the CHUID alone, for doors and turnstiles, with a latency
+ * target of ACCESS_TARGET.  The reader skips everything but the APDUs the
+ * CHUID needs, and makes an AccessDecision as soon as it is in.</li>
+ * <li>GATE: CHUID, CAK and the proof of possession.</li>
+ * <li>AUDIT: every container that can be read without the PIN.</li>
+ * <li>ENROLLMENT: every container, verifying the PIN first.  Cards refuse
+ * VERIFY on the contactless interface without a virtual contact
+ * interface, so this is meant for contact readers.</li>
+ * </ul>
+ *
+ * Each profile keeps the latency of the reads made with it, and the round
+ * trips its ReadPlan saved them.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class ReadProfile {
+
+	/**
+	 * Field READ_ORDER.
+	 * CHUID, CAK certificate, then smallest first.  Declared ahead of the
+	 * profiles, which sort with it.
+	 */
+	private static final Comparator<PIVContainer> READ_ORDER = new Comparator<PIVContainer>() {
+		@Override
+		public int compare(PIVContainer a, PIVContainer b) {
+			int rank = rank(a) - rank(b);
+			if (rank != 0) {
+				return rank;
+			}
+			return a.getTypicalSize() - b.getTypicalSize();
+		}
+
+		private int rank(PIVContainer container) {
+			switch (container) {
+			case CHUID:
+				return 0;
+			case CARD_AUTH_CERTIFICATE:
+				return 1;
+			default:
+				return 2;
+			}
+		}
+	};
+
+	/**
+	 * Field ACCESS_TARGET.
+	 * A door should release within a fifth of a second of the tap (value
+	 * is in milliseconds).
+	 */
+	public static final long ACCESS_TARGET = 200;
+	/**
+	 * Field ACCESS.
+	 */
+	public static final ReadProfile ACCESS = new ReadProfile("access", false,
+			ACCESS_TARGET, PIVContainer.CHUID);
+	/**
+	 * Field GATE.
+	 */
+	public static final ReadProfile GATE = new ReadProfile("gate", true,
+			PIVContainer.CHUID, PIVContainer.CARD_AUTH_CERTIFICATE);
+	/**
+	 * Field AUDIT.
+	 */
+	public static final ReadProfile AUDIT = new ReadProfile("audit", true,
+			freeRead());
+	/**
+	 * Field ENROLLMENT.
+	 */
+	public static final ReadProfile ENROLLMENT = new ReadProfile("enrollment",
+			true, all());
+	/**
+	 * Field POP_SHORT_APDUS.
+	 * An RSA 2048 challenge chained in two commands, and a GET RESPONSE.
+	 */
+	private static final int POP_SHORT_APDUS = 3;
+	/**
+	 * Field name.
+	 */
+	private final String name;
+	/**
+	 * Field pop.
+	 */
+	private final boolean pop;
+	/**
+	 * Field latencyTarget.
+	 */
+	private final long latencyTarget;
+	/**
+	 * Field containers.
+	 */
+	private final List<PIVContainer> containers;
+	/**
+	 * Field reads.
+	 */
+	private int reads = 0;
+	/**
+	 * Field lastLatency.
+	 */
+	private long lastLatency = 0;
+	/**
+	 * Field totalLatency.
+	 */
+	private long totalLatency = 0;
+	/**
+	 * Field lastAvoided.
+	 */
+	private int lastAvoided = 0;
+	/**
+	 * Field totalAvoided.
+	 */
+	private long totalAvoided = 0;
+
+	/**
+	 * Constructor for ReadProfile.
+	 *
+	 * @param name
+	 *            String
+	 * @param pop
+	 *            boolean run the CAK proof of possession, if the CAK
+	 *            certificate is among the containers
+	 * @param containers
+	 *            PIVContainer... in any order
+	 */
+	public ReadProfile(String name, boolean pop, PIVContainer... containers) {
+		this(name, pop, 0, containers);
+	}
+
+	/**
+	 * Constructor for ReadProfile.
+	 *
+	 * @param name
+	 *            String
+	 * @param pop
+	 *            boolean run the CAK proof of possession, if the CAK
+	 *            certificate is among the containers
+	 * @param latencyTarget
+	 *            long the time an AccessDecision should be made within
+	 *            (value is in milliseconds), or 0 for none
+	 * @param containers
+	 *            PIVContainer... in any order
+	 */
+	public ReadProfile(String name, boolean pop, long latencyTarget,
+			PIVContainer... containers) {
+		this.name = name;
+		this.pop = pop;
+		this.latencyTarget = latencyTarget;
+		List<PIVContainer> ordered = new ArrayList<PIVContainer>();
+		for (PIVContainer container : containers) {
+			if (!ordered.contains(container)) {
+				ordered.add(container);
+			}
+		}
+		Collections.sort(ordered, READ_ORDER);
+		this.containers = Collections.unmodifiableList(ordered);
+	}
+
+	/**
+	 * Method forName.
+	 *
+	 * @param name
+	 *            String
+	 * @return ReadProfile ACCESS, GATE, AUDIT or ENROLLMENT by name; GATE
+	 *         if the name is not known
+	 */
+	public static ReadProfile forName(String name) {
+		if (ACCESS.name.equals(name)) {
+			return ACCESS;
+		}
+		if (AUDIT.name.equals(name)) {
+			return AUDIT;
+		}
+		if (ENROLLMENT.name.equals(name)) {
+			return ENROLLMENT;
+		}
+		return GATE;
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return true if the profile runs the CAK proof of possession
+	 */
+	public boolean isPop() {
+		return pop && containers.contains(PIVContainer.CARD_AUTH_CERTIFICATE);
+	}
+
+	/**
+	 * @return the time an AccessDecision should be made within (value is
+	 *         in milliseconds), or 0 if the profile makes none
+	 */
+	public long getLatencyTarget() {
+		return latencyTarget;
+	}
+
+	/**
+	 * @return true if the profile reads for an AccessDecision, skipping
+	 *         whatever does not serve it
+	 */
+	public boolean isFastPath() {
+		return latencyTarget > 0;
+	}
+
+	/**
+	 * @return the containers, in the order they are read
+	 */
+	public List<PIVContainer> getContainers() {
+		return containers;
+	}
+
+	/**
+	 * @return true if any of the containers needs the PIN verified
+	 */
+	public boolean requiresPin() {
+		for (PIVContainer container : containers) {
+			if (container.isPinProtected()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Method getExpectedApduCount.
+	 *
+	 * Estimated from the typical size of each container, so a card with
+	 * larger certificates or images takes more.
+	 *
+	 * @param select
+	 *            boolean whether the PIV application must be selected
+	 * @param maxExtendedLe
+	 *            int the Le of extended length GET DATA, or 0 for short
+	 *            APDUs
+	 * @return int the APDUs a read is expected to take, including GET
+	 *         RESPONSE
+	 */
+	public int getExpectedApduCount(boolean select, int maxExtendedLe) {
+		int count = select ? 1 : 0;
+		if (requiresPin()) {
+			count++;
+		}
+		for (PIVContainer container : containers) {
+			int size = container.getTypicalSize();
+			if (maxExtendedLe > 0) {
+				count += 1 + Math.max(0, (size - maxExtendedLe + 255) / 256);
+			} else {
+				count += Math.max(1, (size + 255) / 256);
+			}
+		}
+		if (isPop()) {
+			count += maxExtendedLe > 0 ? 1 : POP_SHORT_APDUS;
+		}
+		return count;
+	}
+
+	/**
+	 * Method recordLatency.
+	 *
+	 * @param latency
+	 *            long the time a complete read took (value is in
+	 *            milliseconds)
+	 */
+	public synchronized void recordLatency(long latency) {
+		reads++;
+		lastLatency = latency;
+		totalLatency += latency;
+	}
+
+	/**
+	 * @return the number of complete reads made with the profile
+	 */
+	public synchronized int getReads() {
+		return reads;
+	}
+
+	/**
+	 * @return the latency of the last complete read (value is in
+	 *         milliseconds)
+	 */
+	public synchronized long getLastLatency() {
+		return lastLatency;
+	}
+
+	/**
+	 * @return the mean latency of the complete reads (value is in
+	 *         milliseconds), or 0 if there were none
+	 */
+	public synchronized long getAverageLatency() {
+		return reads == 0 ? 0 : totalLatency / reads;
+	}
+
+	/**
+	 * Method recordAvoided.
+	 *
+	 * @param avoided
+	 *            int the round trips a complete read saved by its
+	 *            ReadPlan
+	 */
+	public synchronized void recordAvoided(int avoided) {
+		lastAvoided = avoided;
+		totalAvoided += avoided;
+	}
+
+	/**
+	 * @return the round trips the ReadPlan of the last planned read saved
+	 */
+	public synchronized int getLastAvoidedRoundTrips() {
+		return lastAvoided;
+	}
+
+	/**
+	 * @return the round trips the ReadPlan saved over every read made with
+	 *         the profile
+	 */
+	public synchronized long getTotalAvoidedRoundTrips() {
+		return totalAvoided;
+	}
+
+	/**
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * @return PIVContainer[] every container but the pairing code, which
+	 *         is only read over a virtual contact interface
+	 */
+	private static PIVContainer[] all() {
+		EnumSet<PIVContainer> all = EnumSet.allOf(PIVContainer.class);
+		all.remove(PIVContainer.PAIRING_CODE_REF_DATA);
+		return all.toArray(new PIVContainer[all.size()]);
+	}
+
+	/**
+	 * @return PIVContainer[] every container readable without the PIN
+	 */
+	private static PIVContainer[] freeRead() {
+		EnumSet<PIVContainer> free = EnumSet.noneOf(PIVContainer.class);
+		for (PIVContainer container : PIVContainer.values()) {
+			if (!container.isPinProtected()) {
+				free.add(container);
+			}
+		}
+		return free.toArray(new PIVContainer[free.size()]);
+	}
+
+}
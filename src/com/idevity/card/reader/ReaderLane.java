@@ -0,0 +1,179 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import org.keysupport.nist80073.cardedge.PIVDataTempl;
+import org.keysupport.nist80073.datamodel.PIVCardHolderUniqueID;
+
+import com.idevity.card.data.CardData80073;
+import com.idevity.card.transport.CardTransport;
+
+/**
+ * One reader of a LaneManager.
+ *
+ * A lane reads one card at a time with its own CardReader80073, so a
+ * card that leaves the field and returns to the same lane resumes its
+ * read.  Lanes share nothing but the SharedCardCache.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class ReaderLane {
+
+	/**
+	 * Field name.
+	 */
+	private final String name;
+	/**
+	 * Field reader.
+	 */
+	private final CardReader80073 reader;
+	/**
+	 * Field busy.
+	 */
+	private boolean busy = false;
+	/**
+	 * Field reads.
+	 */
+	private int reads = 0;
+	/**
+	 * Field failures.
+	 */
+	private int failures = 0;
+	/**
+	 * Field busyMillis.
+	 */
+	private long busyMillis = 0;
+	/**
+	 * Field firstStart.
+	 */
+	private long firstStart = 0;
+	/**
+	 * Field lastEnd.
+	 */
+	private long lastEnd = 0;
+
+	/**
+	 * Constructor for ReaderLane.
+	 *
+	 * @param name
+	 *            String
+	 * @param pop
+	 *            boolean perform the CAK proof of possession
+	 * @param cache
+	 *            SharedCardCache
+	 */
+	ReaderLane(String name, boolean pop, SharedCardCache cache) {
+		this.name = name;
+		this.reader = new CardReader80073(null, false, pop);
+		this.reader.setTraceApdus(false);
+		this.reader.setCache(cache);
+	}
+
+	/**
+	 * @return the name of the lane
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return true while a read is queued or running on this lane
+	 */
+	public synchronized boolean isBusy() {
+		return busy;
+	}
+
+	/**
+	 * Method acquire.
+	 *
+	 * @return boolean false if the lane is already busy
+	 */
+	synchronized boolean acquire() {
+		if (busy) {
+			return false;
+		}
+		busy = true;
+		return true;
+	}
+
+	/**
+	 * Method release.
+	 */
+	synchronized void release() {
+		busy = false;
+	}
+
+	/**
+	 * Method read.
+	 *
+	 * Runs on a worker of the LaneManager.
+	 *
+	 * @param card
+	 *            CardTransport
+	 * @param cache
+	 *            SharedCardCache
+	 * @param verifyCHUID
+	 *            boolean
+	 * @return LaneResult
+	 */
+	LaneResult read(CardTransport card, SharedCardCache cache, boolean verifyCHUID) {
+		long start = System.currentTimeMillis();
+		CardData80073 data = null;
+		Boolean verified = null;
+		Boolean onRoster = null;
+		String log;
+		try {
+			reader.read(card);
+			if (reader.cardDataAvailable()) {
+				data = reader.getData();
+			}
+			log = reader.getLog();
+		} finally {
+			release();
+		}
+		PIVDataTempl chuidData = data == null ? null : data.getPIVCardHolderUniqueID();
+		if (chuidData != null) {
+			byte[] value = chuidData.getData();
+			PIVCardHolderUniqueID chuid = new PIVCardHolderUniqueID(
+					value == null ? chuidData.getEncoded() : value);
+			if (verifyCHUID) {
+				verified = Boolean.valueOf(cache.verifyCHUID(chuid));
+			}
+			onRoster = cache.isOnRoster(chuid);
+		}
+		long end = System.currentTimeMillis();
+		synchronized (this) {
+			if (data != null) {
+				reads++;
+			} else {
+				failures++;
+			}
+			busyMillis += end - start;
+			if (firstStart == 0) {
+				firstStart = start;
+			}
+			lastEnd = end;
+		}
+		return new LaneResult(name, data, log, end - start, verified, onRoster);
+	}
+
+	/**
+	 * @return the throughput of this lane so far
+	 */
+	public synchronized LaneStats getStats() {
+		return new LaneStats(name, reads, failures, busyMillis, firstStart, lastEnd);
+	}
+
+}
@@ -0,0 +1,102 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import org.keysupport.nist80073.cardedge.PIVDataTempl;
+
+import com.idevity.card.data.CardData80073;
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * Receives the events of a CardReader80073's read sessions.
+ *
+ * Events are delivered on the reader thread, in order; a listener that
+ * updates a UI should be wrapped in a CoalescingReaderListener.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public interface ReaderListener {
+
+	/**
+	 * Method onStarted.
+	 *
+	 * @param resume
+	 *            boolean true if the session resumes a read the card
+	 *            left the field during
+	 */
+	public void onStarted(boolean resume);
+
+	/**
+	 * Method onObjectReceived.
+	 *
+	 * @param container
+	 *            PIVContainer
+	 * @param data
+	 *            PIVDataTempl
+	 */
+	public void onObjectReceived(PIVContainer container, PIVDataTempl data);
+
+	/**
+	 * Method onIdentity.
+	 *
+	 * Called while the CHUID is still being read, when the reader parses
+	 * its identity early; see CardReader80073.setEarlyIdentityPolicy().
+	 *
+	 * @param identity
+	 *            EarlyIdentity
+	 */
+	public void onIdentity(EarlyIdentity identity);
+
+	/**
+	 * Method onProgress.
+	 *
+	 * @param completed
+	 *            int the containers of the read profile done so far
+	 * @param total
+	 *            int the containers of the read profile
+	 */
+	public void onProgress(int completed, int total);
+
+	/**
+	 * Method onLog.
+	 *
+	 * The record is not formatted until its toString() is called, so a
+	 * listener that does not show the log pays nothing for it.
+	 *
+	 * @param record
+	 *            TraceRecord one log entry or APDU
+	 */
+	public void onLog(TraceRecord record);
+
+	/**
+	 * Method onCompleted.
+	 *
+	 * @param data
+	 *            CardData80073 the data read
+	 */
+	public void onCompleted(CardData80073 data);
+
+	/**
+	 * Method onFailed.
+	 *
+	 * @param reason
+	 *            String
+	 * @param awaitingResume
+	 *            boolean true if the read will resume should the card
+	 *            return within CardReader80073.RESUME_WINDOW
+	 */
+	public void onFailed(String reason, boolean awaitingResume);
+
+}
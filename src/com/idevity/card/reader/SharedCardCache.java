@@ -0,0 +1,306 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.keysupport.nist80073.datamodel.CMSSignedDataObject;
+import org.keysupport.nist80073.datamodel.FASCN;
+import org.keysupport.nist80073.datamodel.PIVCardHolderUniqueID;
+import org.keysupport.nist80073.datamodel.PIVCertificate;
+import org.keysupport.util.DataUtil;
+
+/**
+ * Caches shared by every reader of a LaneManager.
+ *
+ * <ul>
+ * <li>Certificates, decoded once per distinct encoding.  Most cards of an
+ * agency share issuing CAs, and a card returning to another lane brings
+ * the same Card Authentication certificate.</li>
+ * <li>CHUID signature verification results, keyed by a digest of the
+ * signed content and signature.</li>
+ * <li>The roster of credentials admitted, replaced as a whole.</li>
+ * </ul>
+ *
+ * The certificate and verification caches are bounded, least recently
+ * used first out.  All methods are thread safe; a value may be computed
+ * twice by lanes racing for it, never stored inconsistently.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class SharedCardCache {
+
+	/**
+	 * Field DEFAULT_SIZE.
+	 */
+	public static final int DEFAULT_SIZE = 256;
+	/**
+	 * Field FIPS_PROVIDER.
+	 */
+	private static final String FIPS_PROVIDER = "OpenSSLFIPSProvider";
+	/**
+	 * Field certificates.
+	 */
+	private final Map<String, X509Certificate> certificates;
+	/**
+	 * Field verifications.
+	 */
+	private final Map<String, Boolean> verifications;
+	/**
+	 * Field roster.
+	 * Replaced, never modified, so it is read without locking.
+	 */
+	private volatile Set<String> roster = null;
+	/**
+	 * Field hits.
+	 */
+	private int hits = 0;
+	/**
+	 * Field misses.
+	 */
+	private int misses = 0;
+
+	/**
+	 * Constructor for SharedCardCache.
+	 */
+	public SharedCardCache() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * Constructor for SharedCardCache.
+	 *
+	 * @param size
+	 *            int the most certificates, and the most verification
+	 *            results, kept
+	 */
+	public SharedCardCache(int size) {
+		this.certificates = new LRUMap<X509Certificate>(size);
+		this.verifications = new LRUMap<Boolean>(size);
+	}
+
+	/**
+	 * Method getCertificate.
+	 *
+	 * @param certData
+	 *            byte[] the value of a PIV certificate container
+	 * @return X509Certificate
+	 * @throws IOException
+	 * @throws CertificateException
+	 */
+	public X509Certificate getCertificate(byte[] certData) throws IOException,
+			CertificateException {
+		String key = digest(certData);
+		synchronized (this) {
+			X509Certificate cert = certificates.get(key);
+			if (cert != null) {
+				hits++;
+				return cert;
+			}
+			misses++;
+		}
+		X509Certificate cert = new PIVCertificate(certData).getCertificate();
+		if (cert != null) {
+			synchronized (this) {
+				certificates.put(key, cert);
+			}
+		}
+		return cert;
+	}
+
+	/**
+	 * Method verifyCHUID.
+	 *
+	 * @param chuid
+	 *            PIVCardHolderUniqueID
+	 * @return boolean true if the CHUID signature verifies
+	 */
+	public boolean verifyCHUID(PIVCardHolderUniqueID chuid) {
+		byte[] signature = chuid.getSignatureBytes();
+		byte[] content = chuid.getSignatureDataBytes();
+		if (signature == null || content == null) {
+			return false;
+		}
+		String key = digest(content) + digest(signature);
+		synchronized (this) {
+			Boolean valid = verifications.get(key);
+			if (valid != null) {
+				hits++;
+				return valid.booleanValue();
+			}
+			misses++;
+		}
+		boolean valid;
+		try {
+			valid = newSignedData(signature, content).verifySignature(false);
+		} catch (SignatureException e) {
+			valid = false;
+		}
+		synchronized (this) {
+			verifications.put(key, Boolean.valueOf(valid));
+		}
+		return valid;
+	}
+
+	/**
+	 * Method setRoster.
+	 *
+	 * @param credentials
+	 *            Collection<String> credential keys, see getCredentialKey(),
+	 *            or null for no roster
+	 */
+	public void setRoster(Collection<String> credentials) {
+		roster = credentials == null ? null : Collections
+				.unmodifiableSet(new HashSet<String>(credentials));
+	}
+
+	/**
+	 * Method isOnRoster.
+	 *
+	 * @param chuid
+	 *            PIVCardHolderUniqueID
+	 * @return Boolean whether the credential is on the roster, or null if
+	 *         there is no roster or the CHUID has no FASC-N
+	 */
+	public Boolean isOnRoster(PIVCardHolderUniqueID chuid) {
+		Set<String> current = roster;
+		if (current == null) {
+			return null;
+		}
+		String key = getCredentialKey(chuid);
+		if (key == null) {
+			return null;
+		}
+		return Boolean.valueOf(current.contains(key));
+	}
+
+	/**
+	 * Method getCredentialKey.
+	 *
+	 * @param chuid
+	 *            PIVCardHolderUniqueID
+	 * @return String the agency code, system code and credential number of
+	 *         the FASC-N (14 digits), or null
+	 */
+	public static String getCredentialKey(PIVCardHolderUniqueID chuid) {
+		try {
+			FASCN fascn = chuid.getFASCN();
+			if (fascn == null) {
+				return null;
+			}
+			return fascn.getAgencyCode() + fascn.getSystemCode()
+					+ fascn.getCredentialNumber();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the number of certificate and verification lookups answered
+	 *         from the cache
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of certificate and verification lookups that had
+	 *         to be computed
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Method clear.
+	 */
+	public synchronized void clear() {
+		certificates.clear();
+		verifications.clear();
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Method newSignedData.
+	 *
+	 * Verifies with the FIPS provider when it is installed, so a CHUID
+	 * gets the same answer whether or not a cache is in use.
+	 *
+	 * @param signature
+	 *            byte[]
+	 * @param content
+	 *            byte[]
+	 * @return CMSSignedDataObject
+	 * @throws SignatureException
+	 *             if the signature can not be parsed
+	 */
+	static CMSSignedDataObject newSignedData(byte[] signature, byte[] content)
+			throws SignatureException {
+		CMSSignedDataObject signedData = new CMSSignedDataObject(signature, content);
+		if (Security.getProvider(FIPS_PROVIDER) != null) {
+			signedData.setProviderName(FIPS_PROVIDER);
+		}
+		return signedData;
+	}
+
+	/**
+	 * Method digest.
+	 *
+	 * @param data
+	 *            byte[]
+	 * @return String the SHA-256 of data, in hex
+	 */
+	private static String digest(byte[] data) {
+		try {
+			return DataUtil.byteArrayToString(MessageDigest.getInstance("SHA-256")
+					.digest(data));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A LinkedHashMap in access order, dropping the eldest entry when full.
+	 */
+	private static class LRUMap<V> extends LinkedHashMap<String, V> {
+
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+
+		LRUMap(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+}
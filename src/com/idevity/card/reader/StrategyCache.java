@@ -0,0 +1,285 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.keysupport.util.DataUtil;
+
+import android.util.Log;
+
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * The CardStrategy of every card model read, so that each tap of a
+ * model skips what earlier taps found useless.
+ *
+ * The cache is bounded, least recently used first out, and is written
+ * to and read from a stream so it outlives the app.  It can be seeded
+ * from a table of known models, one per line:
+ *
+ * <pre>
+ * # historical bytes, PCAP or -, select, extended Le, absent containers
+ * 8073C021C057597562694B6579 - select=yes le=? absent=CARDHOLDER_IRIS_IMAGES
+ * </pre>
+ *
+ * where select is yes, no or ?, le is the Le of extended length GET
+ * DATA, 0 for short, or ?, and absent is a comma separated list of the
+ * containers the model can not hold.
+ * Entries for models already learned are ignored.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class StrategyCache {
+
+	private static final String TAG = StrategyCache.class.getSimpleName();
+	/**
+	 * Field DEFAULT_SIZE.
+	 */
+	public static final int DEFAULT_SIZE = 64;
+	/**
+	 * Field MAGIC.
+	 */
+	private static final int MAGIC = 0x50495653; // "PIVS"
+	/**
+	 * Field VERSION.
+	 */
+	private static final int VERSION = 2;
+	/**
+	 * Field strategies.
+	 */
+	private final Map<String, CardStrategy> strategies;
+
+	/**
+	 * Constructor for StrategyCache.
+	 */
+	public StrategyCache() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * Constructor for StrategyCache.
+	 *
+	 * @param size
+	 *            int the most card models kept
+	 */
+	public StrategyCache(final int size) {
+		this.strategies = new LinkedHashMap<String, CardStrategy>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CardStrategy> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	/**
+	 * Method find.
+	 *
+	 * @param historicalBytes
+	 *            byte[]
+	 * @return CardStrategy of the one model with these historical bytes,
+	 *         or null if there is none, or more than one that only a
+	 *         SELECT can tell apart
+	 */
+	public synchronized CardStrategy find(byte[] historicalBytes) {
+		CardStrategy found = null;
+		for (CardStrategy strategy : strategies.values()) {
+			if (strategy.matches(historicalBytes)) {
+				if (found != null) {
+					return null;
+				}
+				found = strategy;
+			}
+		}
+		if (found != null) {
+			strategies.get(found.getKey());
+		}
+		return found;
+	}
+
+	/**
+	 * Method find.
+	 *
+	 * @param historicalBytes
+	 *            byte[]
+	 * @param pcap
+	 *            byte[] or null
+	 * @return CardStrategy or null
+	 */
+	public synchronized CardStrategy find(byte[] historicalBytes, byte[] pcap) {
+		return strategies.get(CardStrategy.getKey(historicalBytes, pcap));
+	}
+
+	/**
+	 * Method get.
+	 *
+	 * @param historicalBytes
+	 *            byte[]
+	 * @param pcap
+	 *            byte[] or null
+	 * @return CardStrategy of the model, added if it is new
+	 */
+	public synchronized CardStrategy get(byte[] historicalBytes, byte[] pcap) {
+		String key = CardStrategy.getKey(historicalBytes, pcap);
+		CardStrategy strategy = strategies.get(key);
+		if (strategy == null) {
+			strategy = new CardStrategy(historicalBytes, pcap);
+			strategies.put(key, strategy);
+		}
+		return strategy;
+	}
+
+	/**
+	 * @return the number of card models kept
+	 */
+	public synchronized int size() {
+		return strategies.size();
+	}
+
+	/**
+	 * Method writeTo.
+	 *
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		List<CardStrategy> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<CardStrategy>(strategies.values());
+		}
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(snapshot.size());
+		for (CardStrategy strategy : snapshot) {
+			strategy.writeTo(data);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Method readFrom.
+	 *
+	 * Adds the models written by writeTo(), least recently used first, so
+	 * that the order is kept.
+	 *
+	 * @param in
+	 *            InputStream
+	 * @return int the number of models read
+	 * @throws IOException
+	 *             if the stream was not written by writeTo()
+	 */
+	public int readFrom(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+			throw new IOException("Not a strategy cache");
+		}
+		int count = data.readInt();
+		for (int i = 0; i < count; i++) {
+			CardStrategy strategy = CardStrategy.readFrom(data);
+			synchronized (this) {
+				strategies.put(strategy.getKey(), strategy);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Method loadSeed.
+	 *
+	 * @param in
+	 *            InputStream the seed table
+	 * @return int the number of models added
+	 * @throws IOException
+	 */
+	public int loadSeed(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+		int added = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+");
+			if (fields.length < 2) {
+				Log.e(TAG, "Bad seed entry: " + line);
+				continue;
+			}
+			byte[] historicalBytes = parseHex(fields[0]);
+			byte[] pcap = "-".equals(fields[1]) ? null : parseHex(fields[1]);
+			Boolean selectRequired = null;
+			int extendedLe = CardStrategy.UNKNOWN;
+			List<PIVContainer> absent = new ArrayList<PIVContainer>();
+			try {
+				for (int i = 2; i < fields.length; i++) {
+					String field = fields[i];
+					if (field.startsWith("select=")) {
+						String value = field.substring(7);
+						if (!"?".equals(value)) {
+							selectRequired = Boolean.valueOf("yes".equals(value));
+						}
+					} else if (field.startsWith("le=")) {
+						String value = field.substring(3);
+						if (!"?".equals(value)) {
+							extendedLe = Integer.parseInt(value);
+						}
+					} else if (field.startsWith("absent=")) {
+						for (String name : field.substring(7).split(",")) {
+							absent.add(PIVContainer.valueOf(name));
+						}
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, "Bad seed entry: " + line);
+				continue;
+			}
+			synchronized (this) {
+				if (find(historicalBytes, pcap) == null) {
+					get(historicalBytes, pcap).seed(selectRequired, extendedLe,
+							absent.toArray(new PIVContainer[absent.size()]));
+					added++;
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Method parseHex.
+	 *
+	 * @param hex
+	 *            String
+	 * @return byte[]
+	 */
+	private static byte[] parseHex(String hex) {
+		return DataUtil.stringToByteArray(hex.toUpperCase(Locale.US));
+	}
+
+}
@@ -0,0 +1,258 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bounded trace of a reader's sessions.
+ *
+ * Records are kept in a ring; once it is full, each new record replaces
+ * the oldest.  Nothing is formatted until the trace is read with drain(),
+ * export() or toString(), and a record above the level of the trace is
+ * not made at all, so an unread trace costs little and a disabled one
+ * next to nothing.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class TraceBuffer {
+
+	/**
+	 * Field DEFAULT_CAPACITY.
+	 * Enough for an audit read with every APDU traced.
+	 */
+	public static final int DEFAULT_CAPACITY = 512;
+	/**
+	 * Field records.
+	 */
+	private final TraceRecord[] records;
+	/**
+	 * Field level.
+	 */
+	private volatile TraceLevel level;
+	/**
+	 * Field written.
+	 * Records ever added; the next goes to written % records.length.
+	 */
+	private long written = 0;
+	/**
+	 * Field drained.
+	 * Records handed out by drain() so far.
+	 */
+	private long drained = 0;
+
+	/**
+	 * Constructor for TraceBuffer.
+	 *
+	 * @param capacity
+	 *            int the records kept
+	 * @param level
+	 *            TraceLevel
+	 */
+	public TraceBuffer(int capacity, TraceLevel level) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		this.records = new TraceRecord[capacity];
+		this.level = level;
+	}
+
+	/**
+	 * @return the level
+	 */
+	public TraceLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * @param level the level to record at
+	 */
+	public void setLevel(TraceLevel level) {
+		this.level = level;
+	}
+
+	/**
+	 * Method isEnabled.
+	 *
+	 * @param level
+	 *            TraceLevel
+	 * @return boolean true if records at the given level are kept; check
+	 *         before building an expensive message
+	 */
+	public boolean isEnabled(TraceLevel level) {
+		return this.level.includes(level);
+	}
+
+	/**
+	 * Method message.
+	 *
+	 * @param level
+	 *            TraceLevel
+	 * @param time
+	 *            long since the start of the session (value is in
+	 *            milliseconds)
+	 * @param message
+	 *            String
+	 * @return TraceRecord or null if the level is not enabled
+	 */
+	public TraceRecord message(TraceLevel level, long time, String message) {
+		if (!isEnabled(level)) {
+			return null;
+		}
+		return add(new TraceRecord(time, TraceRecord.Type.MESSAGE, level,
+				message, null, 0));
+	}
+
+	/**
+	 * Method command.
+	 *
+	 * @param time
+	 *            long since the start of the session (value is in
+	 *            milliseconds)
+	 * @param apdu
+	 *            byte[] held by reference; pass a copy if it is reused
+	 * @param length
+	 *            int
+	 * @return TraceRecord or null if APDUs are not traced
+	 */
+	public TraceRecord command(long time, byte[] apdu, int length) {
+		if (!isEnabled(TraceLevel.APDU)) {
+			return null;
+		}
+		return add(new TraceRecord(time, TraceRecord.Type.COMMAND,
+				TraceLevel.APDU, null, apdu, length));
+	}
+
+	/**
+	 * Method response.
+	 *
+	 * @param time
+	 *            long since the start of the session (value is in
+	 *            milliseconds)
+	 * @param apdu
+	 *            byte[] held by reference; pass a copy if it is reused
+	 * @param length
+	 *            int including the status word
+	 * @return TraceRecord or null if APDUs are not traced
+	 */
+	public TraceRecord response(long time, byte[] apdu, int length) {
+		if (!isEnabled(TraceLevel.APDU)) {
+			return null;
+		}
+		return add(new TraceRecord(time, TraceRecord.Type.RESPONSE,
+				TraceLevel.APDU, null, apdu, length));
+	}
+
+	/**
+	 * @return true if records were added since the last drain()
+	 */
+	public synchronized boolean hasUnread() {
+		return written > drained;
+	}
+
+	/**
+	 * Method drain.
+	 *
+	 * @return String the records added since the last drain(), one line
+	 *         each, noting those the ring overwrote before they were read
+	 */
+	public synchronized String drain() {
+		StringBuilder out = new StringBuilder();
+		long first = Math.max(drained, written - records.length);
+		if (first > drained) {
+			out.append("[Trace: ").append(first - drained)
+					.append(" entries dropped]\n");
+		}
+		for (long i = first; i < written; i++) {
+			out.append(records[(int) (i % records.length)]).append('\n');
+		}
+		drained = written;
+		return out.toString();
+	}
+
+	/**
+	 * @return List<TraceRecord> the records kept, oldest first
+	 */
+	public synchronized List<TraceRecord> getRecords() {
+		long first = Math.max(0, written - records.length);
+		List<TraceRecord> kept = new ArrayList<TraceRecord>((int) (written - first));
+		for (long i = first; i < written; i++) {
+			kept.add(records[(int) (i % records.length)]);
+		}
+		return kept;
+	}
+
+	/**
+	 * @return the records the ring has overwritten
+	 */
+	public synchronized long getDropped() {
+		return Math.max(0, written - records.length);
+	}
+
+	/**
+	 * Method export.
+	 *
+	 * Formats the records kept, whether drained or not.
+	 *
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void export(Appendable out) throws IOException {
+		for (TraceRecord record : getRecords()) {
+			out.append(record.toString()).append('\n');
+		}
+	}
+
+	/**
+	 * Method clear.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(records, null);
+		written = 0;
+		drained = 0;
+	}
+
+	/**
+	 * @return String the records kept, one line each
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		try {
+			export(out);
+		} catch (IOException e) {
+			// StringBuilder does not throw
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Method add.
+	 *
+	 * @param record
+	 *            TraceRecord
+	 * @return TraceRecord
+	 */
+	private synchronized TraceRecord add(TraceRecord record) {
+		records[(int) (written % records.length)] = record;
+		written++;
+		return record;
+	}
+
+}
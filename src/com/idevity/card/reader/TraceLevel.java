@@ -0,0 +1,59 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+/**
+ * How much a CardReader80073 records in its trace.
+ *
+ * Each level records what the levels before it do, and more.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public enum TraceLevel {
+
+	/**
+	 * Nothing is recorded.
+	 */
+	OFF,
+	/**
+	 * Failures only.
+	 */
+	ERROR,
+	/**
+	 * The progress of each read.
+	 */
+	INFO,
+	/**
+	 * Card and platform details, and timings.
+	 */
+	DEBUG,
+	/**
+	 * Every command and response.
+	 */
+	APDU;
+
+	/**
+	 * Method includes.
+	 *
+	 * @param level
+	 *            TraceLevel
+	 * @return boolean true if a trace at this level records entries at
+	 *         the given level
+	 */
+	public boolean includes(TraceLevel level) {
+		return level != OFF && level.ordinal() <= ordinal();
+	}
+
+}
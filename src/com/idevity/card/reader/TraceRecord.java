@@ -0,0 +1,232 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.reader;
+
+import java.util.Arrays;
+
+import org.keysupport.util.DataUtil;
+
+/**
+ * One entry of a TraceBuffer.
+ *
+ * A record holds what was known when it was made; nothing is formatted
+ * until toString() is called, so that reads nobody looks at the trace of
+ * pay only for the record itself.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class TraceRecord {
+
+	/**
+	 * What a record describes.
+	 */
+	public enum Type {
+		/**
+		 * A log message.
+		 */
+		MESSAGE,
+		/**
+		 * A command APDU sent to the card.
+		 */
+		COMMAND,
+		/**
+		 * A response APDU, status word included.
+		 */
+		RESPONSE
+	}
+
+	/**
+	 * Field NO_SW.
+	 */
+	public static final int NO_SW = -1;
+	/**
+	 * Field NO_TAG.
+	 */
+	public static final int NO_TAG = -1;
+	/**
+	 * Field INS_GET_DATA.
+	 */
+	private static final int INS_GET_DATA = 0xcb;
+	/**
+	 * Field TAG_LIST.
+	 */
+	private static final int TAG_LIST = 0x5c;
+	/**
+	 * Field time.
+	 */
+	private final long time;
+	/**
+	 * Field type.
+	 */
+	private final Type type;
+	/**
+	 * Field level.
+	 */
+	private final TraceLevel level;
+	/**
+	 * Field message.
+	 */
+	private final String message;
+	/**
+	 * Field data.
+	 */
+	private final byte[] data;
+	/**
+	 * Field length.
+	 */
+	private final int length;
+	/**
+	 * Field sw.
+	 */
+	private final int sw;
+
+	/**
+	 * Constructor for TraceRecord.
+	 *
+	 * @param time
+	 *            long since the start of the session (value is in
+	 *            milliseconds)
+	 * @param type
+	 *            Type
+	 * @param level
+	 *            TraceLevel
+	 * @param message
+	 *            String or null for an APDU
+	 * @param data
+	 *            byte[] the APDU, held by reference, or null for a message
+	 * @param length
+	 *            int the length of the APDU in data
+	 */
+	TraceRecord(long time, Type type, TraceLevel level, String message,
+			byte[] data, int length) {
+		this.time = time;
+		this.type = type;
+		this.level = level;
+		this.message = message;
+		this.data = data;
+		this.length = length;
+		if (type == Type.RESPONSE && length >= 2) {
+			this.sw = ((data[length - 2] & 0xff) << 8) | (data[length - 1] & 0xff);
+		} else {
+			this.sw = NO_SW;
+		}
+	}
+
+	/**
+	 * @return the time since the start of the session (value is in
+	 *         milliseconds)
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the level
+	 */
+	public TraceLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the message, or null for an APDU
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the APDU, or null for a message.  The array is not copied
+	 *         and may be longer than getLength().
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return the length of the APDU, or 0 for a message
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the status word of a response, or NO_SW
+	 */
+	public int getSW() {
+		return sw;
+	}
+
+	/**
+	 * Method getTag.
+	 *
+	 * @return int the tag a GET DATA command asks for, e.g., 0x5fc102, or
+	 *         NO_TAG
+	 */
+	public int getTag() {
+		if (type != Type.COMMAND || length < 7
+				|| (data[1] & 0xff) != INS_GET_DATA) {
+			return NO_TAG;
+		}
+		/*
+		 * Lc is one byte, or three starting with 00 for extended length
+		 */
+		int offset = data[4] == 0 ? 7 : 5;
+		if (offset + 2 > length || (data[offset] & 0xff) != TAG_LIST) {
+			return NO_TAG;
+		}
+		int tagLength = data[offset + 1] & 0xff;
+		if (tagLength == 0 || tagLength > 3 || offset + 2 + tagLength > length) {
+			return NO_TAG;
+		}
+		int tag = 0;
+		for (int i = 0; i < tagLength; i++) {
+			tag = (tag << 8) | (data[offset + 2 + i] & 0xff);
+		}
+		return tag;
+	}
+
+	/**
+	 * @return String the record as a log line, without the newline
+	 */
+	@Override
+	public String toString() {
+		switch (type) {
+		case COMMAND:
+			return "[" + time + "ms][Reader] --> " + hex();
+		case RESPONSE:
+			return "[" + time + "ms][Reader] <-- " + hex();
+		default:
+			return "[" + time + "ms]" + message;
+		}
+	}
+
+	/**
+	 * @return String the APDU in hex
+	 */
+	private String hex() {
+		if (length == data.length) {
+			return DataUtil.byteArrayToString(data);
+		}
+		return DataUtil.byteArrayToString(Arrays.copyOf(data, length));
+	}
+
+}
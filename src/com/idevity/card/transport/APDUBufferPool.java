@@ -0,0 +1,114 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+/**
+ * A small pool of APDU buffers, so a read session can borrow its command
+ * and response buffers rather than allocate them on every tap.
+ * 
+ * Buffers come in two sizes: SHORT_BUFFER holds any short APDU command or
+ * response, EXTENDED_BUFFER holds any extended length one.  Up to
+ * MAX_POOLED buffers of each size are kept.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class APDUBufferPool {
+
+	/**
+	 * Field SHORT_BUFFER.
+	 * (value is 261, CLA INS P1 P2 Lc + 255 + Le)
+	 */
+	public static final int SHORT_BUFFER = 261;
+	/**
+	 * Field EXTENDED_BUFFER.
+	 * (value is 65546, CLA INS P1 P2 00 Lc Lc + 65535 + Le Le)
+	 */
+	public static final int EXTENDED_BUFFER = 65546;
+	/**
+	 * Field MAX_POOLED.
+	 */
+	private static final int MAX_POOLED = 4;
+	/**
+	 * Field shortBuffers.
+	 */
+	private static final byte[][] shortBuffers = new byte[MAX_POOLED][];
+	/**
+	 * Field extendedBuffers.
+	 */
+	private static final byte[][] extendedBuffers = new byte[MAX_POOLED][];
+	/**
+	 * Field shortCount.
+	 */
+	private static int shortCount = 0;
+	/**
+	 * Field extendedCount.
+	 */
+	private static int extendedCount = 0;
+
+	/**
+	 * Hidden Constructor for APDUBufferPool.
+	 */
+	private APDUBufferPool() {
+		// Hide default constructor
+	}
+
+	/**
+	 * Method acquire.
+	 * 
+	 * @param minSize
+	 *            int
+	 * @return byte[] a buffer of at least minSize bytes
+	 */
+	public static synchronized byte[] acquire(int minSize) {
+		if (minSize <= SHORT_BUFFER) {
+			if (shortCount > 0) {
+				byte[] buffer = shortBuffers[--shortCount];
+				shortBuffers[shortCount] = null;
+				return buffer;
+			}
+			return new byte[SHORT_BUFFER];
+		}
+		if (minSize <= EXTENDED_BUFFER) {
+			if (extendedCount > 0) {
+				byte[] buffer = extendedBuffers[--extendedCount];
+				extendedBuffers[extendedCount] = null;
+				return buffer;
+			}
+			return new byte[EXTENDED_BUFFER];
+		}
+		return new byte[minSize];
+	}
+
+	/**
+	 * Method release.
+	 * 
+	 * Return a buffer obtained from acquire().  The caller must not use
+	 * it afterwards.
+	 * 
+	 * @param buffer
+	 *            byte[]
+	 */
+	public static synchronized void release(byte[] buffer) {
+		if (buffer == null) {
+			return;
+		}
+		if (buffer.length == SHORT_BUFFER && shortCount < MAX_POOLED) {
+			shortBuffers[shortCount++] = buffer;
+		} else if (buffer.length == EXTENDED_BUFFER && extendedCount < MAX_POOLED) {
+			extendedBuffers[extendedCount++] = buffer;
+		}
+	}
+
+}
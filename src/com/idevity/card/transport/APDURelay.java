@@ -0,0 +1,148 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The wire format shared by APDURelayServer and RemoteCardTransport.
+ *
+ * All integers are big endian.  The client sends a request and reads
+ * exactly one reply before sending the next.
+ *
+ * <pre>
+ * INFO request:   type (1), secret (UTF)
+ * BATCH request:  type (2), generation (4), flags (1), count (2),
+ *                 count * { length (4), command }
+ * INFO reply:     status (1), and, if status is OK, generation (4),
+ *                 maxTransceive (4), extended length (1),
+ *                 historical bytes length (2), historical bytes,
+ *                 UID length (1), UID
+ * BATCH reply:    status (1), generation (4), count (2),
+ *                 count * { length (4), response },
+ *                 and, if status is ERROR, a message (UTF)
+ * </pre>
+ *
+ * A connection must start with an INFO request carrying the secret the
+ * server was created with; otherwise the server replies DENIED and
+ * closes it.
+ *
+ * The generation counts the cards the server has been given.  A BATCH
+ * carries the generation the client learned from INFO and is answered
+ * CARD_LOST, without touching the card, once another card has taken its
+ * place.  A BATCH reply holds one response per command executed.  With
+ * FLAG_STOP_ON_ERROR that may be fewer than the commands sent.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class APDURelay {
+
+	/**
+	 * Field DEFAULT_PORT.
+	 */
+	public static final int DEFAULT_PORT = 35963;
+	/**
+	 * Field FLAG_GET_RESPONSE.
+	 * Follow 61xx with GET RESPONSE and return the assembled response.
+	 */
+	public static final int FLAG_GET_RESPONSE = 0x01;
+	/**
+	 * Field FLAG_STOP_ON_ERROR.
+	 * Skip the rest of the batch after a status other than 9000.
+	 */
+	public static final int FLAG_STOP_ON_ERROR = 0x02;
+	/**
+	 * Field MAX_BATCH.
+	 */
+	public static final int MAX_BATCH = 0xffff;
+	/**
+	 * Field TYPE_INFO.
+	 */
+	static final int TYPE_INFO = 1;
+	/**
+	 * Field TYPE_BATCH.
+	 */
+	static final int TYPE_BATCH = 2;
+	/**
+	 * Field STATUS_OK.
+	 */
+	static final int STATUS_OK = 0;
+	/**
+	 * Field STATUS_CARD_LOST.
+	 * No card, or the card left the field during the batch.
+	 */
+	static final int STATUS_CARD_LOST = 1;
+	/**
+	 * Field STATUS_ERROR.
+	 */
+	static final int STATUS_ERROR = 2;
+	/**
+	 * Field STATUS_DENIED.
+	 * The secret was wrong or missing; the connection is closed.
+	 */
+	static final int STATUS_DENIED = 3;
+	/**
+	 * Field MAX_MESSAGE.
+	 * The largest command or response accepted, well above any PIV
+	 * data object.
+	 */
+	static final int MAX_MESSAGE = 1 << 20;
+
+	/**
+	 * Hidden Constructor for APDURelay.
+	 */
+	private APDURelay() {
+		// Hide default constructor
+	}
+
+	/**
+	 * Method writeBytes.
+	 *
+	 * @param out
+	 *            DataOutputStream
+	 * @param data
+	 *            byte[]
+	 * @param length
+	 *            int
+	 * @throws IOException
+	 */
+	static void writeBytes(DataOutputStream out, byte[] data, int length)
+			throws IOException {
+		out.writeInt(length);
+		out.write(data, 0, length);
+	}
+
+	/**
+	 * Method readBytes.
+	 *
+	 * @param in
+	 *            DataInputStream
+	 * @return byte[]
+	 * @throws IOException
+	 *             if the length is not plausible
+	 */
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_MESSAGE) {
+			throw new IOException("Bad relay message length: " + length);
+		}
+		byte[] data = new byte[length];
+		in.readFully(data);
+		return data;
+	}
+
+}
@@ -0,0 +1,466 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.idevity.android.CardLostException;
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * Lets a host drive a CardTransport over TCP, see APDURelay.
+ *
+ * The server accepts one client at a time on its own thread and runs
+ * each batch of commands against the current card, so a host pays one
+ * network round trip per batch rather than per APDU.  With
+ * FLAG_GET_RESPONSE the 61xx chaining is also done here, next to the
+ * card.  The card can be replaced at any time, e.g., on every tap; a
+ * batch runs against the card that was current when it arrived, and a
+ * batch meant for an earlier card is refused.
+ *
+ * On a handset, bind to the loopback address and reach it from the host
+ * with "adb forward tcp:PORT tcp:PORT".  Any local app can connect to
+ * the loopback address too, so each client must first present the
+ * per-session secret, which the user reads off the handset.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class APDURelayServer {
+
+	/**
+	 * Field SECRET_LENGTH.
+	 * (value is in bytes, shown as twice as many hex digits)
+	 */
+	private static final int SECRET_LENGTH = 8;
+	/**
+	 * Field UTF8.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/**
+	 * Field serverSocket.
+	 */
+	private final ServerSocket serverSocket;
+	/**
+	 * Field secret.
+	 */
+	private final byte[] secret;
+	/**
+	 * Field card.
+	 */
+	private CardTransport card = null;
+	/**
+	 * Field generation.
+	 * Incremented whenever the card is replaced.
+	 */
+	private int generation = 0;
+	/**
+	 * Field thread.
+	 */
+	private Thread thread = null;
+	/**
+	 * Field client.
+	 */
+	private Socket client = null;
+	/**
+	 * Field running.
+	 */
+	private volatile boolean running = false;
+	/**
+	 * Field batches.
+	 */
+	private int batches = 0;
+	/**
+	 * Field commands.
+	 */
+	private int commands = 0;
+	/**
+	 * Field exchanges.
+	 */
+	private int exchanges = 0;
+
+	/**
+	 * Constructor for APDURelayServer.
+	 *
+	 * @param serverSocket
+	 *            ServerSocket a bound socket
+	 * @param secret
+	 *            String the secret every client must present
+	 */
+	public APDURelayServer(ServerSocket serverSocket, String secret) {
+		this.serverSocket = serverSocket;
+		this.secret = secret.getBytes(UTF8);
+	}
+
+	/**
+	 * Method bindLoopback.
+	 *
+	 * @param port
+	 *            int or 0 for any free port
+	 * @param secret
+	 *            String the secret every client must present
+	 * @return APDURelayServer listening on 127.0.0.1 only
+	 * @throws IOException
+	 */
+	public static APDURelayServer bindLoopback(int port, String secret)
+			throws IOException {
+		return new APDURelayServer(new ServerSocket(port, 1,
+				InetAddress.getByName("127.0.0.1")), secret);
+	}
+
+	/**
+	 * Method newSecret.
+	 *
+	 * @return String a random secret for one relay session, in hex
+	 */
+	public static String newSecret() {
+		byte[] random = new byte[SECRET_LENGTH];
+		new SecureRandom().nextBytes(random);
+		StringBuilder sb = new StringBuilder(random.length * 2);
+		for (byte b : random) {
+			sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+			sb.append(Character.forDigit(b & 0x0f, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @param card the card to relay to, or null if there is none
+	 */
+	public synchronized void setCard(CardTransport card) {
+		if (card != this.card) {
+			this.card = card;
+			generation++;
+		}
+	}
+
+	/**
+	 * @return the generation of the current card
+	 */
+	public synchronized int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the current card, or null
+	 */
+	public synchronized CardTransport getCard() {
+		return card;
+	}
+
+	/**
+	 * Method start.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					Socket socket;
+					try {
+						socket = serverSocket.accept();
+					} catch (IOException e) {
+						break;
+					}
+					synchronized (APDURelayServer.this) {
+						client = socket;
+					}
+					try {
+						serve(socket);
+					} catch (IOException e) {
+						// Client went away, wait for the next one
+					} finally {
+						close(socket);
+						synchronized (APDURelayServer.this) {
+							client = null;
+						}
+					}
+				}
+			}
+		}, "APDU relay thread");
+		thread.start();
+	}
+
+	/**
+	 * Method stop.
+	 *
+	 * Closes the listening socket and any client.  The card is not
+	 * closed.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			running = false;
+			t = thread;
+			thread = null;
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				// Nothing further to release
+			}
+			if (client != null) {
+				close(client);
+			}
+		}
+		if (t != null && t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the server has been started and not stopped
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the number of batches run
+	 */
+	public synchronized int getBatches() {
+		return batches;
+	}
+
+	/**
+	 * @return the number of commands received in batches
+	 */
+	public synchronized int getCommands() {
+		return commands;
+	}
+
+	/**
+	 * @return the number of APDUs exchanged with the card, including GET
+	 *         RESPONSE
+	 */
+	public synchronized int getExchanges() {
+		return exchanges;
+	}
+
+	/**
+	 * Method serve.
+	 *
+	 * @param socket
+	 *            Socket
+	 * @throws IOException
+	 */
+	private void serve(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				socket.getOutputStream()));
+		boolean admitted = false;
+		while (running) {
+			int type;
+			try {
+				type = in.readUnsignedByte();
+			} catch (EOFException e) {
+				return;
+			}
+			switch (type) {
+			case APDURelay.TYPE_INFO:
+				admitted = MessageDigest.isEqual(secret,
+						in.readUTF().getBytes(UTF8));
+				if (!admitted) {
+					deny(out);
+					return;
+				}
+				info(out);
+				break;
+			case APDURelay.TYPE_BATCH:
+				if (!admitted) {
+					deny(out);
+					return;
+				}
+				batch(in, out);
+				break;
+			default:
+				throw new IOException("Unknown relay request: " + type);
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Method info.
+	 *
+	 * @param out
+	 *            DataOutputStream
+	 * @throws IOException
+	 */
+	private void info(DataOutputStream out) throws IOException {
+		CardTransport current;
+		int currentGeneration;
+		synchronized (this) {
+			current = card;
+			currentGeneration = generation;
+		}
+		if (current == null || !current.isConnected()) {
+			out.writeByte(APDURelay.STATUS_CARD_LOST);
+			return;
+		}
+		byte[] hb = current.getHistoricalBytes();
+		byte[] uid = current.getCardIdentifier();
+		if (uid == null) {
+			uid = new byte[0];
+		}
+		out.writeByte(APDURelay.STATUS_OK);
+		out.writeInt(currentGeneration);
+		out.writeInt(current.getMaxTransceiveLength());
+		out.writeByte(current.isExtendedLengthApduSupported() ? 1 : 0);
+		out.writeShort(hb.length);
+		out.write(hb);
+		out.writeByte(uid.length);
+		out.write(uid);
+	}
+
+	/**
+	 * Method batch.
+	 *
+	 * Reads the whole batch, runs it, then writes every response.  A
+	 * batch for another generation is not run.
+	 *
+	 * @param in
+	 *            DataInputStream
+	 * @param out
+	 *            DataOutputStream
+	 * @throws IOException
+	 */
+	private void batch(DataInputStream in, DataOutputStream out) throws IOException {
+		int expected = in.readInt();
+		int flags = in.readUnsignedByte();
+		int count = in.readUnsignedShort();
+		byte[][] batch = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			batch[i] = APDURelay.readBytes(in);
+		}
+		List<byte[]> responses = new ArrayList<byte[]>(count);
+		int status = APDURelay.STATUS_OK;
+		String message = null;
+		int apdus = 0;
+		CardTransport current;
+		int currentGeneration;
+		synchronized (this) {
+			current = card;
+			currentGeneration = generation;
+		}
+		if (current == null || currentGeneration != expected) {
+			status = APDURelay.STATUS_CARD_LOST;
+		} else {
+			byte[] buffer = APDUBufferPool.acquire(current.getMaxTransceiveLength());
+			ResponseAssembler assembler = new ResponseAssembler(current, buffer);
+			try {
+				for (byte[] command : batch) {
+					byte[] response;
+					int sw;
+					if ((flags & APDURelay.FLAG_GET_RESPONSE) != 0) {
+						sw = assembler.transmit(command, command.length);
+						apdus += assembler.getExchanges();
+						byte[] data = assembler.getData();
+						int length = data == null ? 0 : data.length;
+						response = data == null ? new byte[2] : Arrays.copyOf(data, length + 2);
+						response[length] = (byte) (sw >> 8);
+						response[length + 1] = (byte) sw;
+					} else {
+						int length = current.transmit(command, command.length, buffer);
+						apdus++;
+						response = Arrays.copyOf(buffer, length);
+						sw = TransportUtil.getSW(buffer, length);
+					}
+					responses.add(response);
+					if (sw != 0x9000 && (flags & APDURelay.FLAG_STOP_ON_ERROR) != 0) {
+						break;
+					}
+				}
+			} catch (CardLostException e) {
+				status = APDURelay.STATUS_CARD_LOST;
+			} catch (InvalidResponseException e) {
+				status = APDURelay.STATUS_ERROR;
+				message = String.valueOf(e.getMessage());
+			} finally {
+				APDUBufferPool.release(buffer);
+			}
+		}
+		synchronized (this) {
+			batches++;
+			commands += count;
+			exchanges += apdus;
+		}
+		out.writeByte(status);
+		out.writeInt(currentGeneration);
+		out.writeShort(responses.size());
+		for (byte[] response : responses) {
+			APDURelay.writeBytes(out, response, response.length);
+		}
+		if (status == APDURelay.STATUS_ERROR) {
+			out.writeUTF(message);
+		}
+	}
+
+	/**
+	 * Method deny.
+	 *
+	 * @param out
+	 *            DataOutputStream
+	 * @throws IOException
+	 */
+	private static void deny(DataOutputStream out) throws IOException {
+		out.writeByte(APDURelay.STATUS_DENIED);
+		out.flush();
+	}
+
+	/**
+	 * Method close.
+	 *
+	 * @param socket
+	 *            Socket
+	 */
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing further to release
+		}
+	}
+
+}
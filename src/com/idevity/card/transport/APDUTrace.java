@@ -0,0 +1,466 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A binary APDU trace, as written by RecordingCardTransport and played
+ * back by ReplayCardTransport.
+ *
+ * All integers are big endian.
+ * <pre>
+ * Header:  'P' 'I' 'V' 'T'  magic
+ *          version          1 byte (1)
+ *          max transceive   4 bytes
+ *          EL-APDU support  1 byte (0 or 1)
+ *          historical bytes 2 byte length, value
+ *          card identifier  1 byte length, value
+ * Frame:   type             1 byte (1 command, 2 response, 3 card lost)
+ *          time             4 bytes, microseconds since the trace started,
+ *                           at most 2^31 - 1
+ *          data             4 byte length, value
+ * </pre>
+ *
+ * The data field of VERIFY, CHANGE REFERENCE DATA and RESET RETRY
+ * COUNTER commands, i.e., the PIN and PUK, is zeroed when recorded.
+ * Those commands, and GENERAL AUTHENTICATE, whose challenge is drawn
+ * fresh for every read, are matched on their header and length alone
+ * when played back.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class APDUTrace {
+
+	/**
+	 * Field MAGIC.
+	 */
+	static final byte[] MAGIC = { 'P', 'I', 'V', 'T' };
+	/**
+	 * Field VERSION.
+	 */
+	static final int VERSION = 1;
+	/**
+	 * Field COMMAND.
+	 */
+	public static final int COMMAND = 1;
+	/**
+	 * Field RESPONSE.
+	 */
+	public static final int RESPONSE = 2;
+	/**
+	 * Field CARD_LOST.
+	 */
+	public static final int CARD_LOST = 3;
+	/**
+	 * Field HEADER_LENGTH.
+	 */
+	private static final int HEADER_LENGTH = 4;
+	/*
+	 * Commands whose data is not played back byte for byte
+	 */
+	private static final int INS_VERIFY = 0x20;
+	private static final int INS_CHANGE_REFERENCE_DATA = 0x24;
+	private static final int INS_RESET_RETRY_COUNTER = 0x2c;
+	private static final int INS_GENERAL_AUTHENTICATE = 0x87;
+	/**
+	 * Field maxTransceive.
+	 */
+	private final int maxTransceive;
+	/**
+	 * Field elApduSupport.
+	 */
+	private final boolean elApduSupport;
+	/**
+	 * Field historicalBytes.
+	 */
+	private final byte[] historicalBytes;
+	/**
+	 * Field cardIdentifier.
+	 */
+	private final byte[] cardIdentifier;
+	/**
+	 * Field frames.
+	 */
+	private final List<Frame> frames;
+
+	/**
+	 * Constructor for APDUTrace.
+	 *
+	 * @param maxTransceive
+	 *            int
+	 * @param elApduSupport
+	 *            boolean
+	 * @param historicalBytes
+	 *            byte[]
+	 * @param cardIdentifier
+	 *            byte[] may be null
+	 * @param frames
+	 *            List<Frame>
+	 */
+	APDUTrace(int maxTransceive, boolean elApduSupport, byte[] historicalBytes,
+			byte[] cardIdentifier, List<Frame> frames) {
+		this.maxTransceive = maxTransceive;
+		this.elApduSupport = elApduSupport;
+		this.historicalBytes = historicalBytes;
+		this.cardIdentifier = cardIdentifier;
+		this.frames = Collections.unmodifiableList(frames);
+	}
+
+	/**
+	 * Method parse.
+	 *
+	 * @param trace
+	 *            byte[]
+	 * @return APDUTrace
+	 * @throws IllegalArgumentException
+	 *             if this is not a trace, or it is truncated
+	 */
+	public static APDUTrace parse(byte[] trace) {
+		if (trace.length < MAGIC.length + 8) {
+			throw new IllegalArgumentException("Not an APDU trace");
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (trace[i] != MAGIC[i]) {
+				throw new IllegalArgumentException("Not an APDU trace");
+			}
+		}
+		int offset = MAGIC.length;
+		if (trace[offset++] != VERSION) {
+			throw new IllegalArgumentException("Unsupported trace version: "
+					+ trace[offset - 1]);
+		}
+		try {
+			int maxTransceive = readInt(trace, offset);
+			offset += 4;
+			boolean elApduSupport = trace[offset++] != 0;
+			int hbLength = ((trace[offset] & 0xff) << 8) | (trace[offset + 1] & 0xff);
+			offset += 2;
+			byte[] historicalBytes = copy(trace, offset, hbLength);
+			offset += hbLength;
+			int idLength = trace[offset++] & 0xff;
+			byte[] cardIdentifier = idLength == 0 ? null : copy(trace, offset, idLength);
+			offset += idLength;
+			List<Frame> frames = new ArrayList<Frame>();
+			while (offset < trace.length) {
+				int type = trace[offset++];
+				int micros = readInt(trace, offset);
+				offset += 4;
+				int length = readInt(trace, offset);
+				offset += 4;
+				frames.add(new Frame(type, micros, copy(trace, offset, length)));
+				offset += length;
+			}
+			return new APDUTrace(maxTransceive, elApduSupport, historicalBytes,
+					cardIdentifier, frames);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated APDU trace");
+		}
+	}
+
+	/**
+	 * Method writeHeader.
+	 *
+	 * @param out
+	 *            ByteArrayOutputStream
+	 * @param maxTransceive
+	 *            int
+	 * @param elApduSupport
+	 *            boolean
+	 * @param historicalBytes
+	 *            byte[]
+	 * @param cardIdentifier
+	 *            byte[] may be null
+	 */
+	static void writeHeader(ByteArrayOutputStream out, int maxTransceive,
+			boolean elApduSupport, byte[] historicalBytes, byte[] cardIdentifier) {
+		out.write(MAGIC, 0, MAGIC.length);
+		out.write(VERSION);
+		writeInt(out, maxTransceive);
+		out.write(elApduSupport ? 1 : 0);
+		out.write(historicalBytes.length >> 8);
+		out.write(historicalBytes.length);
+		out.write(historicalBytes, 0, historicalBytes.length);
+		if (cardIdentifier == null) {
+			out.write(0);
+		} else {
+			out.write(cardIdentifier.length);
+			out.write(cardIdentifier, 0, cardIdentifier.length);
+		}
+	}
+
+	/**
+	 * Method writeFrame.
+	 *
+	 * @param out
+	 *            ByteArrayOutputStream
+	 * @param type
+	 *            int
+	 * @param micros
+	 *            int
+	 * @param data
+	 *            byte[]
+	 * @param length
+	 *            int
+	 */
+	static void writeFrame(ByteArrayOutputStream out, int type, int micros,
+			byte[] data, int length) {
+		out.write(type);
+		writeInt(out, micros);
+		writeInt(out, length);
+		out.write(data, 0, length);
+	}
+
+	/**
+	 * Method redact.
+	 *
+	 * @param apdu
+	 *            byte[] a command APDU
+	 * @param length
+	 *            int
+	 * @return byte[] a copy of the command with its data field zeroed if
+	 *         it carries a PIN or PUK, otherwise apdu itself
+	 */
+	static byte[] redact(byte[] apdu, int length) {
+		if (length <= HEADER_LENGTH + 1 || !isSecret(apdu[1])) {
+			return apdu;
+		}
+		byte[] redacted = new byte[length];
+		System.arraycopy(apdu, 0, redacted, 0, length);
+		int offset;
+		int lc;
+		if (apdu[4] != 0) {
+			offset = HEADER_LENGTH + 1;
+			lc = apdu[4] & 0xff;
+		} else if (length > HEADER_LENGTH + 3) {
+			offset = HEADER_LENGTH + 3;
+			lc = ((apdu[5] & 0xff) << 8) | (apdu[6] & 0xff);
+		} else {
+			return redacted;
+		}
+		Arrays.fill(redacted, offset, Math.min(length, offset + lc), (byte) 0);
+		return redacted;
+	}
+
+	/**
+	 * Method isSecret.
+	 *
+	 * @param ins
+	 *            byte
+	 * @return boolean true for the commands that carry a PIN or PUK
+	 */
+	private static boolean isSecret(byte ins) {
+		switch (ins & 0xff) {
+		case INS_VERIFY:
+		case INS_CHANGE_REFERENCE_DATA:
+		case INS_RESET_RETRY_COUNTER:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Method isHeaderMatched.
+	 *
+	 * @param apdu
+	 *            byte[] a recorded command APDU
+	 * @return boolean true if the command is matched on its header and
+	 *         length alone
+	 */
+	private static boolean isHeaderMatched(byte[] apdu) {
+		return apdu.length > HEADER_LENGTH
+				&& (isSecret(apdu[1]) || (apdu[1] & 0xff) == INS_GENERAL_AUTHENTICATE);
+	}
+
+	/**
+	 * @return the maxTransceive
+	 */
+	public int getMaxTransceiveLength() {
+		return maxTransceive;
+	}
+
+	/**
+	 * @return the elApduSupport
+	 */
+	public boolean isExtendedLengthApduSupported() {
+		return elApduSupport;
+	}
+
+	/**
+	 * @return the historicalBytes
+	 */
+	public byte[] getHistoricalBytes() {
+		return historicalBytes.clone();
+	}
+
+	/**
+	 * @return the cardIdentifier, or null
+	 */
+	public byte[] getCardIdentifier() {
+		return cardIdentifier == null ? null : cardIdentifier.clone();
+	}
+
+	/**
+	 * @return the frames, in the order they were recorded
+	 */
+	public List<Frame> getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Method readInt.
+	 *
+	 * @param buffer
+	 *            byte[]
+	 * @param offset
+	 *            int
+	 * @return int
+	 */
+	private static int readInt(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+				| ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+	}
+
+	/**
+	 * Method writeInt.
+	 *
+	 * @param out
+	 *            ByteArrayOutputStream
+	 * @param value
+	 *            int
+	 */
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		out.write(value >> 24);
+		out.write(value >> 16);
+		out.write(value >> 8);
+		out.write(value);
+	}
+
+	/**
+	 * Method copy.
+	 *
+	 * @param buffer
+	 *            byte[]
+	 * @param offset
+	 *            int
+	 * @param length
+	 *            int
+	 * @return byte[]
+	 */
+	private static byte[] copy(byte[] buffer, int offset, int length) {
+		if (length < 0 || offset + length > buffer.length) {
+			throw new ArrayIndexOutOfBoundsException(offset + length);
+		}
+		byte[] value = new byte[length];
+		System.arraycopy(buffer, offset, value, 0, length);
+		return value;
+	}
+
+	/**
+	 * A single command, response or card lost event.
+	 */
+	public static class Frame {
+		private final int type;
+		private final int micros;
+		private final byte[] data;
+
+		/**
+		 * Constructor for Frame.
+		 *
+		 * @param type
+		 *            int
+		 * @param micros
+		 *            int
+		 * @param data
+		 *            byte[]
+		 */
+		Frame(int type, int micros, byte[] data) {
+			this.type = type;
+			this.micros = micros;
+			this.data = data;
+		}
+
+		/**
+		 * @return COMMAND, RESPONSE or CARD_LOST
+		 */
+		public int getType() {
+			return type;
+		}
+
+		/**
+		 * @return the time of the frame, in microseconds since the trace
+		 *         started
+		 */
+		public int getMicros() {
+			return micros;
+		}
+
+		/**
+		 * @return the APDU
+		 */
+		public byte[] getData() {
+			return data.clone();
+		}
+
+		/**
+		 * @return the length of the APDU
+		 */
+		int getLength() {
+			return data.length;
+		}
+
+		/**
+		 * Method matches.
+		 *
+		 * @param apdu
+		 *            byte[]
+		 * @param length
+		 *            int
+		 * @return boolean true if the first length bytes of apdu are this
+		 *         frame's APDU, or for a PIN command or GENERAL
+		 *         AUTHENTICATE, have its header and length
+		 */
+		boolean matches(byte[] apdu, int length) {
+			if (length != data.length) {
+				return false;
+			}
+			int compare = isHeaderMatched(data) ? HEADER_LENGTH : length;
+			for (int i = 0; i < compare; i++) {
+				if (apdu[i] != data[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Method copyTo.
+		 *
+		 * @param buffer
+		 *            byte[]
+		 * @return int the length of the APDU
+		 */
+		int copyTo(byte[] buffer) {
+			System.arraycopy(data, 0, buffer, 0, data.length);
+			return data.length;
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * Non-blocking access to a CardTransport.
+ *
+ * Every exchange is run on a single I/O thread, in the order submitted,
+ * so the caller can go on parsing or verifying what it already has while
+ * APDUs are in flight.  Results are delivered through a Future or a
+ * TransmitCallback.  Exchanges that belong together (a command and its
+ * GET RESPONSEs, a chained GENERAL AUTHENTICATE) should be submitted as
+ * one CardOperation so nothing is sent in between.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class AsyncCardTransport {
+
+	/**
+	 * Field transport.
+	 */
+	private final CardTransport transport;
+	/**
+	 * Field executor.
+	 */
+	private final ExecutorService executor;
+	/**
+	 * Field ownExecutor.
+	 * True if we created the executor and must shut it down.
+	 */
+	private final boolean ownExecutor;
+
+	/**
+	 * Constructor for AsyncCardTransport.
+	 *
+	 * Creates a dedicated I/O thread for this transport.  It is a daemon
+	 * thread, so an instance that is never closed does not keep the
+	 * process alive.
+	 *
+	 * @param transport
+	 *            CardTransport
+	 */
+	public AsyncCardTransport(CardTransport transport) {
+		this(transport, Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setName("card I/O thread#" + t.getId());
+				t.setDaemon(true);
+				return t;
+			}
+		}), true);
+	}
+
+	/**
+	 * Constructor for AsyncCardTransport.
+	 *
+	 * @param transport
+	 *            CardTransport
+	 * @param executor
+	 *            ExecutorService must run one task at a time, e.g., from
+	 *            Executors.newSingleThreadExecutor(); it is not shut down
+	 *            by close()
+	 */
+	public AsyncCardTransport(CardTransport transport, ExecutorService executor) {
+		this(transport, executor, false);
+	}
+
+	/**
+	 * Constructor for AsyncCardTransport.
+	 *
+	 * @param transport
+	 *            CardTransport
+	 * @param executor
+	 *            ExecutorService
+	 * @param ownExecutor
+	 *            boolean
+	 */
+	private AsyncCardTransport(CardTransport transport, ExecutorService executor,
+			boolean ownExecutor) {
+		this.transport = transport;
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param req
+	 *            CommandAPDU
+	 * @return Future<ResponseAPDU> get() throws an ExecutionException
+	 *         whose cause is the InvalidResponseException
+	 */
+	public Future<ResponseAPDU> transmit(final CommandAPDU req) {
+		return submit(new CardOperation<ResponseAPDU>() {
+			@Override
+			public ResponseAPDU run(CardTransport t) throws InvalidResponseException {
+				return t.transmit(req);
+			}
+		});
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param req
+	 *            CommandAPDU
+	 * @param callback
+	 *            TransmitCallback<ResponseAPDU>
+	 */
+	public void transmit(final CommandAPDU req, TransmitCallback<ResponseAPDU> callback) {
+		submit(new CardOperation<ResponseAPDU>() {
+			@Override
+			public ResponseAPDU run(CardTransport t) throws InvalidResponseException {
+				return t.transmit(req);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Method submit.
+	 *
+	 * @param operation
+	 *            CardOperation<T>
+	 * @return Future<T>
+	 */
+	public <T> Future<T> submit(final CardOperation<T> operation) {
+		return executor.submit(new Callable<T>() {
+			@Override
+			public T call() throws InvalidResponseException {
+				return operation.run(transport);
+			}
+		});
+	}
+
+	/**
+	 * Method submit.
+	 *
+	 * @param operation
+	 *            CardOperation<T>
+	 * @param callback
+	 *            TransmitCallback<T> invoked on the I/O thread
+	 */
+	public <T> void submit(final CardOperation<T> operation,
+			final TransmitCallback<T> callback) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				T result;
+				try {
+					result = operation.run(transport);
+				} catch (InvalidResponseException e) {
+					callback.onError(e);
+					return;
+				}
+				callback.onResult(result);
+			}
+		});
+	}
+
+	/**
+	 * Method get.
+	 *
+	 * Waits for a Future returned by this class, unwrapping the exception.
+	 *
+	 * @param future
+	 *            Future<T>
+	 * @return T
+	 * @throws InvalidResponseException
+	 *             if the exchange failed, or the wait was interrupted
+	 */
+	public static <T> T get(Future<T> future) throws InvalidResponseException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InvalidResponseException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InvalidResponseException) {
+				throw (InvalidResponseException) e.getCause();
+			}
+			throw new InvalidResponseException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return the transport
+	 */
+	public CardTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Method close.
+	 *
+	 * Closes the transport once the exchanges already submitted are done.
+	 */
+	public void close() {
+		if (executor.isShutdown()) {
+			return;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				transport.close();
+			}
+		});
+		if (ownExecutor) {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.IOException;
+
+/**
+ * The bulk endpoints of a USB CCID reader interface.
+ *
+ * Bulk-out transfers are synchronous.  Bulk-in transfers are queued
+ * ahead of time with queueIn() and collected with awaitIn(), so a
+ * response can land while the host is still busy with the last one.
+ * Only one bulk-in transfer is queued at a time.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public interface CCIDEndpoint {
+
+	/**
+	 * Method getClassDescriptor.
+	 *
+	 * @return byte[] the CCID class descriptor (bDescriptorType 0x21)
+	 *         of the interface, 54 bytes
+	 */
+	public byte[] getClassDescriptor();
+
+	/**
+	 * Method bulkOut.
+	 *
+	 * @param data
+	 *            byte[]
+	 * @param length
+	 *            int
+	 * @param timeout
+	 *            int in milliseconds
+	 * @throws IOException
+	 */
+	public void bulkOut(byte[] data, int length, int timeout) throws IOException;
+
+	/**
+	 * Method queueIn.
+	 *
+	 * Queues a bulk-in transfer into the buffer and returns at once.
+	 *
+	 * @param buffer
+	 *            byte[] large enough for the longest CCID message
+	 * @throws IOException
+	 */
+	public void queueIn(byte[] buffer) throws IOException;
+
+	/**
+	 * Method awaitIn.
+	 *
+	 * Waits for the queued bulk-in transfer to complete.  The CCID
+	 * message header carries the length of the message.
+	 *
+	 * @param timeout
+	 *            int in milliseconds
+	 * @return byte[] the buffer passed to queueIn()
+	 * @throws IOException
+	 *             if the transfer failed or timed out
+	 */
+	public byte[] awaitIn(int timeout) throws IOException;
+
+	/**
+	 * Method close.
+	 *
+	 * Cancels any queued transfer and releases the interface.
+	 */
+	public void close();
+
+}
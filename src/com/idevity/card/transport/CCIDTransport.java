@@ -0,0 +1,624 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+
+import com.idevity.android.CardLostException;
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * A CardTransport over a USB CCID reader.
+ *
+ * APDUs are carried in PC_to_RDR_XfrBlock messages and answered with
+ * RDR_to_PC_DataBlock messages.  The reader must exchange at the short
+ * or extended APDU level, i.e., the reader runs T=1 (block chaining and
+ * waiting time extensions) with the card.  An APDU or response larger
+ * than the reader's dwMaxCCIDMessageLength is chained over several CCID
+ * messages using wLevelParameter and bChainParameter, and a time
+ * extension reported by the reader (bmCommandStatus 2) restarts the
+ * wait for the response, up to MAX_TIME_EXTENSIONS in a row.
+ *
+ * One bulk-in transfer is always queued: the next one is queued, into
+ * the other of two buffers, as soon as a message arrives and before it
+ * is parsed, so the reader never waits on the host to ask for the next
+ * message.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class CCIDTransport implements CardTransport {
+
+	/**
+	 * Field PC_TO_RDR_ICC_POWER_ON.
+	 */
+	static final int PC_TO_RDR_ICC_POWER_ON = 0x62;
+	/**
+	 * Field PC_TO_RDR_ICC_POWER_OFF.
+	 */
+	static final int PC_TO_RDR_ICC_POWER_OFF = 0x63;
+	/**
+	 * Field PC_TO_RDR_XFR_BLOCK.
+	 */
+	static final int PC_TO_RDR_XFR_BLOCK = 0x6f;
+	/**
+	 * Field RDR_TO_PC_DATA_BLOCK.
+	 */
+	static final int RDR_TO_PC_DATA_BLOCK = 0x80;
+	/**
+	 * Field RDR_TO_PC_SLOT_STATUS.
+	 */
+	static final int RDR_TO_PC_SLOT_STATUS = 0x81;
+	/**
+	 * Field HEADER.
+	 * Every CCID message starts with a 10 byte header.
+	 */
+	static final int HEADER = 10;
+	/**
+	 * Field LEVEL_BEGIN_END.
+	 * wLevelParameter / bChainParameter values.
+	 */
+	static final int LEVEL_BEGIN_END = 0x00;
+	/**
+	 * Field LEVEL_BEGIN.
+	 */
+	static final int LEVEL_BEGIN = 0x01;
+	/**
+	 * Field LEVEL_END.
+	 */
+	static final int LEVEL_END = 0x02;
+	/**
+	 * Field LEVEL_CONTINUE.
+	 */
+	static final int LEVEL_CONTINUE = 0x03;
+	/**
+	 * Field LEVEL_EMPTY.
+	 * An empty block, asking for (or waiting on) the next part.
+	 */
+	static final int LEVEL_EMPTY = 0x10;
+	/**
+	 * Field FEATURE_SHORT_APDU.
+	 * dwFeatures: short APDU level exchange.
+	 */
+	static final int FEATURE_SHORT_APDU = 0x00020000;
+	/**
+	 * Field FEATURE_EXTENDED_APDU.
+	 * dwFeatures: short and extended APDU level exchange.
+	 */
+	static final int FEATURE_EXTENDED_APDU = 0x00040000;
+	/**
+	 * Field STATUS_FAILED.
+	 * bmCommandStatus, bits 7 and 6 of bStatus.
+	 */
+	static final int STATUS_FAILED = 1;
+	/**
+	 * Field STATUS_TIME_EXTENSION.
+	 */
+	static final int STATUS_TIME_EXTENSION = 2;
+	/**
+	 * Field ICC_NOT_PRESENT.
+	 * bmICCStatus, bits 1 and 0 of bStatus.
+	 */
+	static final int ICC_NOT_PRESENT = 2;
+	/**
+	 * Field ERROR_ICC_MUTE.
+	 */
+	static final int ERROR_ICC_MUTE = 0xfe;
+	/**
+	 * Field DEFAULT_TIMEOUT.
+	 * (value is in milliseconds)
+	 * How long to wait for each message from the reader.  Every time
+	 * extension restarts the wait.
+	 */
+	public static final int DEFAULT_TIMEOUT = 5000;
+	/**
+	 * Field MAX_TIME_EXTENSIONS.
+	 * The most time extensions in a row a reader may ask for before the
+	 * card is given up as mute.
+	 */
+	public static final int MAX_TIME_EXTENSIONS = 60;
+	/**
+	 * Field GET_UID.
+	 * PC/SC Part 3 pseudo APDU, answered by contactless readers.
+	 */
+	private static final byte[] GET_UID = { (byte) 0xff, (byte) 0xca, 0x00, 0x00, 0x00 };
+	/**
+	 * Field endpoint.
+	 */
+	private final CCIDEndpoint endpoint;
+	/**
+	 * Field slot.
+	 */
+	private final int slot;
+	/**
+	 * Field seq.
+	 */
+	private int seq = 0;
+	/**
+	 * Field out.
+	 */
+	private byte[] out;
+	/**
+	 * Field in.
+	 * The two bulk-in buffers; one is always queued.
+	 */
+	private byte[][] in;
+	/**
+	 * Field maxPayload.
+	 * The most APDU bytes a single CCID message carries.
+	 */
+	private int maxPayload;
+	/**
+	 * Field atr.
+	 */
+	private byte[] atr = null;
+	/**
+	 * Field historicalBytes.
+	 */
+	private byte[] historicalBytes = null;
+	/**
+	 * Field maxTransceive.
+	 */
+	private int maxTransceive = 0;
+	/**
+	 * Field elApduSupport.
+	 */
+	private boolean elApduSupport = false;
+	/**
+	 * Field timeOut.
+	 */
+	private int timeOut = DEFAULT_TIMEOUT;
+	/**
+	 * Field isConnected.
+	 */
+	private boolean isConnected = false;
+	/**
+	 * Field cardIdentifier.
+	 */
+	private byte[] cardIdentifier = null;
+	/**
+	 * Field timeExtensions.
+	 */
+	private int timeExtensions = 0;
+
+	/**
+	 * Constructor for CCIDTransport.
+	 *
+	 * Powers on the card in slot 0.
+	 *
+	 * @param endpoint
+	 *            CCIDEndpoint
+	 */
+	public CCIDTransport(CCIDEndpoint endpoint) {
+		this(endpoint, 0);
+	}
+
+	/**
+	 * Constructor for CCIDTransport.
+	 *
+	 * Powers on the card in the slot.  If the reader does not exchange
+	 * APDUs, or there is no card, isConnected() is false.
+	 *
+	 * @param endpoint
+	 *            CCIDEndpoint
+	 * @param slot
+	 *            int
+	 */
+	public CCIDTransport(CCIDEndpoint endpoint, int slot) {
+		this.endpoint = endpoint;
+		this.slot = slot;
+		byte[] descriptor = endpoint.getClassDescriptor();
+		if (descriptor == null || descriptor.length < 48) {
+			return;
+		}
+		int features = getInt(descriptor, 40);
+		int maxMessage = getInt(descriptor, 44);
+		if ((features & FEATURE_EXTENDED_APDU) != 0) {
+			elApduSupport = true;
+			maxTransceive = APDUBufferPool.EXTENDED_BUFFER;
+		} else if ((features & FEATURE_SHORT_APDU) != 0) {
+			maxTransceive = APDUBufferPool.SHORT_BUFFER;
+		} else {
+			/* TPDU or character level, the reader does not run T=1 for us */
+			return;
+		}
+		maxPayload = maxMessage - HEADER;
+		if (maxPayload <= 0) {
+			return;
+		}
+		out = new byte[maxMessage];
+		in = new byte[][] { new byte[maxMessage], new byte[maxMessage] };
+		try {
+			endpoint.queueIn(in[0]);
+			isConnected = true;
+			powerOn();
+		} catch (IOException e) {
+			isConnected = false;
+			endpoint.close();
+			return;
+		} catch (InvalidResponseException e) {
+			isConnected = false;
+			endpoint.close();
+			return;
+		}
+		byte[] uid = new byte[GET_UID.length + 256];
+		try {
+			int len = transmit(GET_UID, GET_UID.length, uid);
+			if (TransportUtil.getSW(uid, len) == 0x9000 && len > 2) {
+				cardIdentifier = Arrays.copyOf(uid, len - 2);
+			}
+		} catch (InvalidResponseException e) {
+			// Not a contactless reader, no identifier
+		}
+	}
+
+	/**
+	 * Method powerOn.
+	 *
+	 * @throws InvalidResponseException
+	 */
+	private void powerOn() throws InvalidResponseException {
+		int sent = send(PC_TO_RDR_ICC_POWER_ON, 0, 0, 0);
+		byte[] msg = receive(sent, RDR_TO_PC_DATA_BLOCK);
+		atr = Arrays.copyOfRange(msg, HEADER, HEADER + getInt(msg, 1));
+		historicalBytes = getHistoricalBytes(atr);
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param req
+	 *            CommandAPDU
+	 * @return ResponseAPDU
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public ResponseAPDU transmit(CommandAPDU req) throws InvalidResponseException {
+		byte[] command = req.getBytes();
+		byte[] response = APDUBufferPool.acquire(maxTransceive);
+		try {
+			int len = transmit(command, command.length, response);
+			return new ResponseAPDU(Arrays.copyOf(response, len));
+		} finally {
+			APDUBufferPool.release(response);
+		}
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * Sends the command in as many XfrBlock messages as it takes, then
+	 * collects the response, asking for each further part with an empty
+	 * XfrBlock.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param response
+	 *            byte[]
+	 * @return int the length of the response
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public synchronized int transmit(byte[] command, int commandLength, byte[] response)
+			throws InvalidResponseException {
+		if (!isConnected) {
+			throw new CardLostException("Card lost");
+		}
+		if (commandLength > maxTransceive) {
+			throw new InvalidResponseException("Command exceeds transceive limit");
+		}
+		/*
+		 * Command, chained if it does not fit in one message
+		 */
+		int offset = 0;
+		byte[] msg;
+		while (true) {
+			int chunk = Math.min(commandLength - offset, maxPayload);
+			int level;
+			if (offset == 0) {
+				level = chunk == commandLength ? LEVEL_BEGIN_END : LEVEL_BEGIN;
+			} else {
+				level = offset + chunk == commandLength ? LEVEL_END : LEVEL_CONTINUE;
+			}
+			System.arraycopy(command, offset, out, HEADER, chunk);
+			int sent = send(PC_TO_RDR_XFR_BLOCK, chunk, level, 0);
+			offset += chunk;
+			msg = receive(sent, RDR_TO_PC_DATA_BLOCK);
+			if (offset == commandLength) {
+				break;
+			}
+			if ((msg[9] & 0xff) != LEVEL_EMPTY) {
+				throw new InvalidResponseException("Reader did not accept chained command");
+			}
+		}
+		/*
+		 * Response, possibly in several parts
+		 */
+		int length = 0;
+		while (true) {
+			int chunk = getInt(msg, 1);
+			if (length + chunk > response.length) {
+				throw new InvalidResponseException("Response of " + (length + chunk)
+						+ " bytes exceeds buffer");
+			}
+			System.arraycopy(msg, HEADER, response, length, chunk);
+			length += chunk;
+			int chain = msg[9] & 0xff;
+			if (chain == LEVEL_BEGIN_END || chain == LEVEL_END) {
+				break;
+			}
+			if (chain != LEVEL_BEGIN && chain != LEVEL_CONTINUE) {
+				throw new InvalidResponseException("Unexpected bChainParameter: " + chain);
+			}
+			int sent = send(PC_TO_RDR_XFR_BLOCK, 0, LEVEL_EMPTY, 0);
+			msg = receive(sent, RDR_TO_PC_DATA_BLOCK);
+		}
+		if (length < 2) {
+			throw new InvalidResponseException("Response was null!");
+		}
+		return length;
+	}
+
+	/**
+	 * Method send.
+	 *
+	 * Sends the message in the out buffer after filling in the header.
+	 *
+	 * @param type
+	 *            int
+	 * @param length
+	 *            int the length of abData
+	 * @param level
+	 *            int wLevelParameter, for XfrBlock
+	 * @param param
+	 *            int byte 7, bBWI or bPowerSelect
+	 * @return int the bSeq of the message
+	 * @throws InvalidResponseException
+	 */
+	private int send(int type, int length, int level, int param)
+			throws InvalidResponseException {
+		int sent = seq;
+		seq = (seq + 1) & 0xff;
+		out[0] = (byte) type;
+		out[1] = (byte) length;
+		out[2] = (byte) (length >> 8);
+		out[3] = (byte) (length >> 16);
+		out[4] = (byte) (length >> 24);
+		out[5] = (byte) slot;
+		out[6] = (byte) sent;
+		out[7] = (byte) param;
+		out[8] = (byte) level;
+		out[9] = (byte) (level >> 8);
+		try {
+			endpoint.bulkOut(out, HEADER + length, timeOut);
+		} catch (IOException e) {
+			isConnected = false;
+			throw new CardLostException("USB transfer failed", e);
+		}
+		return sent;
+	}
+
+	/**
+	 * Method receive.
+	 *
+	 * Waits for the reader's answer to a message, through up to
+	 * MAX_TIME_EXTENSIONS time extensions.
+	 *
+	 * @param sent
+	 *            int the bSeq of the message
+	 * @param type
+	 *            int the expected message type
+	 * @return byte[] the message; valid until the next receive()
+	 * @throws InvalidResponseException
+	 */
+	private byte[] receive(int sent, int type) throws InvalidResponseException {
+		int extensions = 0;
+		while (true) {
+			byte[] msg;
+			try {
+				msg = endpoint.awaitIn(timeOut);
+				/* Keep a transfer queued while we look at this one */
+				endpoint.queueIn(msg == in[0] ? in[1] : in[0]);
+			} catch (IOException e) {
+				isConnected = false;
+				throw new CardLostException("USB transfer failed", e);
+			}
+			if ((msg[6] & 0xff) != sent) {
+				throw new InvalidResponseException("CCID sequence mismatch: expected "
+						+ sent + ", got " + (msg[6] & 0xff));
+			}
+			int status = msg[7] & 0xff;
+			int commandStatus = status >> 6;
+			if (commandStatus == STATUS_TIME_EXTENSION) {
+				timeExtensions++;
+				if (++extensions > MAX_TIME_EXTENSIONS) {
+					isConnected = false;
+					throw new CardLostException("Card mute after " + MAX_TIME_EXTENSIONS
+							+ " time extensions");
+				}
+				continue;
+			}
+			if (commandStatus == STATUS_FAILED) {
+				int error = msg[8] & 0xff;
+				if ((status & 0x03) == ICC_NOT_PRESENT || error == ERROR_ICC_MUTE) {
+					isConnected = false;
+					throw new CardLostException("Card lost");
+				}
+				throw new InvalidResponseException("CCID error: "
+						+ Integer.toHexString(error));
+			}
+			if ((msg[0] & 0xff) != type) {
+				throw new InvalidResponseException("Unexpected CCID message: "
+						+ Integer.toHexString(msg[0] & 0xff));
+			}
+			if (getInt(msg, 1) > msg.length - HEADER) {
+				throw new InvalidResponseException("CCID message exceeds buffer");
+			}
+			return msg;
+		}
+	}
+
+	/**
+	 * Method getInt.
+	 *
+	 * @param buffer
+	 *            byte[]
+	 * @param offset
+	 *            int
+	 * @return int the little endian dword at offset
+	 */
+	static int getInt(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8)
+				| ((buffer[offset + 2] & 0xff) << 16) | ((buffer[offset + 3] & 0xff) << 24);
+	}
+
+	/**
+	 * Method getHistoricalBytes.
+	 *
+	 * @param atr
+	 *            byte[]
+	 * @return byte[] the historical bytes of the ATR (ISO 7816-3)
+	 */
+	public static byte[] getHistoricalBytes(byte[] atr) {
+		if (atr == null || atr.length < 2) {
+			return new byte[0];
+		}
+		int count = atr[1] & 0x0f;
+		int y = (atr[1] & 0xf0) >> 4;
+		int offset = 2;
+		while (y != 0) {
+			int td = -1;
+			for (int bit = 0; bit < 4; bit++) {
+				if ((y & (1 << bit)) != 0) {
+					if (bit == 3 && offset < atr.length) {
+						td = atr[offset] & 0xff;
+					}
+					offset++;
+				}
+			}
+			y = td < 0 ? 0 : td >> 4;
+		}
+		if (offset + count > atr.length) {
+			return new byte[0];
+		}
+		return Arrays.copyOfRange(atr, offset, offset + count);
+	}
+
+	/**
+	 * @return the ATR, or null if the card was not powered on
+	 */
+	public byte[] getATR() {
+		return atr;
+	}
+
+	/**
+	 * @return the number of time extensions the reader has requested
+	 */
+	public int getTimeExtensions() {
+		return timeExtensions;
+	}
+
+	/**
+	 * @return the UID reported by the reader, or null
+	 */
+	@Override
+	public byte[] getCardIdentifier() {
+		return cardIdentifier;
+	}
+
+	/**
+	 * @return the historicalBytes
+	 */
+	@Override
+	public byte[] getHistoricalBytes() {
+		if (historicalBytes == null) {
+			return new byte[0];
+		}
+		return historicalBytes;
+	}
+
+	/**
+	 * @return the maxTransceive
+	 */
+	@Override
+	public int getMaxTransceiveLength() {
+		return maxTransceive;
+	}
+
+	/**
+	 * @return the elApduSupport
+	 */
+	@Override
+	public boolean isExtendedLengthApduSupported() {
+		return elApduSupport;
+	}
+
+	/**
+	 * @return int
+	 */
+	@Override
+	public int getMaxExtendedLe() {
+		return TransportUtil.getMaxExtendedLe(elApduSupport, maxTransceive);
+	}
+
+	/**
+	 * @return the timeOut
+	 */
+	@Override
+	public int getTimeout() {
+		return timeOut;
+	}
+
+	/**
+	 * @param timeout how long to wait for each message from the reader
+	 */
+	@Override
+	public void setTimeout(int timeout) {
+		this.timeOut = timeout;
+	}
+
+	/**
+	 * @return the isConnected
+	 */
+	@Override
+	public boolean isConnected() {
+		return isConnected;
+	}
+
+	/**
+	 * Method close.
+	 *
+	 * Powers off the card and releases the endpoint.
+	 */
+	@Override
+	public synchronized void close() {
+		if (isConnected) {
+			try {
+				int sent = send(PC_TO_RDR_ICC_POWER_OFF, 0, 0, 0);
+				receive(sent, RDR_TO_PC_SLOT_STATUS);
+			} catch (InvalidResponseException e) {
+				// Nothing further to release
+			}
+			isConnected = false;
+		}
+		endpoint.close();
+	}
+
+}
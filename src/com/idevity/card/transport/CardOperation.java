@@ -0,0 +1,41 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * A sequence of exchanges that must not be interleaved with others, e.g.,
+ * a GET DATA and the GET RESPONSEs that follow it, run on the I/O thread
+ * of an AsyncCardTransport.
+ *
+ * @param <T>
+ *            the type of result
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public interface CardOperation<T> {
+
+	/**
+	 * Method run.
+	 *
+	 * @param transport
+	 *            CardTransport the transport to use, only from within run()
+	 * @return T
+	 * @throws InvalidResponseException
+	 */
+	public T run(CardTransport transport) throws InvalidResponseException;
+
+}
@@ -0,0 +1,121 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * A connection to a single card, over which the 800-73 reader engine
+ * exchanges APDUs.
+ * 
+ * The NFC implementation is com.idevity.android.CardChannel, which wraps
+ * android.nfc.tech.IsoDep.  SimulatedCardTransport serves a card from
+ * memory so the engine can be exercised and measured off-device.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public interface CardTransport {
+
+	/**
+	 * Method transmit.
+	 * 
+	 * @param req
+	 *            CommandAPDU
+	 * @return ResponseAPDU
+	 * @throws InvalidResponseException
+	 *             if the card did not return at least SW1 SW2, or
+	 *             CardLostException if the card has left the field
+	 */
+	public ResponseAPDU transmit(CommandAPDU req) throws InvalidResponseException;
+
+	/**
+	 * Method transmit.
+	 * 
+	 * Sends the first commandLength bytes of command, and copies the
+	 * response (data followed by SW1 SW2) to the start of response.  No
+	 * APDU objects are created, so a caller that reuses its buffers does
+	 * not generate garbage on every exchange.
+	 * 
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param response
+	 *            byte[] must hold getMaxTransceiveLength() bytes
+	 * @return int the length of the response, including SW1 SW2
+	 * @throws InvalidResponseException
+	 *             if the card did not return at least SW1 SW2, or the
+	 *             response does not fit in the buffer
+	 */
+	public int transmit(byte[] command, int commandLength, byte[] response)
+			throws InvalidResponseException;
+
+	/**
+	 * Method getCardIdentifier.
+	 * 
+	 * @return byte[] the ISO/IEC 14443-3 UID (CSN) of the card, or null
+	 *         if the transport cannot tell
+	 */
+	public byte[] getCardIdentifier();
+
+	/**
+	 * @return the historical bytes from the ATS (or ATR), never null
+	 */
+	public byte[] getHistoricalBytes();
+
+	/**
+	 * @return the maximum number of bytes in a single command or response
+	 */
+	public int getMaxTransceiveLength();
+
+	/**
+	 * @return true if the transport can carry extended length APDUs
+	 */
+	public boolean isExtendedLengthApduSupported();
+
+	/**
+	 * Method getMaxExtendedLe.
+	 * 
+	 * @return int the largest Le for an extended length APDU, or 0 if
+	 *         extended length APDUs should not be used
+	 * @see TransportUtil#getMaxExtendedLe(boolean, int)
+	 */
+	public int getMaxExtendedLe();
+
+	/**
+	 * @return the current transceive timeout, in milliseconds
+	 */
+	public int getTimeout();
+
+	/**
+	 * @param timeout
+	 *            the transceive timeout, in milliseconds
+	 */
+	public void setTimeout(int timeout);
+
+	/**
+	 * @return true if the card is still connected
+	 */
+	public boolean isConnected();
+
+	/**
+	 * Method close.
+	 */
+	public void close();
+
+}
@@ -0,0 +1,253 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+/**
+ * A fixed bucket latency histogram for one phase of a read, one INS and
+ * one PIV object.
+ *
+ * Bucket i counts latencies up to BUCKETS[i] milliseconds; the last
+ * bucket counts everything slower than the last bound.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The phases of a read we keep latencies for.
+	 */
+	public enum Phase {
+		CONNECT, SELECT, GET_DATA, GET_RESPONSE, GENERAL_AUTHENTICATE, OTHER
+	}
+
+	/**
+	 * Field BUCKETS.
+	 * Upper bounds of the buckets (values are in milliseconds)
+	 */
+	private static final int[] BUCKETS = { 5, 10, 20, 30, 50, 75, 100, 150,
+			200, 300, 500, 1000, 2000, 5000 };
+	/**
+	 * Field phase.
+	 */
+	private final Phase phase;
+	/**
+	 * Field ins.
+	 */
+	private final int ins;
+	/**
+	 * Field objectTag.
+	 */
+	private final int objectTag;
+	/**
+	 * Field counts.
+	 */
+	private final long[] counts = new long[BUCKETS.length + 1];
+	/**
+	 * Field count.
+	 */
+	private long count = 0;
+	/**
+	 * Field totalMicros.
+	 */
+	private long totalMicros = 0;
+	/**
+	 * Field minMicros.
+	 */
+	private long minMicros = Long.MAX_VALUE;
+	/**
+	 * Field maxMicros.
+	 */
+	private long maxMicros = 0;
+
+	/**
+	 * Constructor for LatencyHistogram.
+	 *
+	 * @param phase
+	 *            Phase
+	 * @param ins
+	 *            int
+	 * @param objectTag
+	 *            int
+	 */
+	LatencyHistogram(Phase phase, int ins, int objectTag) {
+		this.phase = phase;
+		this.ins = ins;
+		this.objectTag = objectTag;
+	}
+
+	/**
+	 * Constructor for LatencyHistogram.
+	 *
+	 * @param other
+	 *            LatencyHistogram the histogram to copy
+	 */
+	LatencyHistogram(LatencyHistogram other) {
+		this(other.phase, other.ins, other.objectTag);
+		System.arraycopy(other.counts, 0, counts, 0, counts.length);
+		count = other.count;
+		totalMicros = other.totalMicros;
+		minMicros = other.minMicros;
+		maxMicros = other.maxMicros;
+	}
+
+	/**
+	 * Method record.
+	 *
+	 * @param nanos
+	 *            long
+	 */
+	void record(long nanos) {
+		long micros = nanos / 1000L;
+		long millis = micros / 1000L;
+		int bucket = 0;
+		while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+			bucket++;
+		}
+		counts[bucket]++;
+		count++;
+		totalMicros += micros;
+		if (micros < minMicros) {
+			minMicros = micros;
+		}
+		if (micros > maxMicros) {
+			maxMicros = micros;
+		}
+	}
+
+	/**
+	 * Method matches.
+	 *
+	 * @param phase
+	 *            Phase
+	 * @param ins
+	 *            int
+	 * @param objectTag
+	 *            int
+	 * @return boolean
+	 */
+	boolean matches(Phase phase, int ins, int objectTag) {
+		return this.phase == phase && this.ins == ins
+				&& this.objectTag == objectTag;
+	}
+
+	/**
+	 * @return the bucket upper bounds, in milliseconds
+	 */
+	public static int[] getBucketBounds() {
+		return BUCKETS.clone();
+	}
+
+	/**
+	 * @return the phase
+	 */
+	public Phase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return the INS byte, 0 for CONNECT
+	 */
+	public int getINS() {
+		return ins;
+	}
+
+	/**
+	 * @return the PIV object tag for GET DATA and GET RESPONSE, the key
+	 *         reference for GENERAL AUTHENTICATE, otherwise 0
+	 */
+	public int getObjectTag() {
+		return objectTag;
+	}
+
+	/**
+	 * @return the count in each bucket, one more than getBucketBounds()
+	 */
+	public long[] getBucketCounts() {
+		return counts.clone();
+	}
+
+	/**
+	 * @return the number of latencies recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean latency in milliseconds
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : totalMicros / (count * 1000.0);
+	}
+
+	/**
+	 * @return the fastest latency in milliseconds
+	 */
+	public double getMin() {
+		return count == 0 ? 0 : minMicros / 1000.0;
+	}
+
+	/**
+	 * @return the slowest latency in milliseconds
+	 */
+	public double getMax() {
+		return maxMicros / 1000.0;
+	}
+
+	/**
+	 * Method getPercentile.
+	 *
+	 * @param percentile
+	 *            double between 0 and 1
+	 * @return int the upper bound, in milliseconds, of the bucket that
+	 *         holds the percentile, or the slowest latency if it falls in
+	 *         the last bucket
+	 */
+	public int getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS.length; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				return BUCKETS[i];
+			}
+		}
+		return (int) Math.ceil(getMax());
+	}
+
+	/**
+	 * Method toString.
+	 *
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		sb.append(phase);
+		if (phase != Phase.CONNECT) {
+			sb.append(String.format(" INS=%02X", ins));
+		}
+		if (objectTag != 0) {
+			sb.append(String.format(" tag=%X", objectTag));
+		}
+		sb.append(String.format(" n=%d mean=%.1fms p50<=%dms p95<=%dms max=%.1fms",
+				count, getMean(), getPercentile(0.5), getPercentile(0.95), getMax()));
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,228 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.idevity.card.transport.LatencyHistogram.Phase;
+
+/**
+ * APDU latency histograms, keyed by phase, INS and PIV object tag.
+ *
+ * A transport records the time each exchange takes along with the
+ * command that was sent; the phase and object are worked out from the
+ * command.  GET RESPONSE is charged to the object of the GET DATA it
+ * continues, and GENERAL AUTHENTICATE is keyed by its key reference.
+ *
+ * Recording does not allocate once a key has been seen, so it can stay
+ * on in the field.  Up to MAX_KEYS keys are kept; beyond that, latencies
+ * are recorded against the phase and INS only, if that key exists.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class LatencyHistograms {
+
+	/**
+	 * Field MAX_KEYS.
+	 */
+	private static final int MAX_KEYS = 64;
+	/**
+	 * Field histograms.
+	 */
+	private final LatencyHistogram[] histograms = new LatencyHistogram[MAX_KEYS];
+	/**
+	 * Field size.
+	 */
+	private int size = 0;
+	/**
+	 * Field lastObjectTag.
+	 * The object of the last GET DATA, for the GET RESPONSEs that follow.
+	 */
+	private int lastObjectTag = 0;
+
+	/**
+	 * Method recordConnect.
+	 *
+	 * @param nanos
+	 *            long the time it took to connect to the card
+	 */
+	public synchronized void recordConnect(long nanos) {
+		LatencyHistogram histogram = get(Phase.CONNECT, 0, 0);
+		if (histogram != null) {
+			histogram.record(nanos);
+		}
+	}
+
+	/**
+	 * Method record.
+	 *
+	 * @param command
+	 *            byte[] the command APDU that was sent
+	 * @param length
+	 *            int the length of the command
+	 * @param nanos
+	 *            long the time it took to get the response
+	 */
+	public synchronized void record(byte[] command, int length, long nanos) {
+		if (length < 4) {
+			return;
+		}
+		int ins = command[1] & 0xff;
+		Phase phase;
+		int objectTag = 0;
+		switch (ins) {
+		case 0xa4:
+			phase = Phase.SELECT;
+			break;
+		case 0xcb:
+			phase = Phase.GET_DATA;
+			objectTag = getObjectTag(command, length);
+			lastObjectTag = objectTag;
+			break;
+		case 0xc0:
+			phase = Phase.GET_RESPONSE;
+			objectTag = lastObjectTag;
+			break;
+		case 0x87:
+			phase = Phase.GENERAL_AUTHENTICATE;
+			objectTag = command[3] & 0xff;
+			break;
+		default:
+			phase = Phase.OTHER;
+			break;
+		}
+		LatencyHistogram histogram = get(phase, ins, objectTag);
+		if (histogram != null) {
+			histogram.record(nanos);
+		}
+	}
+
+	/**
+	 * Method getHistograms.
+	 *
+	 * @return List<LatencyHistogram> a copy of every histogram
+	 */
+	public synchronized List<LatencyHistogram> getHistograms() {
+		List<LatencyHistogram> copy = new ArrayList<LatencyHistogram>(size);
+		for (int i = 0; i < size; i++) {
+			copy.add(new LatencyHistogram(histograms[i]));
+		}
+		return copy;
+	}
+
+	/**
+	 * Method getHistogram.
+	 *
+	 * @param phase
+	 *            Phase
+	 * @param ins
+	 *            int
+	 * @param objectTag
+	 *            int
+	 * @return LatencyHistogram a copy, or null if nothing was recorded
+	 */
+	public synchronized LatencyHistogram getHistogram(Phase phase, int ins, int objectTag) {
+		for (int i = 0; i < size; i++) {
+			if (histograms[i].matches(phase, ins, objectTag)) {
+				return new LatencyHistogram(histograms[i]);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Method reset.
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < size; i++) {
+			histograms[i] = null;
+		}
+		size = 0;
+		lastObjectTag = 0;
+	}
+
+	/**
+	 * Method toString.
+	 *
+	 * @return String one line per histogram
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < size; i++) {
+			sb.append(histograms[i].toString());
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Method get.
+	 *
+	 * @param phase
+	 *            Phase
+	 * @param ins
+	 *            int
+	 * @param objectTag
+	 *            int
+	 * @return LatencyHistogram or null if there is no room for it
+	 */
+	private LatencyHistogram get(Phase phase, int ins, int objectTag) {
+		for (int i = 0; i < size; i++) {
+			if (histograms[i].matches(phase, ins, objectTag)) {
+				return histograms[i];
+			}
+		}
+		if (size < MAX_KEYS) {
+			histograms[size] = new LatencyHistogram(phase, ins, objectTag);
+			return histograms[size++];
+		}
+		if (objectTag != 0) {
+			return get(phase, ins, 0);
+		}
+		return null;
+	}
+
+	/**
+	 * Method getObjectTag.
+	 *
+	 * @param command
+	 *            byte[] a GET DATA command, with the tag list 5C L tag
+	 * @param length
+	 *            int
+	 * @return int the tag, or 0 if the command does not carry one
+	 */
+	private static int getObjectTag(byte[] command, int length) {
+		int offset = 5;
+		if (length > 7 && command[4] == 0x00) {
+			/* Extended Lc */
+			offset = 7;
+		}
+		if (length < offset + 2 || command[offset] != 0x5c) {
+			return 0;
+		}
+		int tagLength = command[offset + 1] & 0xff;
+		if (tagLength > 3 || length < offset + 2 + tagLength) {
+			return 0;
+		}
+		int tag = 0;
+		for (int i = 0; i < tagLength; i++) {
+			tag = (tag << 8) | (command[offset + 2 + i] & 0xff);
+		}
+		return tag;
+	}
+
+}
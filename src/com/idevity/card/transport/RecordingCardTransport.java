@@ -0,0 +1,229 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+
+import com.idevity.android.CardLostException;
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * Records every exchange over another CardTransport as an APDUTrace.
+ *
+ * The trace is kept in memory, so recording can not fail or slow down an
+ * exchange on storage; retrieve it with getTrace() or writeTo() once the
+ * read is over.
+ *
+ * The PIN and PUK are not recorded; see APDUTrace.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class RecordingCardTransport implements CardTransport {
+
+	/**
+	 * Field transport.
+	 */
+	private final CardTransport transport;
+	/**
+	 * Field trace.
+	 */
+	private final ByteArrayOutputStream trace = new ByteArrayOutputStream(4096);
+	/**
+	 * Field start.
+	 */
+	private final long start;
+
+	/**
+	 * Constructor for RecordingCardTransport.
+	 *
+	 * @param transport
+	 *            CardTransport the connected transport to record
+	 */
+	public RecordingCardTransport(CardTransport transport) {
+		this.transport = transport;
+		this.start = System.nanoTime();
+		APDUTrace.writeHeader(trace, transport.getMaxTransceiveLength(),
+				transport.isExtendedLengthApduSupported(),
+				transport.getHistoricalBytes(), transport.getCardIdentifier());
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param req
+	 *            CommandAPDU
+	 * @return ResponseAPDU
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public ResponseAPDU transmit(CommandAPDU req) throws InvalidResponseException {
+		byte[] command = req.getBytes();
+		record(APDUTrace.COMMAND, command, command.length);
+		ResponseAPDU response;
+		try {
+			response = transport.transmit(req);
+		} catch (CardLostException e) {
+			record(APDUTrace.CARD_LOST, command, 0);
+			throw e;
+		}
+		byte[] resp = response.getBytes();
+		record(APDUTrace.RESPONSE, resp, resp.length);
+		return response;
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param response
+	 *            byte[]
+	 * @return int
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public int transmit(byte[] command, int commandLength, byte[] response)
+			throws InvalidResponseException {
+		record(APDUTrace.COMMAND, command, commandLength);
+		int length;
+		try {
+			length = transport.transmit(command, commandLength, response);
+		} catch (CardLostException e) {
+			record(APDUTrace.CARD_LOST, command, 0);
+			throw e;
+		}
+		record(APDUTrace.RESPONSE, response, length);
+		return length;
+	}
+
+	/**
+	 * Method getTrace.
+	 *
+	 * @return byte[] the trace so far
+	 */
+	public synchronized byte[] getTrace() {
+		return trace.toByteArray();
+	}
+
+	/**
+	 * Method writeTo.
+	 *
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public synchronized void writeTo(OutputStream out) throws IOException {
+		trace.writeTo(out);
+	}
+
+	/**
+	 * Method record.
+	 *
+	 * @param type
+	 *            int
+	 * @param apdu
+	 *            byte[]
+	 * @param length
+	 *            int
+	 */
+	private synchronized void record(int type, byte[] apdu, int length) {
+		int micros = (int) Math.min((System.nanoTime() - start) / 1000L,
+				Integer.MAX_VALUE);
+		if (type == APDUTrace.COMMAND) {
+			apdu = APDUTrace.redact(apdu, length);
+		}
+		APDUTrace.writeFrame(trace, type, micros, apdu, length);
+	}
+
+	/**
+	 * @return the cardIdentifier
+	 */
+	@Override
+	public byte[] getCardIdentifier() {
+		return transport.getCardIdentifier();
+	}
+
+	/**
+	 * @return the historicalBytes
+	 */
+	@Override
+	public byte[] getHistoricalBytes() {
+		return transport.getHistoricalBytes();
+	}
+
+	/**
+	 * @return the maxTransceive
+	 */
+	@Override
+	public int getMaxTransceiveLength() {
+		return transport.getMaxTransceiveLength();
+	}
+
+	/**
+	 * @return the elApduSupport
+	 */
+	@Override
+	public boolean isExtendedLengthApduSupported() {
+		return transport.isExtendedLengthApduSupported();
+	}
+
+	/**
+	 * @return int
+	 */
+	@Override
+	public int getMaxExtendedLe() {
+		return transport.getMaxExtendedLe();
+	}
+
+	/**
+	 * @return the timeOut
+	 */
+	@Override
+	public int getTimeout() {
+		return transport.getTimeout();
+	}
+
+	/**
+	 * @param timeout the timeOut to set
+	 */
+	@Override
+	public void setTimeout(int timeout) {
+		transport.setTimeout(timeout);
+	}
+
+	/**
+	 * @return the isConnected
+	 */
+	@Override
+	public boolean isConnected() {
+		return transport.isConnected();
+	}
+
+	/**
+	 * Method close.
+	 */
+	@Override
+	public void close() {
+		transport.close();
+	}
+
+}
@@ -0,0 +1,374 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+
+import com.idevity.android.CardLostException;
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * A CardTransport for the host side of an APDURelayServer.
+ *
+ * Single APDUs are sent as a batch of one, without GET RESPONSE
+ * handling, so the reader engine runs unchanged over the relay.  Use
+ * transmitBatch() to send several commands in one round trip, e.g.,
+ * SELECT followed by the GET DATA commands of a read.
+ *
+ * The card limits and identifiers are fetched once when connecting,
+ * together with the card's generation.  Once the relay has been given
+ * another card, e.g., after a new tap, this transport reports the card
+ * lost; connect again to use the new card.  The timeout is applied to
+ * the socket and bounds each round trip.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class RemoteCardTransport implements CardTransport {
+
+	/**
+	 * Field DEFAULT_TIMEOUT.
+	 * (value is in milliseconds)
+	 */
+	public static final int DEFAULT_TIMEOUT = 30000;
+	/**
+	 * Field socket.
+	 */
+	private final Socket socket;
+	/**
+	 * Field in.
+	 */
+	private final DataInputStream in;
+	/**
+	 * Field out.
+	 */
+	private final DataOutputStream out;
+	/**
+	 * Field historicalBytes.
+	 */
+	private byte[] historicalBytes = new byte[0];
+	/**
+	 * Field cardIdentifier.
+	 */
+	private byte[] cardIdentifier = null;
+	/**
+	 * Field maxTransceive.
+	 */
+	private int maxTransceive = 0;
+	/**
+	 * Field elApduSupport.
+	 */
+	private boolean elApduSupport = false;
+	/**
+	 * Field timeOut.
+	 */
+	private int timeOut = DEFAULT_TIMEOUT;
+	/**
+	 * Field isConnected.
+	 */
+	private boolean isConnected = false;
+	/**
+	 * Field generation.
+	 */
+	private int generation = 0;
+	/**
+	 * Field roundTrips.
+	 */
+	private int roundTrips = 0;
+
+	/**
+	 * Constructor for RemoteCardTransport.
+	 *
+	 * Connects to the relay and fetches the card's details.  If there is
+	 * no card on the relay, isConnected() is false.
+	 *
+	 * @param host
+	 *            String
+	 * @param port
+	 *            int
+	 * @param secret
+	 *            String the secret shown by the relay
+	 * @throws IOException
+	 *             if the relay can not be reached or rejects the secret
+	 */
+	public RemoteCardTransport(String host, int port, String secret)
+			throws IOException {
+		socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeOut);
+			socket.setSoTimeout(timeOut);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeByte(APDURelay.TYPE_INFO);
+			out.writeUTF(secret);
+			out.flush();
+			roundTrips++;
+			int status = in.readUnsignedByte();
+			if (status == APDURelay.STATUS_DENIED) {
+				throw new IOException("Relay secret rejected");
+			}
+			if (status != APDURelay.STATUS_OK) {
+				return;
+			}
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		generation = in.readInt();
+		maxTransceive = in.readInt();
+		elApduSupport = in.readUnsignedByte() != 0;
+		historicalBytes = new byte[in.readUnsignedShort()];
+		in.readFully(historicalBytes);
+		byte[] uid = new byte[in.readUnsignedByte()];
+		in.readFully(uid);
+		cardIdentifier = uid.length > 0 ? uid : null;
+		isConnected = true;
+	}
+
+	/**
+	 * Method transmitBatch.
+	 *
+	 * @param commands
+	 *            List<CommandAPDU> at most APDURelay.MAX_BATCH
+	 * @param flags
+	 *            int APDURelay.FLAG_GET_RESPONSE and/or
+	 *            APDURelay.FLAG_STOP_ON_ERROR
+	 * @return List<ResponseAPDU> one per command executed
+	 * @throws InvalidResponseException
+	 */
+	public List<ResponseAPDU> transmitBatch(List<CommandAPDU> commands, int flags)
+			throws InvalidResponseException {
+		byte[][] encoded = new byte[commands.size()][];
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = commands.get(i).getBytes();
+		}
+		byte[][] responses = exchange(encoded, null, flags);
+		List<ResponseAPDU> result = new ArrayList<ResponseAPDU>(responses.length);
+		for (byte[] response : responses) {
+			result.add(new ResponseAPDU(response));
+		}
+		return result;
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param req
+	 *            CommandAPDU
+	 * @return ResponseAPDU
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public ResponseAPDU transmit(CommandAPDU req) throws InvalidResponseException {
+		return new ResponseAPDU(exchange(new byte[][] { req.getBytes() }, null, 0)[0]);
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param response
+	 *            byte[]
+	 * @return int
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public int transmit(byte[] command, int commandLength, byte[] response)
+			throws InvalidResponseException {
+		byte[] resp = exchange(new byte[][] { command }, new int[] { commandLength }, 0)[0];
+		if (resp.length > response.length) {
+			throw new InvalidResponseException("Response of " + resp.length
+					+ " bytes exceeds buffer");
+		}
+		System.arraycopy(resp, 0, response, 0, resp.length);
+		return resp.length;
+	}
+
+	/**
+	 * Method exchange.
+	 *
+	 * @param commands
+	 *            byte[][]
+	 * @param lengths
+	 *            int[] the length of each command, or null for the whole
+	 *            arrays
+	 * @param flags
+	 *            int
+	 * @return byte[][] the responses
+	 * @throws InvalidResponseException
+	 */
+	private synchronized byte[][] exchange(byte[][] commands, int[] lengths, int flags)
+			throws InvalidResponseException {
+		if (!isConnected) {
+			throw new CardLostException("Card lost");
+		}
+		if (commands.length == 0 || commands.length > APDURelay.MAX_BATCH) {
+			throw new InvalidResponseException("Batch of " + commands.length
+					+ " commands");
+		}
+		int status;
+		byte[][] responses;
+		String message = null;
+		try {
+			out.writeByte(APDURelay.TYPE_BATCH);
+			out.writeInt(generation);
+			out.writeByte(flags);
+			out.writeShort(commands.length);
+			for (int i = 0; i < commands.length; i++) {
+				APDURelay.writeBytes(out, commands[i],
+						lengths == null ? commands[i].length : lengths[i]);
+			}
+			out.flush();
+			roundTrips++;
+			status = in.readUnsignedByte();
+			in.readInt();
+			responses = new byte[in.readUnsignedShort()][];
+			for (int i = 0; i < responses.length; i++) {
+				responses[i] = APDURelay.readBytes(in);
+			}
+			if (status == APDURelay.STATUS_ERROR) {
+				message = in.readUTF();
+			}
+		} catch (IOException e) {
+			isConnected = false;
+			throw new CardLostException("Relay connection lost", e);
+		}
+		if (status == APDURelay.STATUS_CARD_LOST) {
+			isConnected = false;
+			throw new CardLostException("Card lost");
+		}
+		if (status == APDURelay.STATUS_ERROR) {
+			throw new InvalidResponseException(message);
+		}
+		if (responses.length == 0) {
+			throw new InvalidResponseException("Response was null!");
+		}
+		return responses;
+	}
+
+	/**
+	 * @return the generation of the card this transport is bound to
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the number of network round trips made
+	 */
+	public synchronized int getRoundTrips() {
+		return roundTrips;
+	}
+
+	/**
+	 * @return the UID reported by the relay, or null
+	 */
+	@Override
+	public byte[] getCardIdentifier() {
+		return cardIdentifier;
+	}
+
+	/**
+	 * @return the historicalBytes
+	 */
+	@Override
+	public byte[] getHistoricalBytes() {
+		return historicalBytes;
+	}
+
+	/**
+	 * @return the maxTransceive
+	 */
+	@Override
+	public int getMaxTransceiveLength() {
+		return maxTransceive;
+	}
+
+	/**
+	 * @return the elApduSupport
+	 */
+	@Override
+	public boolean isExtendedLengthApduSupported() {
+		return elApduSupport;
+	}
+
+	/**
+	 * @return int
+	 */
+	@Override
+	public int getMaxExtendedLe() {
+		return TransportUtil.getMaxExtendedLe(elApduSupport, maxTransceive);
+	}
+
+	/**
+	 * @return the timeOut
+	 */
+	@Override
+	public int getTimeout() {
+		return timeOut;
+	}
+
+	/**
+	 * @param timeout the longest a round trip to the relay may take
+	 */
+	@Override
+	public void setTimeout(int timeout) {
+		this.timeOut = timeout;
+		try {
+			socket.setSoTimeout(timeout);
+		} catch (SocketException e) {
+			// Applied on the next connection, if any
+		}
+	}
+
+	/**
+	 * @return the isConnected
+	 */
+	@Override
+	public boolean isConnected() {
+		return isConnected;
+	}
+
+	/**
+	 * Method close.
+	 *
+	 * Closes the connection to the relay; the card stays with the relay.
+	 */
+	@Override
+	public synchronized void close() {
+		isConnected = false;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing further to release
+		}
+	}
+
+}
@@ -0,0 +1,271 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.util.List;
+
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+import org.keysupport.util.DataUtil;
+
+import com.idevity.android.CardLostException;
+import com.idevity.android.InvalidResponseException;
+import com.idevity.card.transport.APDUTrace.Frame;
+
+/**
+ * Plays back an APDUTrace in place of a card.
+ *
+ * Each command must be the next command in the trace, byte for byte (for
+ * PIN commands and GENERAL AUTHENTICATE, header and length; see
+ * APDUTrace), and is answered with the response that was recorded for
+ * it.  A recorded proof of possession therefore fails to verify on
+ * replay, its signature being over another challenge.  A card lost
+ * event in the trace is raised as a CardLostException.  If the reader
+ * sends anything else the replay has diverged, and an
+ * InvalidResponseException says where.  By default responses are
+ * returned immediately; setRealTime(true) reproduces the recorded
+ * latency of each exchange.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class ReplayCardTransport implements CardTransport {
+
+	/**
+	 * Field trace.
+	 */
+	private final APDUTrace trace;
+	/**
+	 * Field frames.
+	 */
+	private final List<Frame> frames;
+	/**
+	 * Field next.
+	 */
+	private int next = 0;
+	/**
+	 * Field realTime.
+	 */
+	private boolean realTime = false;
+	/**
+	 * Field timeOut.
+	 */
+	private int timeOut = 0;
+	/**
+	 * Field isConnected.
+	 */
+	private boolean isConnected = true;
+
+	/**
+	 * Constructor for ReplayCardTransport.
+	 *
+	 * @param trace
+	 *            APDUTrace
+	 */
+	public ReplayCardTransport(APDUTrace trace) {
+		this.trace = trace;
+		this.frames = trace.getFrames();
+	}
+
+	/**
+	 * Constructor for ReplayCardTransport.
+	 *
+	 * @param trace
+	 *            byte[] a trace written by RecordingCardTransport
+	 */
+	public ReplayCardTransport(byte[] trace) {
+		this(APDUTrace.parse(trace));
+	}
+
+	/**
+	 * @param realTime true to take as long as the recorded card took
+	 */
+	public void setRealTime(boolean realTime) {
+		this.realTime = realTime;
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param req
+	 *            CommandAPDU
+	 * @return ResponseAPDU
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public ResponseAPDU transmit(CommandAPDU req) throws InvalidResponseException {
+		byte[] command = req.getBytes();
+		return new ResponseAPDU(exchange(command, command.length).getData());
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param response
+	 *            byte[]
+	 * @return int
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public int transmit(byte[] command, int commandLength, byte[] response)
+			throws InvalidResponseException {
+		Frame frame = exchange(command, commandLength);
+		if (frame.getLength() > response.length) {
+			throw new InvalidResponseException("Response of "
+					+ frame.getLength() + " bytes exceeds buffer");
+		}
+		return frame.copyTo(response);
+	}
+
+	/**
+	 * Method exchange.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @return Frame the recorded response
+	 * @throws InvalidResponseException
+	 */
+	private synchronized Frame exchange(byte[] command, int commandLength)
+			throws InvalidResponseException {
+		if (!isConnected) {
+			throw new CardLostException("Card lost");
+		}
+		if (next >= frames.size() || frames.get(next).getType() != APDUTrace.COMMAND) {
+			throw new InvalidResponseException("Replay has no command at frame " + next);
+		}
+		Frame expected = frames.get(next);
+		if (!expected.matches(command, commandLength)) {
+			byte[] sent = new byte[commandLength];
+			System.arraycopy(command, 0, sent, 0, commandLength);
+			throw new InvalidResponseException("Replay diverged at frame " + next
+					+ ", expected: " + DataUtil.byteArrayToString(expected.getData())
+					+ " got: " + DataUtil.byteArrayToString(sent));
+		}
+		next++;
+		if (next >= frames.size() || frames.get(next).getType() == APDUTrace.COMMAND) {
+			throw new InvalidResponseException("Response was null!");
+		}
+		Frame response = frames.get(next++);
+		if (realTime) {
+			long micros = response.getMicros() - expected.getMicros();
+			try {
+				Thread.sleep(micros / 1000L, (int) (micros % 1000L) * 1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InvalidResponseException(e);
+			}
+		}
+		if (response.getType() == APDUTrace.CARD_LOST) {
+			isConnected = false;
+			throw new CardLostException("Card lost");
+		}
+		return response;
+	}
+
+	/**
+	 * Method isComplete.
+	 *
+	 * @return boolean true if every frame in the trace has been played
+	 */
+	public synchronized boolean isComplete() {
+		return next >= frames.size();
+	}
+
+	/**
+	 * @return the index of the next frame to be played
+	 */
+	public synchronized int getPosition() {
+		return next;
+	}
+
+	/**
+	 * @return the cardIdentifier
+	 */
+	@Override
+	public byte[] getCardIdentifier() {
+		return trace.getCardIdentifier();
+	}
+
+	/**
+	 * @return the historicalBytes
+	 */
+	@Override
+	public byte[] getHistoricalBytes() {
+		return trace.getHistoricalBytes();
+	}
+
+	/**
+	 * @return the maxTransceive
+	 */
+	@Override
+	public int getMaxTransceiveLength() {
+		return trace.getMaxTransceiveLength();
+	}
+
+	/**
+	 * @return the elApduSupport
+	 */
+	@Override
+	public boolean isExtendedLengthApduSupported() {
+		return trace.isExtendedLengthApduSupported();
+	}
+
+	/**
+	 * @return int
+	 */
+	@Override
+	public int getMaxExtendedLe() {
+		return TransportUtil.getMaxExtendedLe(trace.isExtendedLengthApduSupported(),
+				trace.getMaxTransceiveLength());
+	}
+
+	/**
+	 * @return the timeOut
+	 */
+	@Override
+	public int getTimeout() {
+		return timeOut;
+	}
+
+	/**
+	 * @param timeout the timeOut to set
+	 */
+	@Override
+	public void setTimeout(int timeout) {
+		this.timeOut = timeout;
+	}
+
+	/**
+	 * @return the isConnected
+	 */
+	@Override
+	public synchronized boolean isConnected() {
+		return isConnected;
+	}
+
+	/**
+	 * Method close.
+	 */
+	@Override
+	public synchronized void close() {
+		isConnected = false;
+	}
+
+}
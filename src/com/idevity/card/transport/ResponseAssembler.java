@@ -0,0 +1,377 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.util.Arrays;
+
+import com.idevity.android.InvalidResponseException;
+import com.idevity.android.ObjectTooLargeException;
+
+/**
+ * Sends a command and collects the complete response data, issuing GET
+ * RESPONSE for as long as the card answers 61xx.
+ *
+ * The first chunk of a chained response starts with the BER-TLV header of
+ * the object, so the final size is known after the first exchange.  The
+ * data is assembled in place in a single array of exactly that size.  If
+ * the header can not be parsed, or the card returns more or less than it
+ * declared, the array is grown or trimmed to fit.  The GET RESPONSE
+ * commands are encoded once, one per Le.
+ *
+ * Each transmit has a ceiling on the response data.  A response that
+ * declares more in its header is abandoned after the first exchange, and
+ * one that returns more is abandoned as soon as it does, so a card can
+ * not keep a read chaining.
+ *
+ * A ChunkListener sees the data as it is assembled, and may stop the
+ * chain early.
+ *
+ * One assembler is used for a whole read session; it is not thread safe.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class ResponseAssembler {
+
+	/**
+	 * Observes each exchange, e.g., to log it.
+	 */
+	public interface Listener {
+
+		/**
+		 * Method onExchange.
+		 *
+		 * @param command
+		 *            byte[]
+		 * @param commandLength
+		 *            int
+		 * @param response
+		 *            byte[]
+		 * @param responseLength
+		 *            int
+		 */
+		public void onExchange(byte[] command, int commandLength,
+				byte[] response, int responseLength);
+	}
+
+	/**
+	 * Observes the response data as it is assembled, e.g., to use the
+	 * start of an object before the rest of it arrives.
+	 */
+	public interface ChunkListener {
+
+		/**
+		 * Method onChunk.
+		 *
+		 * @param data
+		 *            byte[] the data so far, not to be kept; it may be
+		 *            longer than length
+		 * @param length
+		 *            int
+		 * @param complete
+		 *            boolean true if no more data follows
+		 * @return boolean false to issue no more GET RESPONSE, ignored if
+		 *         complete
+		 */
+		public boolean onChunk(byte[] data, int length, boolean complete);
+	}
+
+	/**
+	 * Field MAX_RESPONSE.
+	 * The default ceiling, larger than any PIV data object.
+	 */
+	public static final int MAX_RESPONSE = 65536;
+	/**
+	 * Field MAX_PREALLOCATION.
+	 * Larger declared lengths are not trusted, and the data is grown as it
+	 * arrives instead.
+	 */
+	private static final int MAX_PREALLOCATION = 65536;
+	/**
+	 * Field UNKNOWN_SIZE.
+	 * Initial size when the length could not be read from the header.
+	 */
+	private static final int UNKNOWN_SIZE = 1024;
+	/**
+	 * Field GET_RESPONSE.
+	 * GET RESPONSE for every Le, indexed by SW2 of the 61xx it answers.
+	 */
+	private static final byte[][] GET_RESPONSE = new byte[256][];
+
+	static {
+		for (int le = 0; le < GET_RESPONSE.length; le++) {
+			GET_RESPONSE[le] = new byte[] { 0x00, (byte) 0xc0, 0x00, 0x00, (byte) le };
+		}
+	}
+
+	/**
+	 * Field transport.
+	 */
+	private final CardTransport transport;
+	/**
+	 * Field responseBuffer.
+	 */
+	private final byte[] responseBuffer;
+	/**
+	 * Field listener.
+	 */
+	private Listener listener = null;
+	/**
+	 * Field chunkListener.
+	 */
+	private ChunkListener chunkListener = null;
+	/**
+	 * Field abandoned.
+	 */
+	private boolean abandoned = false;
+	/**
+	 * Field data.
+	 */
+	private byte[] data = null;
+	/**
+	 * Field exchanges.
+	 */
+	private int exchanges = 0;
+	/**
+	 * Field largestResponse.
+	 */
+	private int largestResponse = 0;
+
+	/**
+	 * Constructor for ResponseAssembler.
+	 *
+	 * @param transport
+	 *            CardTransport
+	 * @param responseBuffer
+	 *            byte[] receives each response, must hold
+	 *            getMaxTransceiveLength() bytes
+	 */
+	public ResponseAssembler(CardTransport transport, byte[] responseBuffer) {
+		this.transport = transport;
+		this.responseBuffer = responseBuffer;
+	}
+
+	/**
+	 * @param listener the listener to notify of each exchange, or null
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param chunkListener the listener to show the response data as it
+	 *            is assembled, or null
+	 */
+	public void setChunkListener(ChunkListener chunkListener) {
+		this.chunkListener = chunkListener;
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @return int the status word of the last response, 61xx if the
+	 *         ChunkListener abandoned the chain
+	 * @throws InvalidResponseException
+	 */
+	public int transmit(byte[] command, int commandLength)
+			throws InvalidResponseException {
+		return transmit(command, commandLength, MAX_RESPONSE);
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param maxLength
+	 *            int the most response data to accept
+	 * @return int the status word of the last response, 61xx if the
+	 *         ChunkListener abandoned the chain
+	 * @throws ObjectTooLargeException
+	 *             if the response declares or returns more than maxLength
+	 * @throws InvalidResponseException
+	 */
+	public int transmit(byte[] command, int commandLength, int maxLength)
+			throws InvalidResponseException {
+		data = null;
+		exchanges = 0;
+		abandoned = false;
+		int length = exchange(command, commandLength);
+		int status_word = TransportUtil.getSW(responseBuffer, length);
+		if ((status_word >> 8) != 0x61) {
+			if (length - 2 > maxLength) {
+				throw new ObjectTooLargeException(maxLength, length - 2);
+			}
+			if (length > 2) {
+				data = Arrays.copyOf(responseBuffer, length - 2);
+				if (chunkListener != null) {
+					chunkListener.onChunk(data, data.length, true);
+				}
+			}
+			return status_word;
+		}
+		int declared = getDeclaredLength(responseBuffer, length - 2);
+		if (declared > maxLength) {
+			throw new ObjectTooLargeException(maxLength, declared);
+		}
+		int expected = declared <= MAX_PREALLOCATION ? declared : -1;
+		byte[] assembled = new byte[expected > 0 ? expected
+				: Math.min(UNKNOWN_SIZE, maxLength)];
+		int filled = 0;
+		while (true) {
+			int chunk = length - 2;
+			if (filled + chunk > maxLength) {
+				throw new ObjectTooLargeException(maxLength, filled + chunk);
+			}
+			if (filled + chunk > assembled.length) {
+				assembled = Arrays.copyOf(assembled, Math.min(maxLength,
+						Math.max(assembled.length * 2, filled + chunk)));
+			}
+			System.arraycopy(responseBuffer, 0, assembled, filled, chunk);
+			filled += chunk;
+			boolean more = (status_word >> 8) == 0x61;
+			if (chunkListener != null
+					&& !chunkListener.onChunk(assembled, filled, !more) && more) {
+				abandoned = true;
+				break;
+			}
+			if (!more) {
+				break;
+			}
+			byte[] getResponse = GET_RESPONSE[status_word & 0xff];
+			length = exchange(getResponse, getResponse.length);
+			status_word = TransportUtil.getSW(responseBuffer, length);
+		}
+		data = filled == assembled.length ? assembled : Arrays.copyOf(assembled, filled);
+		return status_word;
+	}
+
+	/**
+	 * @return the response data of the last transmit, or null if there was
+	 *         none
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return true if the ChunkListener stopped the last transmit before
+	 *         all of the data was returned; getData() then holds what was
+	 */
+	public boolean isAbandoned() {
+		return abandoned;
+	}
+
+	/**
+	 * @return the most data returned in one exchange by any transmit so
+	 *         far, in bytes
+	 */
+	public int getLargestResponse() {
+		return largestResponse;
+	}
+
+	/**
+	 * @return the number of APDUs the last transmit took, including GET
+	 *         RESPONSE
+	 */
+	public int getExchanges() {
+		return exchanges;
+	}
+
+	/**
+	 * Method getEncodedLength.
+	 *
+	 * @param buffer
+	 *            byte[] starts with a BER-TLV header
+	 * @param length
+	 *            int the number of bytes available
+	 * @return int the length of the whole TLV, or -1 if the header is
+	 *         incomplete or the length is not plausible
+	 */
+	public static int getEncodedLength(byte[] buffer, int length) {
+		int encoded = getDeclaredLength(buffer, length);
+		return encoded > MAX_PREALLOCATION ? -1 : encoded;
+	}
+
+	/**
+	 * Method getDeclaredLength.
+	 *
+	 * @param buffer
+	 *            byte[] starts with a BER-TLV header
+	 * @param length
+	 *            int the number of bytes available
+	 * @return int the length of the whole TLV as declared, however large,
+	 *         or -1 if the header is incomplete
+	 */
+	private static int getDeclaredLength(byte[] buffer, int length) {
+		int offset = 0;
+		if (length < 2) {
+			return -1;
+		}
+		if ((buffer[offset++] & 0x1f) == 0x1f) {
+			/* Multi-byte tag */
+			while (offset < length && (buffer[offset++] & 0x80) == 0x80) {
+				if (offset >= 4) {
+					return -1;
+				}
+			}
+		}
+		if (offset >= length) {
+			return -1;
+		}
+		int first = buffer[offset++] & 0xff;
+		if (first < 0x80) {
+			return offset + first;
+		}
+		int octets = first & 0x7f;
+		if (octets == 0 || octets > 3 || offset + octets > length) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = 0; i < octets; i++) {
+			value = (value << 8) | (buffer[offset++] & 0xff);
+		}
+		return offset + value;
+	}
+
+	/**
+	 * Method exchange.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @return int the length of the response
+	 * @throws InvalidResponseException
+	 */
+	private int exchange(byte[] command, int commandLength)
+			throws InvalidResponseException {
+		int length = transport.transmit(command, commandLength, responseBuffer);
+		exchanges++;
+		if (length - 2 > largestResponse) {
+			largestResponse = length - 2;
+		}
+		if (listener != null) {
+			listener.onExchange(command, commandLength, responseBuffer, length);
+		}
+		return length;
+	}
+
+}
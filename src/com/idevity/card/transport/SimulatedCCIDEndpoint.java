@@ -0,0 +1,415 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import com.idevity.android.CardLostException;
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * An in-memory CCID reader in front of a CardTransport.
+ *
+ * Answers IccPowerOn, IccPowerOff and XfrBlock the way an APDU level
+ * reader would, including command and response chaining when a message
+ * exceeds dwMaxCCIDMessageLength, and can be made to request a number of
+ * time extensions before each response.  It counts the commands that
+ * were sent while no bulk-in transfer was queued, which a pipelined host
+ * never does.  Together with SimulatedCardTransport it lets CCIDTransport
+ * run without a reader.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class SimulatedCCIDEndpoint implements CCIDEndpoint {
+
+	/**
+	 * Field HW_ERROR.
+	 * bError, hardware error.
+	 */
+	private static final int HW_ERROR = 0xfb;
+	/**
+	 * Field card.
+	 */
+	private final CardTransport card;
+	/**
+	 * Field descriptor.
+	 */
+	private final byte[] descriptor;
+	/**
+	 * Field maxMessage.
+	 */
+	private final int maxMessage;
+	/**
+	 * Field messages.
+	 * Messages from the reader, waiting for a bulk-in transfer.
+	 */
+	private final LinkedList<byte[]> messages = new LinkedList<byte[]>();
+	/**
+	 * Field queued.
+	 * The buffer of the queued bulk-in transfer.
+	 */
+	private byte[] queued = null;
+	/**
+	 * Field command.
+	 * A chained command received so far.
+	 */
+	private ByteArrayOutputStream command = new ByteArrayOutputStream();
+	/**
+	 * Field response.
+	 * The response being returned in parts.
+	 */
+	private byte[] response = null;
+	/**
+	 * Field responseOffset.
+	 */
+	private int responseOffset = 0;
+	/**
+	 * Field timeExtensions.
+	 */
+	private int timeExtensions = 0;
+	/**
+	 * Field bulkOuts.
+	 */
+	private int bulkOuts = 0;
+	/**
+	 * Field stalls.
+	 */
+	private int stalls = 0;
+
+	/**
+	 * Constructor for SimulatedCCIDEndpoint.
+	 *
+	 * @param card
+	 *            CardTransport the card in the slot
+	 * @param maxMessage
+	 *            int dwMaxCCIDMessageLength
+	 * @param extended
+	 *            boolean true for an extended APDU level reader, false for
+	 *            a short APDU level reader
+	 */
+	public SimulatedCCIDEndpoint(CardTransport card, int maxMessage, boolean extended) {
+		this.card = card;
+		this.maxMessage = maxMessage;
+		this.descriptor = new byte[54];
+		descriptor[0] = 54;
+		descriptor[1] = 0x21;
+		descriptor[2] = 0x10;
+		descriptor[3] = 0x01;
+		/* dwProtocols: T=1 */
+		descriptor[6] = 0x02;
+		putInt(descriptor, 40, extended ? CCIDTransport.FEATURE_EXTENDED_APDU
+				: CCIDTransport.FEATURE_SHORT_APDU);
+		putInt(descriptor, 44, maxMessage);
+	}
+
+	/**
+	 * @param timeExtensions the number of time extensions to request
+	 *            before each response
+	 */
+	public void setTimeExtensions(int timeExtensions) {
+		this.timeExtensions = timeExtensions;
+	}
+
+	/**
+	 * @return the number of messages sent to the reader
+	 */
+	public int getBulkOuts() {
+		return bulkOuts;
+	}
+
+	/**
+	 * @return the number of messages sent to the reader while no bulk-in
+	 *         transfer was queued
+	 */
+	public int getStalls() {
+		return stalls;
+	}
+
+	/**
+	 * @return byte[]
+	 */
+	@Override
+	public byte[] getClassDescriptor() {
+		return descriptor.clone();
+	}
+
+	/**
+	 * Method bulkOut.
+	 *
+	 * @param data
+	 *            byte[]
+	 * @param length
+	 *            int
+	 * @param timeout
+	 *            int
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void bulkOut(byte[] data, int length, int timeout) throws IOException {
+		if (length < CCIDTransport.HEADER || length > maxMessage
+				|| CCIDTransport.getInt(data, 1) != length - CCIDTransport.HEADER) {
+			throw new IOException("Malformed CCID message");
+		}
+		bulkOuts++;
+		if (queued == null) {
+			stalls++;
+		}
+		int type = data[0] & 0xff;
+		int seq = data[6] & 0xff;
+		int level = (data[8] & 0xff) | ((data[9] & 0xff) << 8);
+		switch (type) {
+		case CCIDTransport.PC_TO_RDR_ICC_POWER_ON:
+			if (!card.isConnected()) {
+				fail(CCIDTransport.RDR_TO_PC_DATA_BLOCK, seq, CCIDTransport.ERROR_ICC_MUTE);
+				return;
+			}
+			byte[] hb = card.getHistoricalBytes();
+			/* TS T0 TD1 TD2 (T=1) historical bytes TCK */
+			byte[] atr = new byte[4 + hb.length + 1];
+			atr[0] = 0x3b;
+			atr[1] = (byte) (0x80 | hb.length);
+			atr[2] = (byte) 0x80;
+			atr[3] = 0x01;
+			System.arraycopy(hb, 0, atr, 4, hb.length);
+			for (int i = 1; i < atr.length - 1; i++) {
+				atr[atr.length - 1] ^= atr[i];
+			}
+			reply(CCIDTransport.RDR_TO_PC_DATA_BLOCK, seq, atr, 0, atr.length,
+					CCIDTransport.LEVEL_BEGIN_END);
+			return;
+		case CCIDTransport.PC_TO_RDR_ICC_POWER_OFF:
+			reply(CCIDTransport.RDR_TO_PC_SLOT_STATUS, seq, null, 0, 0, 0);
+			return;
+		case CCIDTransport.PC_TO_RDR_XFR_BLOCK:
+			xfrBlock(data, length, seq, level);
+			return;
+		default:
+			fail(CCIDTransport.RDR_TO_PC_SLOT_STATUS, seq, 0);
+		}
+	}
+
+	/**
+	 * Method xfrBlock.
+	 *
+	 * @param data
+	 *            byte[]
+	 * @param length
+	 *            int
+	 * @param seq
+	 *            int
+	 * @param level
+	 *            int
+	 */
+	private void xfrBlock(byte[] data, int length, int seq, int level) {
+		if (level == CCIDTransport.LEVEL_EMPTY) {
+			if (response == null) {
+				fail(CCIDTransport.RDR_TO_PC_DATA_BLOCK, seq, HW_ERROR);
+				return;
+			}
+			nextPart(seq);
+			return;
+		}
+		response = null;
+		if (level == CCIDTransport.LEVEL_BEGIN || level == CCIDTransport.LEVEL_BEGIN_END) {
+			command.reset();
+		}
+		command.write(data, CCIDTransport.HEADER, length - CCIDTransport.HEADER);
+		if (level == CCIDTransport.LEVEL_BEGIN || level == CCIDTransport.LEVEL_CONTINUE) {
+			reply(CCIDTransport.RDR_TO_PC_DATA_BLOCK, seq, null, 0, 0,
+					CCIDTransport.LEVEL_EMPTY);
+			return;
+		}
+		byte[] apdu = command.toByteArray();
+		command.reset();
+		byte[] resp = new byte[card.getMaxTransceiveLength() + 2];
+		int len;
+		try {
+			len = card.transmit(apdu, apdu.length, resp);
+		} catch (CardLostException e) {
+			fail(CCIDTransport.RDR_TO_PC_DATA_BLOCK, seq, CCIDTransport.ERROR_ICC_MUTE);
+			return;
+		} catch (InvalidResponseException e) {
+			fail(CCIDTransport.RDR_TO_PC_DATA_BLOCK, seq, HW_ERROR);
+			return;
+		}
+		for (int i = 0; i < timeExtensions; i++) {
+			byte[] msg = header(CCIDTransport.RDR_TO_PC_DATA_BLOCK, seq, 0);
+			msg[7] = (byte) (CCIDTransport.STATUS_TIME_EXTENSION << 6);
+			msg[8] = 1;
+			messages.add(msg);
+		}
+		response = Arrays.copyOf(resp, len);
+		responseOffset = 0;
+		nextPart(seq);
+	}
+
+	/**
+	 * Method nextPart.
+	 *
+	 * @param seq
+	 *            int
+	 */
+	private void nextPart(int seq) {
+		int max = maxMessage - CCIDTransport.HEADER;
+		int chunk = Math.min(response.length - responseOffset, max);
+		boolean first = responseOffset == 0;
+		boolean last = responseOffset + chunk == response.length;
+		int chain;
+		if (first) {
+			chain = last ? CCIDTransport.LEVEL_BEGIN_END : CCIDTransport.LEVEL_BEGIN;
+		} else {
+			chain = last ? CCIDTransport.LEVEL_END : CCIDTransport.LEVEL_CONTINUE;
+		}
+		reply(CCIDTransport.RDR_TO_PC_DATA_BLOCK, seq, response, responseOffset, chunk, chain);
+		responseOffset += chunk;
+		if (last) {
+			response = null;
+		}
+	}
+
+	/**
+	 * Method header.
+	 *
+	 * @param type
+	 *            int
+	 * @param seq
+	 *            int
+	 * @param length
+	 *            int
+	 * @return byte[] a message with the header filled in, status 0 (card
+	 *         present and active)
+	 */
+	private byte[] header(int type, int seq, int length) {
+		byte[] msg = new byte[CCIDTransport.HEADER + length];
+		msg[0] = (byte) type;
+		putInt(msg, 1, length);
+		msg[6] = (byte) seq;
+		return msg;
+	}
+
+	/**
+	 * Method reply.
+	 *
+	 * @param type
+	 *            int
+	 * @param seq
+	 *            int
+	 * @param data
+	 *            byte[]
+	 * @param offset
+	 *            int
+	 * @param length
+	 *            int
+	 * @param chain
+	 *            int bChainParameter
+	 */
+	private void reply(int type, int seq, byte[] data, int offset, int length, int chain) {
+		byte[] msg = header(type, seq, length);
+		if (length > 0) {
+			System.arraycopy(data, offset, msg, CCIDTransport.HEADER, length);
+		}
+		msg[9] = (byte) chain;
+		messages.add(msg);
+	}
+
+	/**
+	 * Method fail.
+	 *
+	 * @param type
+	 *            int
+	 * @param seq
+	 *            int
+	 * @param error
+	 *            int bError
+	 */
+	private void fail(int type, int seq, int error) {
+		byte[] msg = header(type, seq, 0);
+		int icc = card.isConnected() ? 0 : CCIDTransport.ICC_NOT_PRESENT;
+		msg[7] = (byte) ((CCIDTransport.STATUS_FAILED << 6) | icc);
+		msg[8] = (byte) error;
+		messages.add(msg);
+	}
+
+	/**
+	 * Method queueIn.
+	 *
+	 * @param buffer
+	 *            byte[]
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void queueIn(byte[] buffer) throws IOException {
+		if (queued != null) {
+			throw new IOException("A bulk-in transfer is already queued");
+		}
+		queued = buffer;
+	}
+
+	/**
+	 * Method awaitIn.
+	 *
+	 * @param timeout
+	 *            int
+	 * @return byte[]
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized byte[] awaitIn(int timeout) throws IOException {
+		if (queued == null) {
+			throw new IOException("No bulk-in transfer queued");
+		}
+		if (messages.isEmpty()) {
+			throw new IOException("Timed out");
+		}
+		byte[] msg = messages.removeFirst();
+		if (msg.length > queued.length) {
+			throw new IOException("Babble: " + msg.length + " byte message");
+		}
+		byte[] buffer = queued;
+		queued = null;
+		System.arraycopy(msg, 0, buffer, 0, msg.length);
+		return buffer;
+	}
+
+	/**
+	 * Method close.
+	 */
+	@Override
+	public synchronized void close() {
+		queued = null;
+		messages.clear();
+	}
+
+	/**
+	 * Method putInt.
+	 *
+	 * @param buffer
+	 *            byte[]
+	 * @param offset
+	 *            int
+	 * @param value
+	 *            int stored little endian
+	 */
+	private static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >> 8);
+		buffer[offset + 2] = (byte) (value >> 16);
+		buffer[offset + 3] = (byte) (value >> 24);
+	}
+
+}
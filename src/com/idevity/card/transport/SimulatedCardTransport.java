@@ -0,0 +1,550 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+
+import org.keysupport.encoding.BERTLVFactory;
+import org.keysupport.encoding.TLV;
+import org.keysupport.encoding.Tag;
+import org.keysupport.nist80073.cardedge.PIVAPDUInterface;
+import org.keysupport.nist80073.cardedge.PIVDataTempl;
+import org.keysupport.smartcardio.CommandAPDU;
+import org.keysupport.smartcardio.ResponseAPDU;
+import org.keysupport.util.DataUtil;
+
+import com.idevity.android.CardLostException;
+import com.idevity.android.InvalidResponseException;
+import com.idevity.card.data.CardData80073;
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * An in-memory PIV card.
+ *
+ * Answers SELECT, GET DATA, GET RESPONSE and GENERAL AUTHENTICATE (Card
+ * Authentication Key only) from a CardData80073, the same way a card
+ * would over ISO 14443-4: responses larger than Ne are returned in 61xx
+ * chunks, and command chaining is honored.  An optional per-APDU latency
+ * may be configured so that reads can be measured under a realistic
+ * round trip cost, and the card can be made to leave the field after a
+ * number of APDUs.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class SimulatedCardTransport implements CardTransport {
+
+	/**
+	 * Field SW_SUCCESS.
+	 */
+	private static final int SW_SUCCESS = PIVAPDUInterface.PIV_SW_SUCCESSFUL_EXECUTION;
+	/**
+	 * Field SW_NOT_FOUND.
+	 */
+	private static final int SW_NOT_FOUND = PIVAPDUInterface.PIV_SW_OBJECT_OR_APPLICATION_NOT_FOUND;
+	/**
+	 * Field SW_INS_NOT_SUPPORTED.
+	 */
+	private static final int SW_INS_NOT_SUPPORTED = 0x6d00;
+	/**
+	 * Field SW_CONDITIONS_NOT_SATISFIED.
+	 */
+	private static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+	/**
+	 * Field SW_WRONG_DATA.
+	 */
+	private static final int SW_WRONG_DATA = 0x6a80;
+	/**
+	 * Field objects.
+	 * Encoded data objects keyed by the hex string of their tag.
+	 */
+	private final Map<String, byte[]> objects = new HashMap<String, byte[]>();
+	/**
+	 * Field historicalBytes.
+	 */
+	private byte[] historicalBytes;
+	/**
+	 * Field pcap.
+	 */
+	private byte[] pcap;
+	/**
+	 * Field cardAuthKey.
+	 */
+	private PrivateKey cardAuthKey;
+	/**
+	 * Field maxTransceive.
+	 */
+	private int maxTransceive = 261;
+	/**
+	 * Field elApduSupport.
+	 */
+	private boolean elApduSupport = false;
+	/**
+	 * Field timeOut.
+	 */
+	private int timeOut = 0;
+	/**
+	 * Field latency.
+	 */
+	private long latency = 0;
+	/**
+	 * Field isConnected.
+	 */
+	private boolean isConnected = true;
+	/**
+	 * Field cardIdentifier.
+	 */
+	private byte[] cardIdentifier;
+	/**
+	 * Field apdusUntilLost.
+	 * APDUs left before the card leaves the field, or -1 for never.
+	 */
+	private int apdusUntilLost = -1;
+	/**
+	 * Field pending.
+	 * The unread remainder of the last response, for GET RESPONSE.
+	 */
+	private byte[] pending = null;
+	/**
+	 * Field pendingOffset.
+	 */
+	private int pendingOffset = 0;
+	/**
+	 * Field chained.
+	 * Data received so far in a chained GENERAL AUTHENTICATE.
+	 */
+	private ByteArrayOutputStream chained = new ByteArrayOutputStream();
+
+	/**
+	 * Constructor for SimulatedCardTransport.
+	 *
+	 * @param historicalBytes
+	 *            byte[]
+	 */
+	public SimulatedCardTransport(byte[] historicalBytes) {
+		this.historicalBytes = historicalBytes == null ? new byte[0] : historicalBytes;
+	}
+
+	/**
+	 * Constructor for SimulatedCardTransport.
+	 *
+	 * Loads every PIV container, the PCAP, historical bytes and the Card
+	 * Authentication private key (if any) from the card data.
+	 *
+	 * @param cd
+	 *            CardData80073
+	 */
+	public SimulatedCardTransport(CardData80073 cd) {
+		this(cd.getATSHB());
+		this.cardIdentifier = cd.getCSN();
+		for (PIVContainer container : PIVContainer.values()) {
+			PIVDataTempl data = container.get(cd);
+			if (data != null) {
+				putDataObject(container.getTagBytes(), data.getEncoded());
+			}
+		}
+		if (cd.getPIVCardApplicationProperty() != null) {
+			pcap = cd.getPIVCardApplicationProperty().getEncoded();
+		}
+		if (cd.getCardAuthPrivate() instanceof PrivateKey) {
+			cardAuthKey = (PrivateKey) cd.getCardAuthPrivate();
+		}
+	}
+
+	/**
+	 * Method putDataObject.
+	 *
+	 * @param tag
+	 *            byte[] the tag listed in the GET DATA tag list (5C)
+	 * @param encoded
+	 *            byte[] the complete encoded response, i.e., 53 L V
+	 */
+	public void putDataObject(byte[] tag, byte[] encoded) {
+		objects.put(DataUtil.byteArrayToString(tag), encoded);
+	}
+
+	/**
+	 * @param pcap the PIV Card Application Property template returned by SELECT
+	 */
+	public void setApplicationProperty(byte[] pcap) {
+		this.pcap = pcap;
+	}
+
+	/**
+	 * @param cardAuthKey the Card Authentication private key
+	 */
+	public void setCardAuthKey(PrivateKey cardAuthKey) {
+		this.cardAuthKey = cardAuthKey;
+	}
+
+	/**
+	 * Method setTransceiveLimits.
+	 *
+	 * @param maxTransceive
+	 *            int
+	 * @param elApduSupport
+	 *            boolean
+	 */
+	public void setTransceiveLimits(int maxTransceive, boolean elApduSupport) {
+		this.maxTransceive = maxTransceive;
+		this.elApduSupport = elApduSupport;
+	}
+
+	/**
+	 * @param latency the simulated time each APDU takes, in milliseconds
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * @param cardIdentifier the UID (CSN) to report
+	 */
+	public void setCardIdentifier(byte[] cardIdentifier) {
+		this.cardIdentifier = cardIdentifier;
+	}
+
+	/**
+	 * Method setLostAfter.
+	 *
+	 * @param apdus
+	 *            int the number of APDUs answered before the card leaves
+	 *            the field, or -1 for never
+	 */
+	public void setLostAfter(int apdus) {
+		this.apdusUntilLost = apdus;
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param req
+	 *            CommandAPDU
+	 * @return ResponseAPDU
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public synchronized ResponseAPDU transmit(CommandAPDU req) throws InvalidResponseException {
+		if (apdusUntilLost == 0) {
+			isConnected = false;
+			apdusUntilLost = -1;
+		}
+		if (!isConnected) {
+			throw new CardLostException("Card lost");
+		}
+		if (apdusUntilLost > 0) {
+			apdusUntilLost--;
+		}
+		if (req.getBytes().length > maxTransceive) {
+			throw new InvalidResponseException("Command exceeds transceive limit");
+		}
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InvalidResponseException(e);
+			}
+		}
+		int ins = req.getINS();
+		if (ins != 0xc0) {
+			pending = null;
+		}
+		if (ins != 0x87) {
+			chained.reset();
+		}
+		switch (ins) {
+		case 0xa4:
+			return select(req);
+		case 0xcb:
+			return getData(req);
+		case 0xc0:
+			return getResponse(req);
+		case 0x87:
+			return generalAuthenticate(req);
+		default:
+			return status(SW_INS_NOT_SUPPORTED);
+		}
+	}
+
+	/**
+	 * Method transmit.
+	 *
+	 * @param command
+	 *            byte[]
+	 * @param commandLength
+	 *            int
+	 * @param response
+	 *            byte[]
+	 * @return int
+	 * @throws InvalidResponseException
+	 */
+	@Override
+	public int transmit(byte[] command, int commandLength, byte[] response)
+			throws InvalidResponseException {
+		byte[] resp = transmit(new CommandAPDU(command, 0, commandLength)).getBytes();
+		if (resp.length > response.length) {
+			throw new InvalidResponseException("Response of " + resp.length
+					+ " bytes exceeds buffer");
+		}
+		System.arraycopy(resp, 0, response, 0, resp.length);
+		return resp.length;
+	}
+
+	/**
+	 * Method select.
+	 * @param req CommandAPDU
+	 * @return ResponseAPDU
+	 */
+	private ResponseAPDU select(CommandAPDU req) {
+		byte[] aid = req.getData();
+		byte[] piv = Arrays.copyOfRange(PIVAPDUInterface.PIV_AID, 0, aid.length);
+		if (aid.length == 0 || !Arrays.equals(aid, piv)) {
+			return status(SW_NOT_FOUND);
+		}
+		if (pcap == null) {
+			return status(SW_SUCCESS);
+		}
+		return respond(pcap, req.getNe());
+	}
+
+	/**
+	 * Method getData.
+	 * @param req CommandAPDU
+	 * @return ResponseAPDU
+	 */
+	private ResponseAPDU getData(CommandAPDU req) {
+		byte[] data = req.getData();
+		if (data.length < 3 || data[0] != (byte) 0x5c || data[1] != data.length - 2) {
+			return status(SW_WRONG_DATA);
+		}
+		byte[] tag = Arrays.copyOfRange(data, 2, data.length);
+		byte[] encoded = objects.get(DataUtil.byteArrayToString(tag));
+		if (encoded == null) {
+			return status(SW_NOT_FOUND);
+		}
+		return respond(encoded, req.getNe());
+	}
+
+	/**
+	 * Method getResponse.
+	 * @param req CommandAPDU
+	 * @return ResponseAPDU
+	 */
+	private ResponseAPDU getResponse(CommandAPDU req) {
+		if (pending == null) {
+			return status(SW_CONDITIONS_NOT_SATISFIED);
+		}
+		return next(req.getNe());
+	}
+
+	/**
+	 * Method generalAuthenticate.
+	 *
+	 * Signs the challenge (tag 81) of a dynamic authentication template
+	 * with the Card Authentication Key.
+	 *
+	 * @param req CommandAPDU
+	 * @return ResponseAPDU
+	 */
+	private ResponseAPDU generalAuthenticate(CommandAPDU req) {
+		byte[] data = req.getData();
+		chained.write(data, 0, data.length);
+		if ((req.getCLA() & 0x10) == 0x10) {
+			return status(SW_SUCCESS);
+		}
+		byte[] template = chained.toByteArray();
+		chained.reset();
+		if (cardAuthKey == null || req.getP2() != 0x9e) {
+			return status(SW_NOT_FOUND);
+		}
+		byte[] challenge = null;
+		Enumeration<TLV> tlvs = BERTLVFactory.decodeTLV(template);
+		while (tlvs.hasMoreElements()) {
+			Enumeration<TLV> children = tlvs.nextElement().getChildren();
+			while (children != null && children.hasMoreElements()) {
+				TLV child = children.nextElement();
+				if (child.getTag().getBytes()[0] == (byte) 0x81) {
+					challenge = child.getValue();
+				}
+			}
+		}
+		if (challenge == null) {
+			return status(SW_WRONG_DATA);
+		}
+		byte[] signature;
+		try {
+			if (cardAuthKey.getAlgorithm().equalsIgnoreCase("RSA")) {
+				Cipher rsa = Cipher.getInstance("RSA/ECB/NoPadding");
+				rsa.init(Cipher.ENCRYPT_MODE, cardAuthKey);
+				signature = rsa.doFinal(challenge);
+			} else {
+				Signature ecdsa = Signature.getInstance("NONEwithECDSA");
+				ecdsa.initSign(cardAuthKey);
+				ecdsa.update(challenge);
+				signature = ecdsa.sign();
+			}
+		} catch (GeneralSecurityException e) {
+			return status(SW_CONDITIONS_NOT_SATISFIED);
+		}
+		TLV response = BERTLVFactory.encodeTLV(new Tag((byte) 0x82), signature);
+		TLV dat = BERTLVFactory.encodeTLV(new Tag(Tag.PIV_DAT), response.getBytes());
+		return respond(dat.getBytes(), req.getNe());
+	}
+
+	/**
+	 * Method respond.
+	 * @param value byte[]
+	 * @param ne int
+	 * @return ResponseAPDU
+	 */
+	private ResponseAPDU respond(byte[] value, int ne) {
+		pending = value;
+		pendingOffset = 0;
+		return next(ne);
+	}
+
+	/**
+	 * Method next.
+	 *
+	 * Return up to Ne bytes of the pending response, with 61xx if more
+	 * remain.
+	 *
+	 * @param ne int
+	 * @return ResponseAPDU
+	 */
+	private ResponseAPDU next(int ne) {
+		if (ne == 0) {
+			ne = TransportUtil.MAX_SHORT_LE;
+		}
+		int remaining = pending.length - pendingOffset;
+		int len = Math.min(Math.min(ne, remaining), maxTransceive - 2);
+		byte[] resp = new byte[len + 2];
+		System.arraycopy(pending, pendingOffset, resp, 0, len);
+		pendingOffset += len;
+		remaining -= len;
+		if (remaining > 0) {
+			resp[len] = (byte) 0x61;
+			resp[len + 1] = (byte) Math.min(remaining, 0xff);
+		} else {
+			pending = null;
+			resp[len] = (byte) 0x90;
+			resp[len + 1] = (byte) 0x00;
+		}
+		return new ResponseAPDU(resp);
+	}
+
+	/**
+	 * Method status.
+	 * @param sw int
+	 * @return ResponseAPDU
+	 */
+	private static ResponseAPDU status(int sw) {
+		return new ResponseAPDU(new byte[] { (byte) (sw >> 8), (byte) sw });
+	}
+
+	/**
+	 * @return the cardIdentifier
+	 */
+	@Override
+	public byte[] getCardIdentifier() {
+		return cardIdentifier;
+	}
+
+	/**
+	 * @return the historicalBytes
+	 */
+	@Override
+	public byte[] getHistoricalBytes() {
+		return historicalBytes;
+	}
+
+	/**
+	 * @return the maxTransceive
+	 */
+	@Override
+	public int getMaxTransceiveLength() {
+		return maxTransceive;
+	}
+
+	/**
+	 * @return the elApduSupport
+	 */
+	@Override
+	public boolean isExtendedLengthApduSupported() {
+		return elApduSupport;
+	}
+
+	/**
+	 * @return int
+	 */
+	@Override
+	public int getMaxExtendedLe() {
+		return TransportUtil.getMaxExtendedLe(elApduSupport, maxTransceive);
+	}
+
+	/**
+	 * @return the timeOut
+	 */
+	@Override
+	public int getTimeout() {
+		return timeOut;
+	}
+
+	/**
+	 * @param timeout the timeOut to set
+	 */
+	@Override
+	public void setTimeout(int timeout) {
+		this.timeOut = timeout;
+	}
+
+	/**
+	 * @return the isConnected
+	 */
+	@Override
+	public boolean isConnected() {
+		return isConnected;
+	}
+
+	/**
+	 * Method close.
+	 */
+	@Override
+	public synchronized void close() {
+		isConnected = false;
+		pending = null;
+	}
+
+	/**
+	 * Method reconnect.
+	 *
+	 * Brings the card back into the field, e.g., after setLostAfter().
+	 */
+	public synchronized void reconnect() {
+		isConnected = true;
+		pending = null;
+		chained.reset();
+	}
+
+}
@@ -0,0 +1,415 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.idevity.card.data.PIVContainer;
+
+/**
+ * Learns how long each class of command takes and hands out a transceive
+ * timeout budget per class.
+ *
+ * A command class is the INS byte plus the size of the response that was
+ * asked for (no data, a short Le, or an extended Le).  An extended GET
+ * DATA returns the whole object in one response, so it is further split
+ * by the typical size of the object asked for (SIZE_LARGE).  For each
+ * class we keep the last SAMPLES latencies and set the budget to the
+ * PERCENTILE latency times MARGIN, plus SLACK, bounded by MIN_BUDGET and
+ * MAX_BUDGET.
+ * Until a class has MIN_SAMPLES we use its preloaded budget, or a default:
+ * long for GENERAL AUTHENTICATE (RSA-2048 private key operations), short
+ * for SELECT, GET DATA and GET RESPONSE, so a dead card fails fast.
+ *
+ * A command that times out took at least its budget, so it is not a
+ * sample.  Instead the budget of its class is doubled, up to MAX_BUDGET,
+ * and the learned budget is kept from falling back below that until
+ * SAMPLES more commands of the class have completed.
+ *
+ * The learned budgets can be exported with getProfile() and loaded into a
+ * new controller with preload().
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public class TimeoutController {
+
+	/**
+	 * Field SIZE_NONE.
+	 * No response data requested (no Le).
+	 */
+	public static final int SIZE_NONE = 0;
+	/**
+	 * Field SIZE_SHORT.
+	 * Up to 256 bytes of response data requested.
+	 */
+	public static final int SIZE_SHORT = 1;
+	/**
+	 * Field SIZE_EXTENDED.
+	 * More than 256 bytes of response data requested.
+	 */
+	public static final int SIZE_EXTENDED = 2;
+	/**
+	 * Field SIZE_LARGE.
+	 * An extended GET DATA for an object typically larger than
+	 * LARGE_OBJECT, e.g., an image.
+	 */
+	public static final int SIZE_LARGE = 3;
+	/**
+	 * Field LARGE_OBJECT.
+	 * (value is in bytes)
+	 */
+	private static final int LARGE_OBJECT = 4096;
+	/**
+	 * Field INS_GET_DATA.
+	 */
+	private static final int INS_GET_DATA = 0xcb;
+	/**
+	 * Field TAG_LIST.
+	 */
+	private static final int TAG_LIST = 0x5c;
+	/**
+	 * Field SAMPLES.
+	 */
+	private static final int SAMPLES = 32;
+	/**
+	 * Field MIN_SAMPLES.
+	 */
+	private static final int MIN_SAMPLES = 5;
+	/**
+	 * Field PERCENTILE.
+	 */
+	private static final double PERCENTILE = 0.95;
+	/**
+	 * Field MARGIN.
+	 */
+	private static final double MARGIN = 1.5;
+	/**
+	 * Field SLACK.
+	 * (value is in milliseconds)
+	 */
+	private static final int SLACK = 50;
+	/**
+	 * Field MIN_BUDGET.
+	 * (value is in milliseconds)
+	 */
+	public static final int MIN_BUDGET = 250;
+	/**
+	 * Field MAX_BUDGET.
+	 * (value is in milliseconds)
+	 */
+	public static final int MAX_BUDGET = 10000;
+	/**
+	 * Field DEFAULT_FAST_BUDGET.
+	 * (value is in milliseconds)
+	 */
+	public static final int DEFAULT_FAST_BUDGET = 1500;
+	/**
+	 * Field DEFAULT_SLOW_BUDGET.
+	 * (value is in milliseconds)
+	 */
+	public static final int DEFAULT_SLOW_BUDGET = 5000;
+	/**
+	 * Field INS_GENERAL_AUTHENTICATE.
+	 */
+	private static final int INS_GENERAL_AUTHENTICATE = 0x87;
+	/**
+	 * Field INS_VERIFY.
+	 */
+	private static final int INS_VERIFY = 0x20;
+	/**
+	 * Field classes.
+	 */
+	private final Map<Integer, CommandClass> classes = new HashMap<Integer, CommandClass>();
+	/**
+	 * Field defaultBudget.
+	 * Budget for classes we know nothing about.
+	 */
+	private int defaultBudget;
+	/**
+	 * Field fastBudget.
+	 * Budget for SELECT, GET DATA and GET RESPONSE until measured.
+	 */
+	private int fastBudget;
+	/**
+	 * Field slowBudget.
+	 * Budget for GENERAL AUTHENTICATE and VERIFY until measured.
+	 */
+	private int slowBudget;
+
+	/**
+	 * Constructor for TimeoutController.
+	 */
+	public TimeoutController() {
+		this(DEFAULT_SLOW_BUDGET);
+	}
+
+	/**
+	 * Constructor for TimeoutController.
+	 *
+	 * @param defaultBudget
+	 *            int the budget for commands other than SELECT, GET DATA
+	 *            and GET RESPONSE that have not been measured yet
+	 */
+	public TimeoutController(int defaultBudget) {
+		this(DEFAULT_FAST_BUDGET, Math.max(defaultBudget, DEFAULT_SLOW_BUDGET),
+				defaultBudget);
+	}
+
+	/**
+	 * Constructor for TimeoutController.
+	 *
+	 * @param fastBudget
+	 *            int the budget for SELECT, GET DATA and GET RESPONSE that
+	 *            have not been measured yet
+	 * @param slowBudget
+	 *            int the budget for GENERAL AUTHENTICATE and VERIFY that
+	 *            have not been measured yet
+	 * @param defaultBudget
+	 *            int the budget for any other command that has not been
+	 *            measured yet
+	 */
+	public TimeoutController(int fastBudget, int slowBudget, int defaultBudget) {
+		this.fastBudget = fastBudget;
+		this.slowBudget = slowBudget;
+		this.defaultBudget = defaultBudget;
+	}
+
+	/**
+	 * Method commandClass.
+	 *
+	 * @param ins
+	 *            int
+	 * @param sizeClass
+	 *            int SIZE_NONE, SIZE_SHORT, SIZE_EXTENDED or SIZE_LARGE
+	 * @return int the key used for a class of commands
+	 */
+	public static int commandClass(int ins, int sizeClass) {
+		return ((ins & 0xff) << 8) | (sizeClass & 0xff);
+	}
+
+	/**
+	 * Method commandClass.
+	 *
+	 * Classifies an encoded command APDU without decoding it.  An
+	 * extended GET DATA is classed SIZE_LARGE when the object it asks for
+	 * is typically larger than LARGE_OBJECT.
+	 *
+	 * @param apdu
+	 *            byte[]
+	 * @param len
+	 *            int
+	 * @return int
+	 */
+	public static int commandClass(byte[] apdu, int len) {
+		int sizeClass;
+		if (len <= 4) {
+			/* Case 1 */
+			sizeClass = SIZE_NONE;
+		} else if (len == 5) {
+			/* Case 2 short */
+			sizeClass = SIZE_SHORT;
+		} else if (apdu[4] != 0) {
+			/* Case 3 or case 4 short */
+			sizeClass = len > 5 + (apdu[4] & 0xff) ? SIZE_SHORT : SIZE_NONE;
+		} else if (len == 7) {
+			/* Case 2 extended */
+			sizeClass = SIZE_EXTENDED;
+		} else {
+			/* Case 3 or case 4 extended */
+			int lc = ((apdu[5] & 0xff) << 8) | (apdu[6] & 0xff);
+			sizeClass = len > 7 + lc ? SIZE_EXTENDED : SIZE_NONE;
+			if (sizeClass == SIZE_EXTENDED && (apdu[1] & 0xff) == INS_GET_DATA
+					&& isLargeObject(apdu, 7, lc)) {
+				sizeClass = SIZE_LARGE;
+			}
+		}
+		return commandClass(apdu[1], sizeClass);
+	}
+
+	/**
+	 * Method isLargeObject.
+	 *
+	 * @param apdu
+	 *            byte[]
+	 * @param offset
+	 *            int of the GET DATA data field, 5C L tag
+	 * @param lc
+	 *            int the length of the data field
+	 * @return boolean true if the object asked for is typically larger
+	 *         than LARGE_OBJECT
+	 */
+	private static boolean isLargeObject(byte[] apdu, int offset, int lc) {
+		if (lc < 3 || (apdu[offset] & 0xff) != TAG_LIST) {
+			return false;
+		}
+		int tagLength = apdu[offset + 1] & 0xff;
+		if (tagLength + 2 > lc) {
+			return false;
+		}
+		PIVContainer container = PIVContainer.forTag(Arrays.copyOfRange(apdu,
+				offset + 2, offset + 2 + tagLength));
+		return container != null && container.getTypicalSize() > LARGE_OBJECT;
+	}
+
+	/**
+	 * Method getBudget.
+	 *
+	 * @param commandClass
+	 *            int
+	 * @return int the timeout to use for this class, in milliseconds
+	 */
+	public synchronized int getBudget(int commandClass) {
+		CommandClass cc = classes.get(commandClass);
+		if (cc != null && cc.budget > 0) {
+			return cc.budget;
+		}
+		return defaultFor(commandClass >> 8);
+	}
+
+	/**
+	 * Method record.
+	 *
+	 * @param commandClass
+	 *            int
+	 * @param millis
+	 *            long how long the command took to complete
+	 */
+	public synchronized void record(int commandClass, long millis) {
+		CommandClass cc = classes.get(commandClass);
+		if (cc == null) {
+			cc = new CommandClass();
+			classes.put(commandClass, cc);
+		}
+		cc.samples[cc.next] = (int) Math.min(millis, Integer.MAX_VALUE);
+		cc.next = (cc.next + 1) % SAMPLES;
+		if (cc.count < SAMPLES) {
+			cc.count++;
+		}
+		if (cc.floorLeft > 0 && --cc.floorLeft == 0) {
+			cc.floor = 0;
+		}
+		if (cc.count >= MIN_SAMPLES) {
+			System.arraycopy(cc.samples, 0, cc.sorted, 0, cc.count);
+			Arrays.sort(cc.sorted, 0, cc.count);
+			int index = (int) Math.ceil(PERCENTILE * cc.count) - 1;
+			int budget = Math.max(cc.floor, (int) (cc.sorted[index] * MARGIN) + SLACK);
+			cc.budget = Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, budget));
+		}
+	}
+
+	/**
+	 * Method recordTimeout.
+	 *
+	 * Records a command that did not complete within its budget.  The
+	 * time it would have taken is not known, only that it was more than
+	 * the budget, so the budget of its class is doubled instead.
+	 *
+	 * @param commandClass
+	 *            int
+	 * @param budget
+	 *            int the timeout the command was given, in milliseconds
+	 */
+	public synchronized void recordTimeout(int commandClass, int budget) {
+		CommandClass cc = classes.get(commandClass);
+		if (cc == null) {
+			cc = new CommandClass();
+			classes.put(commandClass, cc);
+		}
+		int current = Math.max(budget, getBudget(commandClass));
+		cc.budget = Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, current * 2));
+		cc.floor = cc.budget;
+		cc.floorLeft = SAMPLES;
+	}
+
+	/**
+	 * Method getProfile.
+	 *
+	 * @return Map<Integer, Integer> the budget in milliseconds for each
+	 *         command class that has been measured or preloaded
+	 */
+	public synchronized Map<Integer, Integer> getProfile() {
+		Map<Integer, Integer> profile = new HashMap<Integer, Integer>();
+		for (Map.Entry<Integer, CommandClass> entry : classes.entrySet()) {
+			if (entry.getValue().budget > 0) {
+				profile.put(entry.getKey(), entry.getValue().budget);
+			}
+		}
+		return profile;
+	}
+
+	/**
+	 * Method preload.
+	 *
+	 * Seed budgets, e.g., from a profile saved by getProfile().  Measured
+	 * latencies replace a preloaded budget once MIN_SAMPLES are taken.
+	 *
+	 * @param profile
+	 *            Map<Integer, Integer>
+	 */
+	public synchronized void preload(Map<Integer, Integer> profile) {
+		for (Map.Entry<Integer, Integer> entry : profile.entrySet()) {
+			CommandClass cc = classes.get(entry.getKey());
+			if (cc == null) {
+				cc = new CommandClass();
+				classes.put(entry.getKey(), cc);
+			}
+			cc.budget = Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, entry.getValue()));
+		}
+	}
+
+	/**
+	 * Method reset.
+	 */
+	public synchronized void reset() {
+		classes.clear();
+	}
+
+	/**
+	 * Method defaultFor.
+	 *
+	 * @param ins
+	 *            int
+	 * @return int
+	 */
+	private int defaultFor(int ins) {
+		switch (ins & 0xff) {
+		case 0xa4: /* SELECT */
+		case 0xcb: /* GET DATA */
+		case 0xc0: /* GET RESPONSE */
+			return fastBudget;
+		case INS_GENERAL_AUTHENTICATE:
+		case INS_VERIFY:
+			return slowBudget;
+		default:
+			return defaultBudget;
+		}
+	}
+
+	/**
+	 * Latency samples for a single command class.
+	 */
+	private static class CommandClass {
+		private final int[] samples = new int[SAMPLES];
+		private final int[] sorted = new int[SAMPLES];
+		private int next = 0;
+		private int count = 0;
+		private int budget = 0;
+		private int floor = 0;
+		private int floorLeft = 0;
+	}
+
+}
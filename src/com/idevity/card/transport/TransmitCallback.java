@@ -0,0 +1,50 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+import com.idevity.android.InvalidResponseException;
+
+/**
+ * Receives the result of an asynchronous exchange.
+ *
+ * Callbacks are invoked on the I/O thread of the AsyncCardTransport, so
+ * no other APDU is sent until they return.  Hand long work (parsing,
+ * signature verification, UI) to another thread.
+ *
+ * @param <T>
+ *            the type of result
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public interface TransmitCallback<T> {
+
+	/**
+	 * Method onResult.
+	 *
+	 * @param result
+	 *            T
+	 */
+	public void onResult(T result);
+
+	/**
+	 * Method onError.
+	 *
+	 * @param e
+	 *            InvalidResponseException (CardLostException if the card
+	 *            left the field)
+	 */
+	public void onError(InvalidResponseException e);
+
+}
@@ -0,0 +1,74 @@
+/******************************************************************************
+ * The following code belongs to IDevity and is provided though commercial
+ * license or by acceptance of an NDA only.
+ *
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ *
+ *****************************************************************************/
+
+package com.idevity.card.transport;
+
+/**
+ * Helpers shared by the CardTransport implementations.
+ * 
+ * @author Matthew Ambs (matt@idevity.com)
+ * @author Eugene Yu (eugene@idevity.com)
+ * @author Todd E. Johnson (todd@idevity.com)
+ * @author LaChelle Levan (lachelle@idevity.com)
+ */
+public final class TransportUtil {
+
+	/**
+	 * Field MAX_SHORT_LE.
+	 * (value is 256, encoded as an Le of 00)
+	 */
+	public final static int MAX_SHORT_LE = 256;
+	/**
+	 * Field MAX_EXTENDED_LE.
+	 * (value is 65536, encoded as an Le of 0000)
+	 */
+	public final static int MAX_EXTENDED_LE = 65536;
+
+	/**
+	 * Hidden Constructor for TransportUtil.
+	 */
+	private TransportUtil() {
+		// Hide default constructor
+	}
+
+	/**
+	 * Method getMaxExtendedLe.
+	 * 
+	 * The largest Le we can request in an extended length APDU without
+	 * the response (data + SW1 SW2) exceeding the transceive limit.
+	 * 
+	 * @param elApduSupport
+	 *            boolean
+	 * @param maxTransceive
+	 *            int
+	 * @return int 0 if extended length APDUs would gain nothing
+	 */
+	public static int getMaxExtendedLe(boolean elApduSupport, int maxTransceive) {
+		if (!elApduSupport || maxTransceive - 2 <= MAX_SHORT_LE) {
+			return 0;
+		}
+		return Math.min(maxTransceive - 2, MAX_EXTENDED_LE);
+	}
+
+	/**
+	 * Method getSW.
+	 * 
+	 * @param response
+	 *            byte[] a response APDU, data followed by SW1 SW2
+	 * @param length
+	 *            int the length of the response in the buffer
+	 * @return int SW1 SW2 as a single int
+	 */
+	public static int getSW(byte[] response, int length) {
+		return ((response[length - 2] & 0xff) << 8) | (response[length - 1] & 0xff);
+	}
+
+}